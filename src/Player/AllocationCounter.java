@@ -0,0 +1,90 @@
+package Player;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Bytes allocated by the current thread, from the JVM's per-thread
+ * allocation counter. On JVMs without one every reading is -1.
+ */
+public final class AllocationCounter {
+
+    private static final boolean SUPPORTED = find();
+    // Some JVMs allocate while reading the counter; since() takes that off
+    private static final long OVERHEAD = calibrate();
+
+    private AllocationCounter() {
+    }
+
+    private static boolean find() {
+        try {
+            return Counter.THREADS != null;
+        } catch (LinkageError e) {
+            // No com.sun.management on this JVM
+            return false;
+        }
+    }
+
+    private static long calibrate() {
+        if (!SUPPORTED) {
+            return 0;
+        }
+        long least = Long.MAX_VALUE;
+        for (int i = 0; i < 16; i++) {
+            long before = Counter.bytes();
+            least = Math.min(least, Counter.bytes() - before);
+        }
+        return least;
+    }
+
+    /**
+     * @return true if the JVM counts allocations per thread
+     */
+    public static boolean isSupported() {
+        return SUPPORTED;
+    }
+
+    /**
+     * @return bytes allocated by the current thread so far, -1 if unknown
+     */
+    public static long currentThreadBytes() {
+        return SUPPORTED ? Counter.bytes() : -1;
+    }
+
+    /**
+     * @param start - an earlier reading of currentThreadBytes
+     * @return bytes allocated by the current thread since then, not counting
+     * the reading itself; -1 if unknown
+     */
+    public static long since(long start) {
+        if (!SUPPORTED) {
+            return -1;
+        }
+        return Math.max(0, currentThreadBytes() - start - OVERHEAD);
+    }
+
+    /**
+     * The only code linked against com.sun.management, so a JVM without it
+     * fails here, where find() catches it, and nowhere else.
+     */
+    private static final class Counter {
+
+        static final com.sun.management.ThreadMXBean THREADS = enable();
+
+        private static com.sun.management.ThreadMXBean enable() {
+            ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+                if (threads.isThreadAllocatedMemorySupported()) {
+                    threads.setThreadAllocatedMemoryEnabled(true);
+                    return threads;
+                }
+            }
+            return null;
+        }
+
+        static long bytes() {
+            return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+    }
+}
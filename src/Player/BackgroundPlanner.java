@@ -0,0 +1,211 @@
+package Player;
+
+import com.orbischallenge.pacman.api.common.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Plans the next decision on a worker thread while the game runs the frame.
+ * After each decision the game thread hands over a snapshot of the frame and
+ * the move it chose; the worker guesses what the next frame will look like,
+ * with Pacman on the same tile or one tile further on, and plans for each
+ * guess. On the next frame the game thread uses an answer whose snapshot
+ * matches the frame exactly, or else plans itself as usual.
+ *
+ * Thread safety: the worker owns its own PacPlayer and MazeGraph, which no
+ * other thread touches; the two threads share only immutable snapshots, the
+ * latest request under the lock, and answers published through an atomic
+ * array. An answer is stale unless its snapshot matches the frame, which
+ * also covers answers from an earlier level or life.
+ */
+public class BackgroundPlanner {
+
+    // Guesses planned per frame: Pacman staying on his tile, and stepping on
+    private static final int GUESSES = 2;
+    private final PlayerConfig config;
+    private final Thread worker;
+    private final Object lock = new Object();
+    // The latest frame to plan ahead from, and whether to keep going;
+    // guarded by lock
+    private GameSnapshot request;
+    private MoveDir requestDir;
+    private boolean running = true;
+    // Written by the worker, read by the game thread
+    private final AtomicReferenceArray<Answer> answers = new AtomicReferenceArray<Answer>(GUESSES);
+    private volatile long planned;
+    private volatile long dropped;
+    // Game thread only
+    private long hits;
+    private long misses;
+    // Worker thread only
+    private final PacPlayer planner;
+    private int level = -1;
+    private int epoch = -1;
+    private MazeItem[][] plannedMatrix;
+
+    /**
+     * A decision for a snapshot, never changed once published.
+     */
+    private static final class Answer {
+
+        final GameSnapshot snapshot;
+        final MoveDir dir;
+
+        Answer(GameSnapshot snapshot, MoveDir dir) {
+            this.snapshot = snapshot;
+            this.dir = dir;
+        }
+    }
+
+    /**
+     * Start the worker.
+     *
+     * @param config - tuning values of the player; the worker plans with a
+     * copy that has async planning off
+     */
+    public BackgroundPlanner(PlayerConfig config) {
+        this.config = new PlayerConfig(config);
+        this.config.set("asyncPlanning", 0);
+        this.planner = new PacPlayer(this.config, new FrameMetrics(null));
+        this.worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                work();
+            }
+        }, "pacman-planner");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Called on the game thread at the start of a frame.
+     *
+     * @param snapshot - the frame
+     * @return the move planned for a matching guess, null if there is none
+     */
+    public MoveDir answer(GameSnapshot snapshot) {
+        for (int i = 0; i < GUESSES; i++) {
+            Answer answer = answers.get(i);
+            if (answer != null && answer.snapshot.matches(snapshot)) {
+                hits++;
+                return answer.dir;
+            }
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Called on the game thread once the frame's move is chosen. Replaces
+     * any request the worker hasn't started on.
+     *
+     * @param snapshot - the frame
+     * @param dir - the move chosen for it
+     */
+    public void submit(GameSnapshot snapshot, MoveDir dir) {
+        synchronized (lock) {
+            request = snapshot;
+            requestDir = dir;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Stop the worker after the guess it is on. Answers are no longer
+     * produced, so every frame falls back to planning on the game thread.
+     */
+    public void shutdown() {
+        synchronized (lock) {
+            running = false;
+            lock.notifyAll();
+        }
+    }
+
+    private void work() {
+        while (true) {
+            GameSnapshot snapshot;
+            MoveDir dir;
+            synchronized (lock) {
+                while (running && request == null) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (!running) {
+                    return;
+                }
+                snapshot = request;
+                dir = requestDir;
+                request = null;
+            }
+            for (int i = 0; i < GUESSES; i++) {
+                answers.set(i, null);
+            }
+            for (int i = 0; i < GUESSES; i++) {
+                if (hasNewRequest()) {
+                    dropped += GUESSES - i;
+                    break;
+                }
+                GameSnapshot guess = snapshot.guess(dir, i > 0, config);
+                if (guess != null) {
+                    answers.set(i, new Answer(guess, plan(guess)));
+                    planned++;
+                }
+            }
+        }
+    }
+
+    private boolean hasNewRequest() {
+        synchronized (lock) {
+            return request != null || !running;
+        }
+    }
+
+    /**
+     * Bring the worker's player to the snapshot's level, life and dots, and
+     * decide on it.
+     */
+    private MoveDir plan(GameSnapshot snapshot) {
+        if (snapshot.getLevel() != level) {
+            planner.startLevel(snapshot.getLevel(),
+                    new MazeGraph(snapshot.getTables(), snapshot.toMatrix()),
+                    snapshot.getGhosts(), snapshot.getPac());
+            plannedMatrix = snapshot.toMatrix();
+            level = snapshot.getLevel();
+        }
+        if (snapshot.getEpoch() != epoch) {
+            planner.startLife(snapshot.getGhosts(), snapshot.getPac());
+            epoch = snapshot.getEpoch();
+        }
+        if (snapshot.toMatrix() != plannedMatrix) {
+            // The last guess may have eaten a dot that is still there
+            planner.getGraph().reloadDots(snapshot);
+            plannedMatrix = snapshot.toMatrix();
+        }
+        return planner.decide(snapshot, snapshot.getGhosts(), snapshot.getPac(),
+                snapshot.getScore());
+    }
+
+    /**
+     * @return frames answered from a guess
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return frames the game thread had to plan itself
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    @Override
+    public String toString() {
+        long frames = hits + misses;
+        return String.format("background planner: %d of %d frames answered (%.1f%%), "
+                + "%d guesses planned, %d dropped for a newer frame",
+                hits, frames, frames == 0 ? 0.0 : 100.0 * hits / frames, planned, dropped);
+    }
+}
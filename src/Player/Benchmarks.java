@@ -0,0 +1,388 @@
+package Player;
+
+import java.awt.Point;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Micro benchmarks of the MazeGraph and PacPlayer hot paths, on the classic
+ * maze and a large generated one. Every fixture is built from a fixed seed
+ * and runs without the game.
+ *
+ * Each case is warmed up, then run for a fixed time, and reported as
+ * operations per second, nanoseconds per operation and bytes allocated per
+ * operation (from the thread allocation counter, so it counts every
+ * allocation, not only what survives to a GC).
+ */
+public class Benchmarks {
+
+    private static final int PAIRS = 256;
+    private static final int WARMUP_FRAMES = 300;
+    private static final int REPLAY_FRAMES = 2000;
+    // Results are folded in here so the JIT can't drop the work
+    private static volatile long sink;
+
+    /**
+     * One benchmarked operation.
+     */
+    private abstract static class Case {
+
+        final String name;
+
+        Case(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @param i - the iteration, for picking inputs
+         * @return anything derived from the result
+         */
+        abstract long run(int i);
+    }
+
+    /**
+     * A maze with everything the cases need built from a fixed seed:
+     * random pairs of reachable tiles and a game played up to mid-game.
+     */
+    private static class Fixture {
+
+        final String name;
+        final SimMaze maze;
+        final MazeTables tables;
+        final MazeGraph graph;
+        final Point[] from = new Point[PAIRS];
+        final Point[] to = new Point[PAIRS];
+        final Simulator simulator;
+        final PacPlayer player = new PacPlayer();
+
+        Fixture(String name, String[] layout, long seed) {
+            this.name = name;
+            this.maze = new SimMaze(layout);
+            this.tables = new MazeTables(maze.getGrid());
+            this.graph = new MazeGraph(tables, maze.toMatrix());
+            TileGrid grid = maze.getGrid();
+            List<Point> reachable = new ArrayList<Point>();
+            for (int tile = 0; tile < grid.size(); tile++) {
+                if (tables.getDistances().distance(maze.getPacStart(), tile) != DistanceTable.UNREACHABLE) {
+                    reachable.add(grid.toPoint(tile));
+                }
+            }
+            Random random = new Random(seed);
+            for (int i = 0; i < PAIRS; i++) {
+                from[i] = reachable.get(random.nextInt(reachable.size()));
+                to[i] = reachable.get(random.nextInt(reachable.size()));
+            }
+            this.simulator = new Simulator(layout, tables, seed);
+            simulator.begin(player);
+            for (int i = 0; i < WARMUP_FRAMES && simulator.frame(player); i++) {
+            }
+        }
+    }
+
+    private static List<Case> cases(final Fixture f) {
+        List<Case> cases = new ArrayList<Case>();
+        final TileGrid grid = f.maze.getGrid();
+        cases.add(new Case(f.name + " MazeGraph cold") {
+            @Override
+            long run(int i) {
+                return new MazeGraph(grid, f.maze.toMatrix()).getJunctions().edgeCount();
+            }
+        });
+        cases.add(new Case(f.name + " MazeGraph shared tables") {
+            @Override
+            long run(int i) {
+                return new MazeGraph(f.tables, f.maze.toMatrix()).getCorners().size();
+            }
+        });
+        cases.add(new Case(f.name + " getShortestPath") {
+            @Override
+            long run(int i) {
+                return f.graph.getShortestPath(f.from[i % PAIRS], f.to[i % PAIRS]).size();
+            }
+        });
+        for (final int nodeLimit : new int[]{4, 8, 16}) {
+            cases.add(new Case(f.name + " getPaths nodeLimit=" + nodeLimit) {
+                @Override
+                long run(int i) {
+                    return f.graph.getPaths(f.from[i % PAIRS], f.to[i % PAIRS], nodeLimit).size();
+                }
+            });
+        }
+        cases.add(new Case(f.name + " findNearestDots") {
+            @Override
+            long run(int i) {
+                return f.graph.findNearestDots(f.from[i % PAIRS], f.graph.getCurrentDots()).size();
+            }
+        });
+        // Checking a path against the ghosts, which replaced isPathsOverlap
+        final ThreatField threats = new ThreatField(grid, PacPlayer.pacSpeed, 0.5);
+        cases.add(new Case(f.name + " ThreatField update+isSafe") {
+            @Override
+            long run(int i) {
+                threats.update(f.simulator.getGhosts(), PacPlayer.getGhostSpeed(1));
+                List<Point> path = f.graph.getShortestPath(f.from[i % PAIRS], f.to[i % PAIRS]);
+                return threats.isSafe(path) ? 1 : 0;
+            }
+        });
+        // The ghosts' own rules played forward, through every frame of a game
+        // in turn so predictions carry over from frame to frame as in play
+        final int[][] frames = ghostFrames(f);
+        final RecordedGhost[] recorded = new RecordedGhost[f.simulator.getGhosts().length];
+        for (int g = 0; g < recorded.length; g++) {
+            recorded[g] = new RecordedGhost();
+        }
+        final GhostPredictor predictor = new GhostPredictor(f.tables.getJunctions(),
+                f.tables.getDistances(), recorded.length, PacPlayer.pacSpeed,
+                PacPlayer.getGhostSpeed(1), 0.5, 5, 30);
+        cases.add(new Case(f.name + " GhostPredictor update") {
+            @Override
+            long run(int i) {
+                int[] frame = frames[i % frames.length];
+                for (int g = 0; g < recorded.length; g++) {
+                    recorded[g].x = frame[2 + 3 * g];
+                    recorded[g].y = frame[3 + 3 * g];
+                    recorded[g].recover = frame[4 + 3 * g];
+                }
+                predictor.update(recorded, frame[0], frame[1]);
+                return predictor.isOccupied(frame[0], 15) ? 1 : 0;
+            }
+        });
+        // The whole region Pacman can get to before the ghosts, as when no
+        // dot is safe: the gated search against the flood fill
+        final BitBoard bits = new BitBoard(grid);
+        final long[] region = bits.newSet();
+        final TileSearch search = new TileSearch(grid);
+        final TileSet none = new TileSet(grid.size());
+        final int[] found = new int[1];
+        threats.update(f.simulator.getGhosts(), PacPlayer.getGhostSpeed(1));
+        cases.add(new Case(f.name + " safe region gated search") {
+            @Override
+            long run(int i) {
+                search.findTargets(grid.tileAt(f.from[i % PAIRS].x, f.from[i % PAIRS].y),
+                        none, threats, 1, grid.size(), found);
+                return search.getExpanded();
+            }
+        });
+        cases.add(new Case(f.name + " safe region BitBoard") {
+            @Override
+            long run(int i) {
+                return threats.safeRegion(bits, grid.tileAt(f.from[i % PAIRS].x, f.from[i % PAIRS].y),
+                        grid.size(), null, region);
+            }
+        });
+        // A hunt over four frightened ghosts, solved from scratch as Pacman
+        // is on a new tile every time
+        final HuntPlanner hunt = new HuntPlanner(f.tables.getDistances(), 4);
+        final int[] huntTiles = new int[4];
+        final int[] deadlines = {300, 250, 200, 150};
+        for (int g = 0; g < 4; g++) {
+            huntTiles[g] = grid.tileAt(f.to[g].x, f.to[g].y);
+        }
+        cases.add(new Case(f.name + " HuntPlanner solve") {
+            @Override
+            long run(int i) {
+                return hunt.solve(grid.tileAt(f.from[i % PAIRS].x, f.from[i % PAIRS].y),
+                        huntTiles, deadlines, 4, GhostRules.FPS / PacPlayer.pacSpeed);
+            }
+        });
+        // The full dot tour built and improved till settled, from a new tile
+        // every time
+        final SegmentTour tour = new SegmentTour(f.graph.getCorridors(), f.tables.getDistances());
+        cases.add(new Case(f.name + " SegmentTour rebuild+improve") {
+            @Override
+            long run(int i) {
+                tour.rebuild(f.graph.getDots(), grid.tileAt(f.from[i % PAIRS].x, f.from[i % PAIRS].y));
+                tour.improve(Long.MAX_VALUE);
+                return tour.length();
+            }
+        });
+        final GameState state = new GameState(new GameBoard(f.tables,
+                new SimMaze(f.simulator.getMaze().getLayout()).toMatrix()), f.simulator.getGhosts().length);
+        state.load(f.simulator);
+        final GameState fork = state.copy();
+        cases.add(new Case(f.name + " GameState copy") {
+            @Override
+            long run(int i) {
+                fork.copyFrom(state);
+                return fork.getPacTile();
+            }
+        });
+        // A frame of lookahead: random moves, taken back every 64 frames or
+        // when the game ends
+        cases.add(new Case(f.name + " GameState apply+undo") {
+            @Override
+            long run(int i) {
+                if (fork.getDepth() >= 64 || fork.getStatus() != GameState.PLAYING) {
+                    while (fork.undo()) {
+                    }
+                }
+                fork.apply((i * 0x9e3779b9 >>> 30) & 3);
+                return fork.getScore();
+            }
+        });
+        cases.add(new Case(f.name + " decide frame") {
+            @Override
+            long run(int i) {
+                return f.player.decide(f.simulator.getMaze(), f.simulator.getGhosts(),
+                        f.simulator.getScore()).ordinal();
+            }
+        });
+        // Every frame of a recorded game in turn, the same frames however
+        // the player now plays, starting over with a new player at the end
+        final byte[] recording = record(f);
+        cases.add(new Case(f.name + " replayed frame") {
+            private FrameReplay replay;
+            private PacPlayer player;
+
+            @Override
+            long run(int i) {
+                try {
+                    if (replay == null || !replay.next(player)) {
+                        player = new PacPlayer(new PlayerConfig());
+                        replay = new FrameReplay(Channels.newChannel(new ByteArrayInputStream(recording)));
+                        replay.next(player);
+                    }
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                return replay.getFrame();
+            }
+        });
+        return cases;
+    }
+
+    /**
+     * @return a recording of the first REPLAY_FRAMES frames of a game on the
+     * fixture's maze
+     */
+    private static byte[] record(Fixture f) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PacPlayer player = new PacPlayer(new PlayerConfig());
+        player.setRecorder(new FrameRecorder(Channels.newChannel(bytes)));
+        Simulator simulator = new Simulator(f.maze.getLayout(), f.tables, 1);
+        simulator.setMaxFrames(REPLAY_FRAMES);
+        simulator.play(player);
+        player.shutdown();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return for each of the first REPLAY_FRAMES frames of a game on the
+     * fixture's maze: Pacman's tile and direction index, then each ghost's
+     * x, y and frames till it recovers, -1 if it isn't frightened
+     */
+    private static int[][] ghostFrames(Fixture f) {
+        PacPlayer player = new PacPlayer(new PlayerConfig());
+        Simulator simulator = new Simulator(f.maze.getLayout(), f.tables, 1);
+        TileGrid grid = f.maze.getGrid();
+        List<int[]> frames = new ArrayList<int[]>();
+        simulator.begin(player);
+        while (frames.size() < REPLAY_FRAMES && simulator.frame(player)) {
+            SimGhost[] ghosts = simulator.getGhosts();
+            int[] frame = new int[2 + 3 * ghosts.length];
+            frame[0] = simulator.getPac().getTileId();
+            frame[1] = simulator.getPac().getDirIndex();
+            for (int g = 0; g < ghosts.length; g++) {
+                frame[2 + 3 * g] = grid.xOf(ghosts[g].getTileId());
+                frame[3 + 3 * g] = grid.yOf(ghosts[g].getTileId());
+                frame[4 + 3 * g] = ghosts[g].isFrightened() ? ghosts[g].framesTillRecover() : -1;
+            }
+            frames.add(frame);
+        }
+        player.shutdown();
+        return frames.toArray(new int[frames.size()][]);
+    }
+
+    /**
+     * A ghost as it was on a frame of ghostFrames.
+     */
+    private static class RecordedGhost implements GhostView {
+
+        int x;
+        int y;
+        int recover;
+
+        @Override
+        public Point getTile() {
+            return new Point(x, y);
+        }
+
+        @Override
+        public int getTileX() {
+            return x;
+        }
+
+        @Override
+        public int getTileY() {
+            return y;
+        }
+
+        @Override
+        public boolean isFrightened() {
+            return recover >= 0;
+        }
+
+        @Override
+        public int framesTillRecover() {
+            return Math.max(recover, 0);
+        }
+    }
+
+    /**
+     * Warm a case up, then time it.
+     *
+     * @param c
+     * @param millis - time for warm up, and again for measuring
+     * @param out - receives one line of results
+     */
+    private static void measure(Case c, long millis, PrintStream out) {
+        long nanos = millis * 1000000L;
+        long sum = 0;
+        int i = 0;
+        long end = System.nanoTime() + nanos;
+        while (System.nanoTime() < end) {
+            sum += c.run(i++);
+        }
+        long ops = 0;
+        long bytes = AllocationCounter.currentThreadBytes();
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            sum += c.run(i++);
+            ops++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < nanos);
+        bytes = AllocationCounter.since(bytes);
+        sink += sum;
+        out.println(String.format("%-45s %14.1f ops/s %12.1f ns/op %12s B/op",
+                c.name, ops * 1e9 / elapsed, (double) elapsed / ops,
+                AllocationCounter.isSupported() ? String.format("%.1f", (double) bytes / ops) : "n/a"));
+    }
+
+    /**
+     * Run the benchmarks.
+     *
+     * @param args - only run cases whose name contains args[0], if given;
+     * args[1] is the time per case in milliseconds (default 1000)
+     */
+    public static void main(String[] args) {
+        String filter = args.length > 0 ? args[0] : "";
+        long millis = args.length > 1 ? Long.parseLong(args[1]) : 1000;
+        List<Fixture> fixtures = new ArrayList<Fixture>();
+        fixtures.add(new Fixture("classic", SimMaze.CLASSIC, 1));
+        fixtures.add(new Fixture("large", SimMaze.generate(81, 81, 1), 1));
+        for (Fixture fixture : fixtures) {
+            for (Case c : cases(fixture)) {
+                if (c.name.contains(filter)) {
+                    measure(c, millis, System.out);
+                }
+            }
+        }
+    }
+}
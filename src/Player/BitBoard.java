@@ -0,0 +1,261 @@
+package Player;
+
+import java.util.Arrays;
+
+/**
+ * Flood fills over bitsets of tile ids. A set of tiles is a long[] with bit
+ * (tile & 63) of word (tile >>> 6) for each tile, the same layout as TileSet,
+ * DotIndex and GameBoard use, so the maze's walkable tiles, the dots and the
+ * ghosts all fit in a handful of words. One step of a flood fill moves every
+ * tile of a set to its four neighbours at once: left and right are shifts by
+ * one bit, masked so rows don't spill into each other, and up and down are
+ * shifts by the width of the maze, all kept to the walkable tiles. A step
+ * costs a few word operations per word of the set, whatever the set holds.
+ *
+ * Steps go between walkable tiles as TileGrid.neighbour does, not through
+ * the tunnel, so the fills agree with the breadth first searches.
+ *
+ * A BitBoard holds scratch sets and must not be shared between threads.
+ */
+public class BitBoard {
+
+    private final TileGrid grid;
+    private final int width;
+    private final int words;
+    private final long[] walkable;
+    // Tiles a step right or left may land on: all but the first and the
+    // last column
+    private final long[] notFirstColumn;
+    private final long[] notLastColumn;
+    // Scratch
+    private final long[] front;
+    private final long[] ghost;
+    private final long[] grown;
+
+    public BitBoard(TileGrid grid) {
+        this.grid = grid;
+        this.width = grid.getWidth();
+        this.words = (grid.size() + 63) >>> 6;
+        this.walkable = grid.walkableBits();
+        this.notFirstColumn = new long[words];
+        this.notLastColumn = new long[words];
+        for (int tile = 0; tile < grid.size(); tile++) {
+            if (grid.xOf(tile) != 0) {
+                add(notFirstColumn, tile);
+            }
+            if (grid.xOf(tile) != width - 1) {
+                add(notLastColumn, tile);
+            }
+        }
+        this.front = new long[words];
+        this.ghost = new long[words];
+        this.grown = new long[words];
+    }
+
+    /**
+     * @return an empty set of tiles of this maze
+     */
+    public long[] newSet() {
+        return new long[words];
+    }
+
+    public static void add(long[] set, int tile) {
+        if (tile >= 0) {
+            set[tile >>> 6] |= 1L << tile;
+        }
+    }
+
+    public static boolean contains(long[] set, int tile) {
+        return tile >= 0 && (set[tile >>> 6] & (1L << tile)) != 0;
+    }
+
+    /**
+     * @param set
+     * @return the number of tiles in the set
+     */
+    public static int count(long[] set) {
+        int count = 0;
+        for (long word : set) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * @param a
+     * @param b
+     * @return the number of tiles in both sets, e.g. the dots in a region
+     */
+    public static int countBoth(long[] a, long[] b) {
+        int count = 0;
+        for (int i = 0; i < Math.min(a.length, b.length); i++) {
+            count += Long.bitCount(a[i] & b[i]);
+        }
+        return count;
+    }
+
+    /**
+     * One flood fill step: the tiles of src and their walkable neighbours.
+     *
+     * @param src
+     * @param dst - receives the result; not src
+     * @return true if dst has tiles src hasn't
+     */
+    public boolean dilate(long[] src, long[] dst) {
+        if (width < 64) {
+            return dilateNarrow(src, dst);
+        }
+        boolean changed = false;
+        for (int i = 0; i < words; i++) {
+            long word = src[i]
+                    | (shifted(src, i, 1) & notFirstColumn[i])
+                    | (shifted(src, i, -1) & notLastColumn[i])
+                    | shifted(src, i, width)
+                    | shifted(src, i, -width);
+            word &= walkable[i] | src[i];
+            changed |= word != src[i];
+            dst[i] = word;
+        }
+        return changed;
+    }
+
+    /**
+     * dilate for mazes narrower than a word, where every shift only carries
+     * into the next word
+     */
+    private boolean dilateNarrow(long[] src, long[] dst) {
+        boolean changed = false;
+        int back = 64 - width;
+        long prev = 0;
+        long word = src[0];
+        for (int i = 0; i < words; i++) {
+            long next = i + 1 < words ? src[i + 1] : 0;
+            long grown = word
+                    | (((word << 1) | (prev >>> 63)) & notFirstColumn[i])
+                    | (((word >>> 1) | (next << 63)) & notLastColumn[i])
+                    | (word << width) | (prev >>> back)
+                    | (word >>> width) | (next << back);
+            grown &= walkable[i] | word;
+            changed |= grown != word;
+            dst[i] = grown;
+            prev = word;
+            word = next;
+        }
+        return changed;
+    }
+
+    /**
+     * @return word i of the set with every tile moved k tiles on (back if k
+     * is negative)
+     */
+    private long shifted(long[] set, int i, int k) {
+        if (k > 0) {
+            int j = i - (k >>> 6);
+            int r = k & 63;
+            long word = j >= 0 ? set[j] << r : 0;
+            if (r != 0 && j > 0) {
+                word |= set[j - 1] >>> (64 - r);
+            }
+            return word;
+        }
+        k = -k;
+        int j = i + (k >>> 6);
+        int r = k & 63;
+        long word = j < words ? set[j] >>> r : 0;
+        if (r != 0 && j + 1 < words) {
+            word |= set[j + 1] << (64 - r);
+        }
+        return word;
+    }
+
+    /**
+     * The tiles within some steps of a tile.
+     *
+     * @param from - a tile id
+     * @param steps - the most steps to take
+     * @param out - receives the tiles
+     * @return the steps taken, fewer than asked if the fill ran out of tiles
+     */
+    public int reachable(int from, int steps, long[] out) {
+        Arrays.fill(out, 0);
+        add(out, from);
+        int taken = 0;
+        while (taken < steps && dilate(out, grown)) {
+            System.arraycopy(grown, 0, out, 0, words);
+            taken++;
+        }
+        return taken;
+    }
+
+    /**
+     * The tiles Pacman can get to before any ghost, by ThreatField's rule:
+     * Pacman may step on a tile k steps away if no ghost gets there in less
+     * than k * pacStepTime + slack, and he only goes on from tiles he may
+     * step on. Pacman's front grows a step at a time while the ghosts' grows
+     * as far as they get in the same time, so this is the set of tiles a
+     * breadth first search gated by the ghosts would visit.
+     *
+     * @param pacTile
+     * @param ghostTiles - the ghosts to keep ahead of
+     * @param ghosts - how many of ghostTiles to use
+     * @param pacStepTime - time Pacman needs per tile
+     * @param ghostStepTime - time a ghost needs per tile
+     * @param slack - time Pacman must be ahead by
+     * @param maxSteps - the furthest Pacman may go
+     * @param goals - stop as soon as the region holds one of these tiles,
+     * null to fill it all
+     * @param out - receives the tiles, Pacman's own included
+     * @return the steps taken, fewer than maxSteps if the region stopped
+     * growing or got to a goal
+     */
+    public int safeRegion(int pacTile, int[] ghostTiles, int ghosts, int pacStepTime,
+            int ghostStepTime, int slack, int maxSteps, long[] goals, long[] out) {
+        Arrays.fill(out, 0);
+        add(out, pacTile);
+        Arrays.fill(ghost, 0);
+        for (int g = 0; g < ghosts; g++) {
+            add(ghost, ghostTiles[g]);
+        }
+        int ghostSteps = 0;
+        boolean ghostsMoving = ghosts > 0;
+        int taken = 0;
+        while (taken < maxSteps) {
+            int steps = taken + 1;
+            // Ghosts get to every tile within this many steps too early
+            long early = ((long) steps * pacStepTime + slack + ghostStepTime - 1) / ghostStepTime - 1;
+            while (ghostsMoving && ghostSteps < early) {
+                ghostsMoving = dilate(ghost, grown);
+                System.arraycopy(grown, 0, ghost, 0, words);
+                ghostSteps++;
+            }
+            dilate(out, front);
+            boolean changed = false;
+            boolean found = false;
+            for (int i = 0; i < words; i++) {
+                long word = out[i] | (front[i] & ~ghost[i]);
+                changed |= word != out[i];
+                found |= goals != null && (word & goals[i]) != 0;
+                out[i] = word;
+            }
+            if (!changed) {
+                break;
+            }
+            taken = steps;
+            if (found) {
+                break;
+            }
+        }
+        return taken;
+    }
+
+    public TileGrid getGrid() {
+        return grid;
+    }
+
+    /**
+     * @return the number of words in a set
+     */
+    public int getWords() {
+        return words;
+    }
+}
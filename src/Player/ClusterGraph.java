@@ -0,0 +1,562 @@
+package Player;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Near shortest paths for mazes too large for a DistanceTable, by
+ * hierarchical search. The maze is cut into square clusters of CLUSTER tiles
+ * a side. Every run of open tiles across the border of two clusters is an
+ * entrance, with a node on the tile either side of its middle. Nodes are
+ * linked across their entrance by a step, and inside a cluster by the steps
+ * between them without leaving it.
+ *
+ * A query searches the start's cluster from the start and the goal's from
+ * the goal, and A* over the nodes joins the two. Only the path found is
+ * walked out tile by tile, a cluster at a time. A query costs two searches of
+ * a cluster and the nodes A* visits, however large the maze is. Paths that
+ * leave a cluster and come back into it are not seen inside it, so a distance
+ * can be a few steps longer than the shortest.
+ *
+ * The links inside the clusters, a breadth first search per node, are found
+ * in parallel, a share of the clusters per thread.
+ *
+ * A ClusterGraph never changes after it is built and can be shared freely;
+ * every thread querying it gets scratch of its own.
+ */
+public class ClusterGraph implements MazeDistances {
+
+    /**
+     * Tiles per side of a cluster
+     */
+    public static final int CLUSTER = 16;
+    private static final int NONE = -1;
+    private final TileGrid grid;
+    private final int width;
+    private final int clustersX;
+    // Node of every tile, -1 for tiles that are no node
+    private final int[] nodeOf;
+    private final int[] nodeTile;
+    private final int nodes;
+    // Nodes of cluster c are clusterNodes[clusterFirst[c]] up to
+    // clusterNodes[clusterFirst[c + 1]] (exclusive)
+    private final int[] clusterFirst;
+    private final int[] clusterNodes;
+    // Links of node n are linkTo[linkFirst[n]] up to linkTo[linkFirst[n + 1]]
+    // (exclusive), with their steps
+    private final int[] linkFirst;
+    private final int[] linkTo;
+    private final int[] linkSteps;
+    private final ThreadLocal<Query> queries = new ThreadLocal<Query>() {
+        @Override
+        protected Query initialValue() {
+            return new Query();
+        }
+    };
+
+    /**
+     * @param grid
+     * @param threads - threads linking the clusters, 0 for one per core
+     */
+    public ClusterGraph(TileGrid grid, int threads) {
+        this.grid = grid;
+        this.width = grid.getWidth();
+        this.clustersX = (width + CLUSTER - 1) / CLUSTER;
+        int clustersY = (grid.getHeight() + CLUSTER - 1) / CLUSTER;
+        this.nodeOf = new int[grid.size()];
+        Arrays.fill(nodeOf, NONE);
+        // Entrances, as pairs of tiles facing each other across a border
+        int[] pairs = new int[64];
+        int count = 0;
+        for (int vertical = 0; vertical < 2; vertical++) {
+            // Across borders between columns of clusters, then rows
+            int lines = vertical == 0 ? clustersX - 1 : clustersY - 1;
+            int along = vertical == 0 ? grid.getHeight() : width;
+            for (int line = 0; line < lines; line++) {
+                int across = (line + 1) * CLUSTER - 1;
+                int run = 0;
+                for (int i = 0; i <= along; i++) {
+                    int a = i < along ? (vertical == 0 ? grid.tileAt(across, i) : grid.tileAt(i, across)) : -1;
+                    int b = i < along ? (vertical == 0 ? grid.tileAt(across + 1, i) : grid.tileAt(i, across + 1)) : -1;
+                    boolean open = grid.isWalkable(a) && grid.isWalkable(b);
+                    // A run ends where it closes or at a cluster's edge
+                    if (run > 0 && (!open || i % CLUSTER == 0)) {
+                        int middle = i - 1 - (run - 1) / 2;
+                        if (count + 2 > pairs.length) {
+                            pairs = Arrays.copyOf(pairs, pairs.length * 2);
+                        }
+                        pairs[count++] = vertical == 0 ? grid.tileAt(across, middle) : grid.tileAt(middle, across);
+                        pairs[count++] = vertical == 0 ? grid.tileAt(across + 1, middle) : grid.tileAt(middle, across + 1);
+                        run = 0;
+                    }
+                    if (open) {
+                        run++;
+                    }
+                }
+            }
+        }
+        // Number the nodes, a tile on two entrances being one node
+        int found = 0;
+        for (int i = 0; i < count; i++) {
+            if (nodeOf[pairs[i]] == NONE) {
+                nodeOf[pairs[i]] = found++;
+            }
+        }
+        this.nodes = found;
+        this.nodeTile = new int[nodes];
+        for (int tile = 0; tile < grid.size(); tile++) {
+            if (nodeOf[tile] != NONE) {
+                nodeTile[nodeOf[tile]] = tile;
+            }
+        }
+        this.clusterFirst = new int[clustersX * clustersY + 1];
+        for (int n = 0; n < nodes; n++) {
+            clusterFirst[clusterOf(nodeTile[n]) + 1]++;
+        }
+        for (int c = 0; c < clustersX * clustersY; c++) {
+            clusterFirst[c + 1] += clusterFirst[c];
+        }
+        this.clusterNodes = new int[nodes];
+        int[] fill = Arrays.copyOf(clusterFirst, clusterFirst.length);
+        for (int n = 0; n < nodes; n++) {
+            clusterNodes[fill[clusterOf(nodeTile[n])]++] = n;
+        }
+        // Links: across the entrances, and inside the clusters
+        int[][] inside = link(clustersX * clustersY, threads);
+        this.linkFirst = new int[nodes + 1];
+        for (int i = 0; i < count; i++) {
+            linkFirst[nodeOf[pairs[i]] + 1]++;
+        }
+        for (int n = 0; n < nodes; n++) {
+            linkFirst[n + 1] += linkFirst[n] + inside[n].length / 2;
+        }
+        this.linkTo = new int[linkFirst[nodes]];
+        this.linkSteps = new int[linkFirst[nodes]];
+        fill = Arrays.copyOf(linkFirst, nodes);
+        for (int i = 0; i < count; i += 2) {
+            int a = nodeOf[pairs[i]];
+            int b = nodeOf[pairs[i + 1]];
+            linkTo[fill[a]] = b;
+            linkSteps[fill[a]++] = 1;
+            linkTo[fill[b]] = a;
+            linkSteps[fill[b]++] = 1;
+        }
+        for (int n = 0; n < nodes; n++) {
+            for (int i = 0; i < inside[n].length; i += 2) {
+                linkTo[fill[n]] = inside[n][i];
+                linkSteps[fill[n]++] = inside[n][i + 1];
+            }
+        }
+    }
+
+    /**
+     * Find the links inside every cluster, the clusters shared out between
+     * the threads.
+     *
+     * @return for every node, the nodes of its cluster it gets to and the
+     * steps, in pairs
+     */
+    private int[][] link(final int clusters, int threads) {
+        final int[][] inside = new int[nodes][];
+        int count = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        // A few shares per thread, as clusters differ in nodes
+        final int shares = Math.min(clusters, count * 4);
+        for (int s = 0; s < shares; s++) {
+            final int share = s;
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    Search search = new Search();
+                    for (int c = share; c < clusters; c += shares) {
+                        linkCluster(c, search, inside);
+                    }
+                    return null;
+                }
+            });
+        }
+        if (count > 1 && shares > 1) {
+            ForkJoinPool pool = new ForkJoinPool(count);
+            try {
+                pool.invokeAll(tasks);
+            } finally {
+                pool.shutdown();
+            }
+        } else {
+            for (Callable<Void> task : tasks) {
+                try {
+                    task.call();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+        return inside;
+    }
+
+    private void linkCluster(int cluster, Search search, int[][] inside) {
+        int first = clusterFirst[cluster];
+        int last = clusterFirst[cluster + 1];
+        int[] links = new int[2 * (last - first)];
+        for (int i = first; i < last; i++) {
+            int a = clusterNodes[i];
+            search.run(nodeTile[a]);
+            int count = 0;
+            for (int j = first; j < last; j++) {
+                int b = clusterNodes[j];
+                int steps = search.distance(nodeTile[b]);
+                if (b != a && steps != DistanceTable.UNREACHABLE) {
+                    links[count++] = b;
+                    links[count++] = steps;
+                }
+            }
+            inside[a] = Arrays.copyOf(links, count);
+        }
+    }
+
+    private int clusterOf(int tile) {
+        return (tile / width / CLUSTER) * clustersX + (tile % width) / CLUSTER;
+    }
+
+    @Override
+    public boolean contains(int tile) {
+        return grid.isWalkable(tile);
+    }
+
+    @Override
+    public int distance(int from, int to) {
+        if (!contains(from) || !contains(to)) {
+            return DistanceTable.UNREACHABLE;
+        }
+        return queries.get().solve(from, to);
+    }
+
+    @Override
+    public int firstMove(int from, int to) {
+        if (!contains(from) || !contains(to) || from == to) {
+            return DistanceTable.NO_MOVE;
+        }
+        Query query = queries.get();
+        if (query.solve(from, to) == DistanceTable.UNREACHABLE) {
+            return DistanceTable.NO_MOVE;
+        }
+        return query.firstMove();
+    }
+
+    @Override
+    public int path(int from, int to, int[] out) {
+        if (!contains(from) || !contains(to) || from == to) {
+            return 0;
+        }
+        Query query = queries.get();
+        if (query.solve(from, to) == DistanceTable.UNREACHABLE) {
+            return 0;
+        }
+        return query.path(out);
+    }
+
+    /**
+     * @return the number of nodes of the abstract graph
+     */
+    public int getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return the number of links between nodes, counted both ways
+     */
+    public int getLinks() {
+        return linkTo.length;
+    }
+
+    public TileGrid getGrid() {
+        return grid;
+    }
+
+    /**
+     * Breadth first search from a tile, kept inside its cluster.
+     */
+    private final class Search {
+
+        private final int[] seen = new int[CLUSTER * CLUSTER];
+        private final int[] steps = new int[CLUSTER * CLUSTER];
+        private final int[] parent = new int[CLUSTER * CLUSTER];
+        private final int[] first = new int[CLUSTER * CLUSTER];
+        private final int[] queue = new int[CLUSTER * CLUSTER];
+        private int stamp;
+        private int x0;
+        private int y0;
+        int cluster;
+
+        void run(int from) {
+            stamp++;
+            cluster = clusterOf(from);
+            x0 = (from % width) / CLUSTER * CLUSTER;
+            y0 = (from / width) / CLUSTER * CLUSTER;
+            int head = 0;
+            int tail = 0;
+            int start = local(from);
+            seen[start] = stamp;
+            steps[start] = 0;
+            parent[start] = NONE;
+            first[start] = DistanceTable.NO_MOVE;
+            queue[tail++] = from;
+            while (head < tail) {
+                int tile = queue[head++];
+                int at = local(tile);
+                for (int d = 0; d < TileGrid.DIRS; d++) {
+                    int next = grid.neighbour(tile, d);
+                    if (next < 0 || clusterOf(next) != cluster) {
+                        continue;
+                    }
+                    int i = local(next);
+                    if (seen[i] != stamp) {
+                        seen[i] = stamp;
+                        steps[i] = steps[at] + 1;
+                        parent[i] = tile;
+                        first[i] = tile == from ? d : first[at];
+                        queue[tail++] = next;
+                    }
+                }
+            }
+        }
+
+        private int local(int tile) {
+            return (tile / width - y0) * CLUSTER + tile % width - x0;
+        }
+
+        /**
+         * @return the steps from the search's start to a tile of its
+         * cluster, UNREACHABLE for tiles it didn't get to
+         */
+        int distance(int tile) {
+            if (clusterOf(tile) != cluster || seen[local(tile)] != stamp) {
+                return DistanceTable.UNREACHABLE;
+            }
+            return steps[local(tile)];
+        }
+
+        int firstMove(int tile) {
+            return first[local(tile)];
+        }
+
+        int parent(int tile) {
+            return parent[local(tile)];
+        }
+
+        /**
+         * Write the path from the search's start (exclusive) to a tile it
+         * got to (inclusive).
+         *
+         * @return the number of tiles written
+         */
+        int pathTo(int tile, int[] out, int at) {
+            int length = distance(tile);
+            for (int i = length - 1; i >= 0; i--) {
+                out[at + i] = tile;
+                tile = parent(tile);
+            }
+            return length;
+        }
+    }
+
+    /**
+     * The scratch of one thread's queries, and its last answer.
+     */
+    private final class Query {
+
+        private final Search start = new Search();
+        private final Search goal = new Search();
+        private final Search leg = new Search();
+        // A* over the nodes
+        private final int[] seen = new int[nodes];
+        private final int[] steps = new int[nodes];
+        private final int[] parent = new int[nodes];
+        private long[] heap = new long[64];
+        private int stamp;
+        // The last query, the node the path leaves the abstract graph at,
+        // NONE if it stays in the start's cluster, and the nodes on the way
+        private int from = NONE;
+        private int to = NONE;
+        private int best;
+        private int exit;
+        private final int[] chain = new int[nodes];
+        private int links;
+
+        /**
+         * @return the steps from one tile to the other
+         */
+        int solve(int from, int to) {
+            if (from == this.from && to == this.to) {
+                return best;
+            }
+            this.from = from;
+            this.to = to;
+            best = DistanceTable.UNREACHABLE;
+            exit = NONE;
+            if (from == to) {
+                return best = 0;
+            }
+            start.run(from);
+            goal.run(to);
+            if (start.cluster == goal.cluster) {
+                best = start.distance(to);
+            }
+            stamp++;
+            int size = 0;
+            for (int i = clusterFirst[start.cluster]; i < clusterFirst[start.cluster + 1]; i++) {
+                int n = clusterNodes[i];
+                int g = start.distance(nodeTile[n]);
+                if (g != DistanceTable.UNREACHABLE) {
+                    seen[n] = stamp;
+                    steps[n] = g;
+                    parent[n] = NONE;
+                    size = push(size, g + estimate(n), n);
+                }
+            }
+            while (size > 0) {
+                long top = heap[0];
+                size = pop(size);
+                int n = (int) top;
+                if ((int) (top >>> 32) >= best) {
+                    break;
+                }
+                if (steps[n] + estimate(n) != (int) (top >>> 32)) {
+                    // Reached more cheaply since it was pushed
+                    continue;
+                }
+                if (clusterOf(nodeTile[n]) == goal.cluster) {
+                    int rest = goal.distance(nodeTile[n]);
+                    if (rest != DistanceTable.UNREACHABLE && steps[n] + rest < best) {
+                        best = steps[n] + rest;
+                        exit = n;
+                    }
+                }
+                for (int i = linkFirst[n]; i < linkFirst[n + 1]; i++) {
+                    int next = linkTo[i];
+                    int g = steps[n] + linkSteps[i];
+                    if (seen[next] != stamp || g < steps[next]) {
+                        seen[next] = stamp;
+                        steps[next] = g;
+                        parent[next] = n;
+                        size = push(size, g + estimate(next), next);
+                    }
+                }
+            }
+            links = 0;
+            for (int n = exit; n != NONE; n = parent[n]) {
+                chain[links++] = n;
+            }
+            // From the start's cluster to the goal's
+            for (int i = 0, j = links - 1; i < j; i++, j--) {
+                int n = chain[i];
+                chain[i] = chain[j];
+                chain[j] = n;
+            }
+            return best;
+        }
+
+        /**
+         * @return steps from a node to the goal as the crow flies, never
+         * more than the real ones
+         */
+        private int estimate(int n) {
+            int tile = nodeTile[n];
+            return Math.abs(tile % width - to % width) + Math.abs(tile / width - to / width);
+        }
+
+        /**
+         * @return the first move of the last query's path
+         */
+        int firstMove() {
+            if (exit == NONE) {
+                return start.firstMove(to);
+            }
+            for (int i = 0; i < links; i++) {
+                int tile = nodeTile[chain[i]];
+                if (tile == from) {
+                    continue;
+                }
+                if (clusterOf(tile) == start.cluster) {
+                    return start.firstMove(tile);
+                }
+                // Across the entrance the start is on
+                return towards(from, tile);
+            }
+            // The start is the node the path leaves the graph at
+            return towards(from, goal.parent(from));
+        }
+
+        private int towards(int tile, int next) {
+            for (int d = 0; d < TileGrid.DIRS; d++) {
+                if (grid.neighbour(tile, d) == next) {
+                    return d;
+                }
+            }
+            return DistanceTable.NO_MOVE;
+        }
+
+        /**
+         * Walk the last query's path out tile by tile.
+         *
+         * @return the number of tiles written
+         */
+        int path(int[] out) {
+            if (exit == NONE) {
+                return start.pathTo(to, out, 0);
+            }
+            int length = start.pathTo(nodeTile[chain[0]], out, 0);
+            for (int i = 0; i + 1 < links; i++) {
+                int a = nodeTile[chain[i]];
+                int b = nodeTile[chain[i + 1]];
+                if (clusterOf(a) == clusterOf(b)) {
+                    leg.run(a);
+                    length += leg.pathTo(b, out, length);
+                } else {
+                    out[length++] = b;
+                }
+            }
+            // The goal's search leads back to the goal
+            for (int tile = nodeTile[chain[links - 1]]; tile != to;) {
+                tile = goal.parent(tile);
+                out[length++] = tile;
+            }
+            return length;
+        }
+
+        private int push(int size, int key, int n) {
+            if (size == heap.length) {
+                heap = Arrays.copyOf(heap, size * 2);
+            }
+            long entry = ((long) key << 32) | n;
+            int i = size;
+            while (i > 0 && heap[(i - 1) / 2] > entry) {
+                heap[i] = heap[(i - 1) / 2];
+                i = (i - 1) / 2;
+            }
+            heap[i] = entry;
+            return size + 1;
+        }
+
+        private int pop(int size) {
+            long entry = heap[--size];
+            int i = 0;
+            while (2 * i + 1 < size) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && heap[child + 1] < heap[child]) {
+                    child++;
+                }
+                if (heap[child] >= entry) {
+                    break;
+                }
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = entry;
+            return size;
+        }
+    }
+}
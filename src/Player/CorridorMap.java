@@ -0,0 +1,214 @@
+package Player;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Splits the walkable tiles of a maze into segments. Every node tile
+ * (intersection or dead end) is a junction segment of its own, and every
+ * run of walkable tiles between nodes is a corridor segment. Each walkable
+ * tile belongs to exactly one segment.
+ *
+ * A CorridorMap never changes after it is built and can be shared freely.
+ */
+public class CorridorMap {
+
+    private final TileGrid grid;
+    // Segment of every tile, -1 for tiles that are not walkable
+    private final int[] segmentOf;
+    private final int count;
+    // True for single node tile segments
+    private final boolean[] junction;
+    // Tiles of segment s are tiles[first[s]] .. tiles[first[s] + length[s] - 1],
+    // corridor tiles ordered from endA to endB
+    private final int[] first;
+    private final int[] length;
+    private final int[] tiles;
+    // Node tiles at both ends of a corridor, -1 if there is none. A
+    // junction is its own end.
+    private final int[] endA;
+    private final int[] endB;
+
+    public CorridorMap(TileGrid grid) {
+        this.grid = grid;
+        int size = grid.size();
+        this.segmentOf = new int[size];
+        Arrays.fill(segmentOf, -1);
+        // Segments are at most one per walkable tile
+        int[] segFirst = new int[size];
+        int[] segLength = new int[size];
+        int[] segA = new int[size];
+        int[] segB = new int[size];
+        boolean[] segJunction = new boolean[size];
+        this.tiles = new int[size];
+        int used = 0;
+        int segments = 0;
+        for (int tile = 0; tile < size; tile++) {
+            if (grid.isWalkable(tile) && grid.isNode(tile)) {
+                segmentOf[tile] = segments;
+                segJunction[segments] = true;
+                segFirst[segments] = used;
+                segLength[segments] = 1;
+                segA[segments] = tile;
+                segB[segments] = tile;
+                tiles[used++] = tile;
+                segments++;
+            }
+        }
+        // Corridors: start from a tile next to a node where possible, so the
+        // breadth first order runs from one end to the other
+        for (int pass = 0; pass < 2; pass++) {
+            for (int tile = 0; tile < size; tile++) {
+                if (!isCorridorTile(tile) || segmentOf[tile] >= 0
+                        || (pass == 0 && adjacentNode(tile, -1) < 0)) {
+                    continue;
+                }
+                int start = used;
+                segmentOf[tile] = segments;
+                tiles[used++] = tile;
+                for (int i = start; i < used; i++) {
+                    for (int d = 0; d < TileGrid.DIRS; d++) {
+                        int next = grid.neighbour(tiles[i], d);
+                        if (isCorridorTile(next) && segmentOf[next] < 0) {
+                            segmentOf[next] = segments;
+                            tiles[used++] = next;
+                        }
+                    }
+                }
+                segFirst[segments] = start;
+                segLength[segments] = used - start;
+                segA[segments] = adjacentNode(tiles[start], -1);
+                segB[segments] = adjacentNode(tiles[used - 1],
+                        used - start > 1 ? -1 : segA[segments]);
+                segments++;
+            }
+        }
+        this.count = segments;
+        this.first = Arrays.copyOf(segFirst, segments);
+        this.length = Arrays.copyOf(segLength, segments);
+        this.endA = Arrays.copyOf(segA, segments);
+        this.endB = Arrays.copyOf(segB, segments);
+        this.junction = Arrays.copyOf(segJunction, segments);
+    }
+
+    /**
+     * Read a map written by write, for the given grid.
+     *
+     * @param grid
+     * @param in - positioned at the map; left after it
+     */
+    CorridorMap(TileGrid grid, ByteBuffer in) {
+        this.grid = grid;
+        this.segmentOf = TableCache.readInts(in);
+        this.first = TableCache.readInts(in);
+        this.length = TableCache.readInts(in);
+        this.tiles = TableCache.readInts(in);
+        this.endA = TableCache.readInts(in);
+        this.endB = TableCache.readInts(in);
+        int[] flags = TableCache.readInts(in);
+        this.count = first.length;
+        this.junction = new boolean[count];
+        for (int segment = 0; segment < count; segment++) {
+            junction[segment] = flags[segment] != 0;
+        }
+        if (segmentOf.length != grid.size() || flags.length != count) {
+            throw new IllegalArgumentException("corridor map is for another maze");
+        }
+    }
+
+    /**
+     * @param out - receives the map, in the form the reading constructor
+     * takes
+     * @throws IOException
+     */
+    void write(DataOutput out) throws IOException {
+        TableCache.writeInts(out, segmentOf);
+        TableCache.writeInts(out, first);
+        TableCache.writeInts(out, length);
+        TableCache.writeInts(out, tiles);
+        TableCache.writeInts(out, endA);
+        TableCache.writeInts(out, endB);
+        int[] flags = new int[count];
+        for (int segment = 0; segment < count; segment++) {
+            flags[segment] = junction[segment] ? 1 : 0;
+        }
+        TableCache.writeInts(out, flags);
+    }
+
+    private boolean isCorridorTile(int tile) {
+        return grid.isWalkable(tile) && !grid.isNode(tile);
+    }
+
+    /**
+     * @param tile
+     * @param except - a node tile to skip
+     * @return a node tile next to the given tile, -1 if there is none
+     */
+    private int adjacentNode(int tile, int except) {
+        for (int d = 0; d < TileGrid.DIRS; d++) {
+            int next = grid.neighbour(tile, d);
+            if (next >= 0 && next != except && grid.isNode(next)) {
+                return next;
+            }
+        }
+        return -1;
+    }
+
+    public TileGrid getGrid() {
+        return grid;
+    }
+
+    /**
+     * @return the number of segments
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @param tile
+     * @return the segment of the tile, -1 if the tile isn't walkable
+     */
+    public int segmentOf(int tile) {
+        return tile >= 0 ? segmentOf[tile] : -1;
+    }
+
+    public boolean isJunction(int segment) {
+        return junction[segment];
+    }
+
+    /**
+     * @param segment
+     * @return the number of tiles in the segment
+     */
+    public int length(int segment) {
+        return length[segment];
+    }
+
+    /**
+     * @param segment
+     * @param i - position in the segment, from endA
+     * @return the tile id
+     */
+    public int tile(int segment, int i) {
+        return tiles[first[segment] + i];
+    }
+
+    /**
+     * @param segment
+     * @return the node tile at the first end of the segment, -1 if none
+     */
+    public int endA(int segment) {
+        return endA[segment];
+    }
+
+    /**
+     * @param segment
+     * @return the node tile at the second end of the segment, -1 if none
+     */
+    public int endB(int segment) {
+        return endB[segment];
+    }
+}
@@ -0,0 +1,226 @@
+package Player;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * All-pairs shortest distances and first moves between the walkable tiles of
+ * a maze. The table is built once per level with one breadth first search per
+ * walkable tile, after which distance and next-direction queries are a single
+ * array lookup.
+ *
+ * Tiles are addressed by their TileGrid id. Internally only walkable tiles
+ * get a slot, so the tables are (walkable tiles)^2 entries rather than
+ * (maze area)^2. The tables are read through buffers, so a table loaded by
+ * TableCache stays memory-mapped off the heap. The tables grow with the
+ * square of the walkable tiles, so mazes with more than MAX_TILES of them
+ * get a ClusterGraph instead.
+ */
+public class DistanceTable implements MazeDistances {
+
+    /**
+     * Distance returned for tiles that cannot reach each other
+     */
+    public static final int UNREACHABLE = Short.MAX_VALUE;
+    /**
+     * Direction index returned when there is no first move
+     */
+    public static final int NO_MOVE = -1;
+    /**
+     * Most walkable tiles a table is built for, some 50 MB of tables
+     */
+    public static final int MAX_TILES = 4096;
+    private final TileGrid grid;
+    // Tile id -> slot in the tables, -1 if the tile is not walkable
+    private final int[] slotOf;
+    // Slot -> tile id
+    private final int[] tileOf;
+    private final int size;
+    // Distance from slot a to slot b, at [a * size + b]
+    private final ShortBuffer dist;
+    // Direction index of the first step from slot a towards slot b
+    private final ByteBuffer firstMove;
+
+    public DistanceTable(TileGrid grid) {
+        this.grid = grid;
+        this.slotOf = slotsOf(grid);
+        this.tileOf = tilesOf(slotOf);
+        this.size = tileOf.length;
+        short[] dist = new short[size * size];
+        byte[] firstMove = new byte[size * size];
+        Arrays.fill(dist, (short) UNREACHABLE);
+        Arrays.fill(firstMove, (byte) NO_MOVE);
+        int[] queue = new int[size];
+        for (int source = 0; source < size; source++) {
+            int row = source * size;
+            int head = 0;
+            int tail = 0;
+            dist[row + source] = 0;
+            queue[tail++] = source;
+            while (head < tail) {
+                int curr = queue[head++];
+                short next = (short) (dist[row + curr] + 1);
+                for (int d = 0; d < TileGrid.DIRS; d++) {
+                    int tile = grid.neighbour(tileOf[curr], d);
+                    if (tile < 0) {
+                        continue;
+                    }
+                    int neighbour = slotOf[tile];
+                    if (dist[row + neighbour] == UNREACHABLE) {
+                        dist[row + neighbour] = next;
+                        // The first move is inherited from the parent, except
+                        // for the tiles right next to the source
+                        firstMove[row + neighbour] = curr == source
+                                ? (byte) d : firstMove[row + curr];
+                        queue[tail++] = neighbour;
+                    }
+                }
+            }
+        }
+        this.dist = ShortBuffer.wrap(dist);
+        this.firstMove = ByteBuffer.wrap(firstMove);
+    }
+
+    /**
+     * Read a table written by write, for the given grid. The buffer's
+     * contents are used in place, not copied.
+     *
+     * @param grid
+     * @param in - positioned at the table; left after it
+     */
+    DistanceTable(TileGrid grid, ByteBuffer in) {
+        this.grid = grid;
+        this.slotOf = slotsOf(grid);
+        this.tileOf = tilesOf(slotOf);
+        this.size = tileOf.length;
+        if (in.getInt() != size) {
+            throw new IllegalArgumentException("distance table is for another maze");
+        }
+        int entries = size * size;
+        ByteBuffer tables = in.slice();
+        tables.limit(entries * 2);
+        this.dist = tables.asShortBuffer();
+        in.position(in.position() + entries * 2);
+        ByteBuffer moves = in.slice();
+        moves.limit(entries);
+        this.firstMove = moves;
+        in.position(in.position() + entries);
+    }
+
+    /**
+     * @param out - receives the tables, in the form the reading constructor
+     * takes
+     * @throws IOException
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeInt(size);
+        int entries = size * size;
+        byte[] chunk = new byte[8192];
+        for (int i = 0; i < entries;) {
+            int n = Math.min(entries - i, chunk.length / 2);
+            for (int j = 0; j < n; j++) {
+                short value = dist.get(i + j);
+                chunk[2 * j] = (byte) (value >> 8);
+                chunk[2 * j + 1] = (byte) value;
+            }
+            out.write(chunk, 0, 2 * n);
+            i += n;
+        }
+        for (int i = 0; i < entries;) {
+            int n = Math.min(entries - i, chunk.length);
+            for (int j = 0; j < n; j++) {
+                chunk[j] = firstMove.get(i + j);
+            }
+            out.write(chunk, 0, n);
+            i += n;
+        }
+    }
+
+    /**
+     * @param grid
+     * @return true if the grid has few enough walkable tiles for a table
+     */
+    public static boolean fits(TileGrid grid) {
+        return count(grid) <= MAX_TILES;
+    }
+
+    private static int count(TileGrid grid) {
+        int count = 0;
+        for (long word : grid.walkableBits()) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * @return tile id -> slot, -1 for tiles that are not walkable
+     */
+    private static int[] slotsOf(TileGrid grid) {
+        int[] slotOf = new int[grid.size()];
+        Arrays.fill(slotOf, -1);
+        int count = 0;
+        for (int tile = 0; tile < grid.size(); tile++) {
+            if (grid.isWalkable(tile)) {
+                slotOf[tile] = count++;
+            }
+        }
+        return slotOf;
+    }
+
+    private static int[] tilesOf(int[] slotOf) {
+        int count = 0;
+        for (int slot : slotOf) {
+            if (slot >= 0) {
+                count++;
+            }
+        }
+        int[] tileOf = new int[count];
+        for (int tile = 0; tile < slotOf.length; tile++) {
+            if (slotOf[tile] >= 0) {
+                tileOf[slotOf[tile]] = tile;
+            }
+        }
+        return tileOf;
+    }
+
+    @Override
+    public boolean contains(int tile) {
+        return tile >= 0 && tile < slotOf.length && slotOf[tile] >= 0;
+    }
+
+    @Override
+    public int distance(int from, int to) {
+        if (!contains(from) || !contains(to)) {
+            return UNREACHABLE;
+        }
+        return dist.get(slotOf[from] * size + slotOf[to]);
+    }
+
+    @Override
+    public int firstMove(int from, int to) {
+        if (!contains(from) || !contains(to)) {
+            return NO_MOVE;
+        }
+        return firstMove.get(slotOf[from] * size + slotOf[to]);
+    }
+
+    /**
+     * Follows the first moves towards the goal, a lookup per step.
+     */
+    @Override
+    public int path(int from, int to, int[] out) {
+        int length = distance(from, to);
+        if (length == UNREACHABLE) {
+            return 0;
+        }
+        int tile = from;
+        for (int i = 0; i < length; i++) {
+            tile = grid.step(tile, firstMove(tile, to));
+            out[i] = tile;
+        }
+        return length;
+    }
+}
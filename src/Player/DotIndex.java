@@ -0,0 +1,232 @@
+package Player;
+
+import com.orbischallenge.pacman.api.common.*;
+import java.util.Arrays;
+
+/**
+ * The dots left in the maze, kept as a bitset over tile ids plus a dot count
+ * per corridor segment. The index is seeded once from the maze matrix and
+ * then updated from Pacman's movement, so the per-frame cost depends on how
+ * far Pacman moved rather than on the size of the maze.
+ */
+public class DotIndex implements TileFilter {
+
+    /**
+     * Most steps Pacman can be ahead of his last known tile after one frame,
+     * one more than he moves in a frame in case a tile boundary was missed;
+     * anything further is a jump, e.g. to the start after a death
+     */
+    static final int MAX_STEPS = 2;
+    private final TileGrid grid;
+    private final CorridorMap corridors;
+    private final MazeDistances distances;
+    private final long[] dots;
+    private final int[] segmentDots;
+    private int remaining;
+    private int lastPacTile = -1;
+    // Search for nearestDot, made on first use, and its last answer, kept
+    // until that dot goes or the question comes from another tile
+    private TileSearch search;
+    private final int[] found = new int[1];
+    private int nearestFrom = -1;
+    private int nearest = -1;
+
+    /**
+     * @param corridors - segments of the maze
+     * @param distances - used to follow Pacman when he skips tiles
+     * @param matrix - the maze items, indexed [y][x]
+     */
+    public DotIndex(CorridorMap corridors, MazeDistances distances,
+            MazeItem[][] matrix) {
+        this.grid = corridors.getGrid();
+        this.corridors = corridors;
+        this.distances = distances;
+        this.dots = new long[(grid.size() + 63) >>> 6];
+        this.segmentDots = new int[corridors.size()];
+        reload(matrix);
+    }
+
+    /**
+     * Seed the index from the maze again, bringing back dots as well as
+     * dropping them, and forget where Pacman was.
+     *
+     * @param matrix - the maze items, indexed [y][x]
+     */
+    public final void reload(MazeItem[][] matrix) {
+        Arrays.fill(dots, 0);
+        Arrays.fill(segmentDots, 0);
+        remaining = 0;
+        lastPacTile = -1;
+        nearestFrom = -1;
+        for (int y = 0; y < grid.getHeight(); y++) {
+            for (int x = 0; x < grid.getWidth(); x++) {
+                if (matrix[y][x] == MazeItem.DOT) {
+                    add(grid.tileAt(x, y));
+                }
+            }
+        }
+    }
+
+    private void add(int tile) {
+        dots[tile >>> 6] |= 1L << tile;
+        int segment = corridors.segmentOf(tile);
+        if (segment >= 0) {
+            segmentDots[segment]++;
+        }
+        remaining++;
+    }
+
+    /**
+     * Remove the dot on a tile, if there is one.
+     *
+     * @param tile
+     * @return true if a dot was removed
+     */
+    public boolean remove(int tile) {
+        if (!hasDot(tile)) {
+            return false;
+        }
+        dots[tile >>> 6] &= ~(1L << tile);
+        int segment = corridors.segmentOf(tile);
+        if (segment >= 0) {
+            segmentDots[segment]--;
+        }
+        remaining--;
+        if (tile == nearest) {
+            nearestFrom = -1;
+        }
+        return true;
+    }
+
+    /**
+     * Forget where Pacman was, e.g. when a new life puts him back at the
+     * start, so the jump isn't taken for a walk that ate the dots on the way.
+     */
+    public void resetPac() {
+        lastPacTile = -1;
+    }
+
+    /**
+     * Pacman eats every dot he passes, so clear the tiles between his last
+     * known tile and the current one. Only a gap he could have covered in a
+     * frame is filled in; the dots across a longer jump are left to resync.
+     *
+     * @param pacTile - the tile Pacman is on now
+     */
+    public void onPacTile(int pacTile) {
+        if (pacTile == lastPacTile || pacTile < 0) {
+            return;
+        }
+        int tile = lastPacTile;
+        int steps = distances.distance(tile, pacTile);
+        if (tile >= 0 && steps > 1 && steps <= MAX_STEPS) {
+            for (int i = 1; i < steps; i++) {
+                tile = grid.step(tile, distances.firstMove(tile, pacTile));
+                remove(tile);
+            }
+        }
+        remove(pacTile);
+        lastPacTile = pacTile;
+    }
+
+    /**
+     * Compare the index against the maze and drop dots that are gone. Only
+     * tiles that still hold a dot in the index are checked, since dots never
+     * come back within a level.
+     *
+     * @param matrix - the maze items, indexed [y][x]
+     * @return the number of dots removed
+     */
+    public int resync(MazeItem[][] matrix) {
+        int removed = 0;
+        for (int tile = nextDot(0); tile >= 0; tile = nextDot(tile + 1)) {
+            if (matrix[grid.yOf(tile)][grid.xOf(tile)] != MazeItem.DOT) {
+                remove(tile);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    public boolean hasDot(int tile) {
+        return tile >= 0 && (dots[tile >>> 6] & (1L << tile)) != 0;
+    }
+
+    @Override
+    public boolean accept(int tile) {
+        return hasDot(tile);
+    }
+
+    /**
+     * @return the dots as a bitset over tile ids, for BitBoard; not to be
+     * changed
+     */
+    long[] getBits() {
+        return dots;
+    }
+
+    /**
+     * @param from - a tile id
+     * @return the first tile at or after the given one that holds a dot, -1
+     * if there is none
+     */
+    public int nextDot(int from) {
+        if (from >= grid.size()) {
+            return -1;
+        }
+        int word = from >>> 6;
+        long bits = dots[word] & (-1L << from);
+        while (bits == 0) {
+            if (++word == dots.length) {
+                return -1;
+            }
+            bits = dots[word];
+        }
+        return (word << 6) + Long.numberOfTrailingZeros(bits);
+    }
+
+    /**
+     * @return the number of dots left
+     */
+    public int remaining() {
+        return remaining;
+    }
+
+    /**
+     * @param segment
+     * @return the number of dots left in the segment
+     */
+    public int dotsInSegment(int segment) {
+        return segment >= 0 ? segmentDots[segment] : 0;
+    }
+
+    /**
+     * The last answer is kept until its dot is eaten or the question comes
+     * from another tile. Otherwise a search goes out from the tile and stops
+     * at the first dot, so a near dot costs only the tiles closer than it.
+     *
+     * @param from - a walkable tile
+     * @return the dot with the shortest maze distance from the tile, -1 if
+     * no dot can be reached
+     */
+    public int nearestDot(int from) {
+        if (from == nearestFrom) {
+            return nearest;
+        }
+        if (hasDot(from)) {
+            nearest = from;
+        } else {
+            if (search == null) {
+                search = new TileSearch(grid);
+            }
+            nearest = search.findTargets(from, this, null, 1, grid.size(), found) > 0
+                    ? found[0] : -1;
+        }
+        nearestFrom = from;
+        return nearest;
+    }
+
+    public CorridorMap getCorridors() {
+        return corridors;
+    }
+}
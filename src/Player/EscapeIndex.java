@@ -0,0 +1,227 @@
+package Player;
+
+import java.util.Arrays;
+
+/**
+ * Where Pacman can get out from every tile. The maze is split into its core,
+ * the tiles that lie on some loop (the tunnel counts as a way through), and
+ * pockets, the dead-end corridors and trees of them hanging off the core,
+ * which Pacman can only leave the way he came in. Every tile has up to two
+ * exits, the junctions of the core he has to get to in order to have a
+ * choice of ways again, with the steps to each:
+ *
+ * - a core junction is its own exit;
+ * - a core corridor tile has the junctions at both ends of its corridor;
+ * - a pocket tile has the exits of the core tile its pocket hangs from,
+ * further by the steps out of the pocket.
+ *
+ * With the ghosts' arrival times, whether Pacman is trapped on a tile is a
+ * check of its two exits: he is safe there if he can go on to one of them
+ * and get there before the ghosts do. Tiles with no exit (a maze without
+ * loops) are never counted as traps.
+ *
+ * An EscapeIndex never changes after it is built and can be shared freely.
+ */
+public class EscapeIndex {
+
+    private final TileGrid grid;
+    // Exits of every tile and the steps to them, -1 for none
+    private final int[] exitA;
+    private final int[] exitB;
+    private final int[] stepsA;
+    private final int[] stepsB;
+    private final boolean[] pocket;
+
+    public EscapeIndex(TileGrid grid) {
+        this.grid = grid;
+        int size = grid.size();
+        int[] links = links(grid);
+        this.exitA = new int[size];
+        this.exitB = new int[size];
+        this.stepsA = new int[size];
+        this.stepsB = new int[size];
+        this.pocket = new boolean[size];
+        Arrays.fill(exitA, -1);
+        Arrays.fill(exitB, -1);
+        // Peel off tiles with at most one way on until only loops are left
+        int[] degree = new int[size];
+        int[] queue = new int[size];
+        int tail = 0;
+        for (int tile = 0; tile < size; tile++) {
+            if (!grid.isWalkable(tile)) {
+                continue;
+            }
+            for (int d = 0; d < TileGrid.DIRS; d++) {
+                if (links[tile * TileGrid.DIRS + d] >= 0) {
+                    degree[tile]++;
+                }
+            }
+            if (degree[tile] <= 1) {
+                pocket[tile] = true;
+                queue[tail++] = tile;
+            }
+        }
+        for (int head = 0; head < tail; head++) {
+            int tile = queue[head];
+            for (int d = 0; d < TileGrid.DIRS; d++) {
+                int next = links[tile * TileGrid.DIRS + d];
+                if (next >= 0 && !pocket[next] && --degree[next] <= 1) {
+                    pocket[next] = true;
+                    queue[tail++] = next;
+                }
+            }
+        }
+        // Core corridors: walk from every core junction to the next one
+        for (int tile = 0; tile < size; tile++) {
+            if (!grid.isWalkable(tile) || pocket[tile] || degree[tile] < 3) {
+                continue;
+            }
+            exitA[tile] = tile;
+            for (int d = 0; d < TileGrid.DIRS; d++) {
+                int length = 0;
+                int prev = tile;
+                int curr = links[tile * TileGrid.DIRS + d];
+                if (curr < 0 || pocket[curr] || exitA[curr] >= 0) {
+                    // No corridor, or walked already from its other end
+                    continue;
+                }
+                while (curr >= 0 && !pocket[curr] && degree[curr] == 2) {
+                    queue[length++] = curr;
+                    int next = -1;
+                    for (int c = 0; c < TileGrid.DIRS && next < 0; c++) {
+                        int link = links[curr * TileGrid.DIRS + c];
+                        if (link >= 0 && link != prev && !pocket[link]) {
+                            next = link;
+                        }
+                    }
+                    prev = curr;
+                    curr = next;
+                }
+                for (int i = 0; i < length; i++) {
+                    exitA[queue[i]] = tile;
+                    stepsA[queue[i]] = i + 1;
+                    exitB[queue[i]] = curr;
+                    stepsB[queue[i]] = length - i;
+                }
+            }
+        }
+        // Pockets: out towards the core, one layer at a time from the tiles
+        // they hang from
+        tail = 0;
+        for (int tile = 0; tile < size; tile++) {
+            if (grid.isWalkable(tile) && !pocket[tile]) {
+                queue[tail++] = tile;
+            }
+        }
+        for (int head = 0; head < tail; head++) {
+            int tile = queue[head];
+            for (int d = 0; d < TileGrid.DIRS; d++) {
+                int next = links[tile * TileGrid.DIRS + d];
+                if (next >= 0 && pocket[next] && exitA[next] < 0 && exitA[tile] >= 0) {
+                    exitA[next] = exitA[tile];
+                    stepsA[next] = stepsA[tile] + 1;
+                    exitB[next] = exitB[tile];
+                    stepsB[next] = stepsB[tile] + 1;
+                    queue[tail++] = next;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the walkable tile reached from every tile in every direction,
+     * at [tile * DIRS + d], through the tunnel too; -1 if there is none
+     */
+    static int[] links(TileGrid grid) {
+        int[] links = new int[grid.size() * TileGrid.DIRS];
+        for (int tile = 0; tile < grid.size(); tile++) {
+            for (int d = 0; d < TileGrid.DIRS; d++) {
+                int next = grid.step(tile, d);
+                // Across teleports to the walkable tile on the other side
+                for (int i = 0; i < grid.size() && grid.isTeleport(next); i++) {
+                    int x = (grid.xOf(next) + TileGrid.DX[d] + grid.getWidth()) % grid.getWidth();
+                    int y = (grid.yOf(next) + TileGrid.DY[d] + grid.getHeight()) % grid.getHeight();
+                    next = grid.tileAt(x, y);
+                }
+                boolean open = grid.isWalkable(tile) && next >= 0 && next != tile
+                        && grid.isWalkable(next);
+                links[tile * TileGrid.DIRS + d] = open ? next : -1;
+            }
+        }
+        return links;
+    }
+
+    /**
+     * @param tile
+     * @return true if the tile is in a pocket, which Pacman can only leave
+     * the way he came in
+     */
+    public boolean isPocket(int tile) {
+        return tile >= 0 && pocket[tile];
+    }
+
+    /**
+     * @param tile
+     * @return an exit of the tile, -1 if it has none
+     */
+    public int exitA(int tile) {
+        return exitA[tile];
+    }
+
+    /**
+     * @param tile
+     * @return the other exit of the tile, -1 if it has only one
+     */
+    public int exitB(int tile) {
+        return exitB[tile];
+    }
+
+    /**
+     * @param tile
+     * @return the steps from the tile to exitA
+     */
+    public int stepsA(int tile) {
+        return stepsA[tile];
+    }
+
+    /**
+     * @param tile
+     * @return the steps from the tile to exitB
+     */
+    public int stepsB(int tile) {
+        return stepsB[tile];
+    }
+
+    /**
+     * @param tile - where Pacman gets to
+     * @param steps - the steps it takes him to get there
+     * @param threats - the dangerous ghosts
+     * @return true if he can go on from the tile to one of its exits ahead of
+     * the ghosts
+     */
+    public boolean canEscape(int tile, int steps, ThreatField threats) {
+        if (exitA[tile] < 0) {
+            return true;
+        }
+        return threats.isAhead(exitA[tile], steps + stepsA[tile])
+                || (exitB[tile] >= 0 && threats.isAhead(exitB[tile], steps + stepsB[tile]));
+    }
+
+    /**
+     * @param threats - the dangerous ghosts
+     * @return a gate that lets a search onto the tiles the threats allow and
+     * Pacman can escape from
+     */
+    public TileGate guard(final ThreatField threats) {
+        return new TileGate() {
+            @Override
+            public boolean allows(int tile, int depth) {
+                return threats.allows(tile, depth) && canEscape(tile, depth, threats);
+            }
+        };
+    }
+
+    public TileGrid getGrid() {
+        return grid;
+    }
+}
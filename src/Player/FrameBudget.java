@@ -0,0 +1,90 @@
+package Player;
+
+/**
+ * Time budget of a single decision. The planner calls start() when a frame
+ * begins, polls expired() between refinement steps and calls end() once the
+ * move is chosen; the budget keeps count of how many frames ran out of time,
+ * whichever step overran.
+ */
+public class FrameBudget {
+
+    private long budget;
+    private long deadline;
+    private long frames;
+    private long hits;
+
+    /**
+     * @param budget - nanoseconds allowed per frame
+     */
+    public FrameBudget(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Start the clock for a new frame.
+     */
+    public void start() {
+        this.deadline = System.nanoTime() + budget;
+        this.frames++;
+    }
+
+    /**
+     * @return true once the frame has used up its budget
+     */
+    public boolean expired() {
+        return System.nanoTime() - deadline >= 0;
+    }
+
+    /**
+     * End the frame, counting it as a hit if it took longer than its budget.
+     * To be called once per frame started.
+     */
+    public void end() {
+        if (expired()) {
+            hits++;
+        }
+    }
+
+    /**
+     * @return nanoseconds left in this frame, never negative
+     */
+    public long remaining() {
+        return Math.max(0, deadline - System.nanoTime());
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    public void setBudget(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * @return number of frames started
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return number of frames that ran out of time
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Start counting frames and hits from zero again.
+     */
+    public void resetCounts() {
+        frames = 0;
+        hits = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "time budget " + budget / 1000 + "us hit in " + hits + " of "
+                + frames + " frames";
+    }
+}
@@ -0,0 +1,297 @@
+package Player;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Where the time of each decision goes. Every frame is split into phases,
+ * and each phase's time goes into a log-linear histogram, together with the
+ * breadth first searches run, tiles expanded and bytes allocated in the
+ * frame. Recording allocates nothing; a summary is built on request, and
+ * each frame can be streamed to a file as a line of numbers.
+ *
+ * Metrics are off unless the system property pacman.metrics is "true".
+ * ENABLED is read once when the class loads, so the JIT treats it as a
+ * constant and drops the recording calls guarded by it when it is false.
+ * Setting pacman.metrics.file streams frames to that file.
+ */
+public class FrameMetrics {
+
+    public static final boolean ENABLED = Boolean.getBoolean("pacman.metrics");
+    public static final int UPDATE = 0;
+    public static final int SAFEST = 1;
+    public static final int TARGET = 2;
+    public static final int CHASE = 3;
+    public static final int DOTS = 4;
+    public static final int CORNERS = 5;
+    public static final int FALLBACK = 6;
+    public static final int REUSE = 7;
+    public static final int ASYNC = 8;
+    public static final int MCTS = 9;
+    public static final int TOUR = 10;
+    public static final int POLICY = 11;
+    public static final int PREDICT = 12;
+    public static final int PHASES = 13;
+    private static final String[] NAMES = {"update", "safest", "target",
+        "chase", "dots", "corners", "fallback", "reuse", "async", "mcts", "tour", "policy", "predict", "frame"};
+    // Four buckets per power of two, enough for any long
+    static final int BUCKETS = 256;
+    // The whole frame is recorded as one more phase
+    private final long[][] histogram = new long[PHASES + 1][BUCKETS];
+    private final long[] count = new long[PHASES + 1];
+    private final long[] total = new long[PHASES + 1];
+    private final long[] max = new long[PHASES + 1];
+    private final long[] frameNanos = new long[PHASES + 1];
+    private int phase = -1;
+    private long frameStart;
+    private long phaseStart;
+    private long bytesStart;
+    private long searchesStart;
+    private long expandedStart;
+    private long frames;
+    private long searches;
+    private long expanded;
+    private long bytes;
+    private long maxBytes;
+    // Per-frame stream, written through a buffer by hand so it allocates
+    // nothing; the buffer only exists while there is a stream
+    private OutputStream out;
+    private byte[] buffer;
+    private int buffered;
+
+    public FrameMetrics() {
+        this(System.getProperty("pacman.metrics.file"));
+    }
+
+    /**
+     * @param file - where to stream frames to, null for nowhere
+     */
+    public FrameMetrics(String file) {
+        if (ENABLED && file != null) {
+            try {
+                out = new FileOutputStream(file);
+                buffer = new byte[1 << 16];
+                for (String name : NAMES) {
+                    append(name);
+                    append(',');
+                }
+                append("searches,expanded,bytes\n");
+            } catch (IOException e) {
+                System.out.println("Metrics file " + file + " not written: " + e);
+                out = null;
+            }
+        }
+    }
+
+    /**
+     * Start timing a frame.
+     *
+     * @param searches - breadth first searches run so far
+     * @param expanded - tiles expanded by them so far
+     */
+    public void startFrame(long searches, long expanded) {
+        frameStart = System.nanoTime();
+        phaseStart = frameStart;
+        phase = -1;
+        bytesStart = AllocationCounter.currentThreadBytes();
+        searchesStart = searches;
+        expandedStart = expanded;
+        for (int p = 0; p <= PHASES; p++) {
+            frameNanos[p] = 0;
+        }
+    }
+
+    /**
+     * End the current phase, if any, and start another.
+     *
+     * @param next - the phase starting now
+     */
+    public void enter(int next) {
+        long now = System.nanoTime();
+        if (phase >= 0) {
+            frameNanos[phase] += now - phaseStart;
+        }
+        phase = next;
+        phaseStart = now;
+    }
+
+    /**
+     * Finish the frame and record it.
+     *
+     * @param searches - breadth first searches run so far
+     * @param expanded - tiles expanded by them so far
+     */
+    public void endFrame(long searches, long expanded) {
+        long now = System.nanoTime();
+        if (phase >= 0) {
+            frameNanos[phase] += now - phaseStart;
+        }
+        frameNanos[PHASES] = now - frameStart;
+        for (int p = 0; p <= PHASES; p++) {
+            if (frameNanos[p] > 0) {
+                record(p, frameNanos[p]);
+            }
+        }
+        long frameBytes = AllocationCounter.since(bytesStart);
+        frames++;
+        this.searches += searches - searchesStart;
+        this.expanded += expanded - expandedStart;
+        bytes += frameBytes;
+        maxBytes = Math.max(maxBytes, frameBytes);
+        if (out != null) {
+            for (int p = 0; p <= PHASES; p++) {
+                append(frameNanos[p]);
+                append(',');
+            }
+            append(searches - searchesStart);
+            append(',');
+            append(expanded - expandedStart);
+            append(',');
+            append(frameBytes);
+            append('\n');
+        }
+    }
+
+    private void record(int p, long nanos) {
+        histogram[p][bucketOf(nanos)]++;
+        count[p]++;
+        total[p] += nanos;
+        max[p] = Math.max(max[p], nanos);
+    }
+
+    /**
+     * @return the log-linear bucket of a value, four per power of two
+     */
+    static int bucketOf(long value) {
+        if (value < 4) {
+            return (int) Math.max(0, value);
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        return ((exp - 1) << 2) + (int) ((value >>> (exp - 2)) & 3);
+    }
+
+    /**
+     * @return the largest value that falls in the bucket
+     */
+    static long upperBound(int bucket) {
+        if (bucket < 4) {
+            return bucket;
+        }
+        int exp = (bucket >>> 2) + 1;
+        long lower = (4L + (bucket & 3)) << (exp - 2);
+        return lower + (1L << (exp - 2)) - 1;
+    }
+
+    /**
+     * @param p - a phase, or PHASES for whole frames
+     * @param q - between 0 and 1
+     * @return the time below which that fraction of the phase's runs took,
+     * to within a quarter power of two
+     */
+    public long quantile(int p, double q) {
+        long rank = (long) Math.ceil(q * count[p]);
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += histogram[p][b];
+            if (seen >= rank && seen > 0) {
+                return Math.min(upperBound(b), max[p]);
+            }
+        }
+        return 0;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * Forget everything recorded, e.g. at the start of a level.
+     */
+    public void reset() {
+        for (int p = 0; p <= PHASES; p++) {
+            for (int b = 0; b < BUCKETS; b++) {
+                histogram[p][b] = 0;
+            }
+            count[p] = 0;
+            total[p] = 0;
+            max[p] = 0;
+        }
+        frames = 0;
+        searches = 0;
+        expanded = 0;
+        bytes = 0;
+        maxBytes = 0;
+        flush();
+    }
+
+    /**
+     * @return one line per phase with runs, mean, p50, p99 and max in
+     * microseconds, then searches, expansions and bytes per frame
+     */
+    public String summary() {
+        StringBuilder s = new StringBuilder();
+        s.append(frames).append(" frames");
+        for (int p = 0; p <= PHASES; p++) {
+            if (count[p] == 0) {
+                continue;
+            }
+            s.append(String.format("%n  %-8s %8d runs, mean %8.1fus, p50 %8.1fus, p99 %8.1fus, max %8.1fus",
+                    NAMES[p], count[p], total[p] / 1000.0 / count[p],
+                    quantile(p, 0.5) / 1000.0, quantile(p, 0.99) / 1000.0, max[p] / 1000.0));
+        }
+        if (frames > 0) {
+            s.append(String.format("%n  per frame: %.1f searches, %.1f tiles expanded",
+                    (double) searches / frames, (double) expanded / frames));
+            if (AllocationCounter.isSupported()) {
+                s.append(String.format(", %.0f bytes allocated (max %d)",
+                        (double) bytes / frames, maxBytes));
+            }
+        }
+        return s.toString();
+    }
+
+    /**
+     * Write out any frames still buffered.
+     */
+    public void flush() {
+        if (out == null || buffered == 0) {
+            return;
+        }
+        try {
+            out.write(buffer, 0, buffered);
+            out.flush();
+        } catch (IOException e) {
+            System.out.println("Metrics file not written: " + e);
+            out = null;
+        }
+        buffered = 0;
+    }
+
+    private void append(char c) {
+        if (buffered == buffer.length) {
+            flush();
+        }
+        buffer[buffered++] = (byte) c;
+    }
+
+    private void append(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            append(text.charAt(i));
+        }
+    }
+
+    private void append(long value) {
+        if (value < 0) {
+            append('-');
+            value = -value;
+        }
+        long scale = 1;
+        while (scale <= value / 10) {
+            scale *= 10;
+        }
+        for (; scale > 0; scale /= 10) {
+            append((char) ('0' + value / scale % 10));
+        }
+    }
+}
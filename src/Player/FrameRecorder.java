@@ -0,0 +1,375 @@
+package Player;
+
+import com.orbischallenge.pacman.api.common.*;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Records what the player was given every frame and what it decided, to
+ * replay the game later through FrameReplay. A recording starts with the
+ * names of the maze items and moves, so it still reads if the game's enums
+ * are reordered, followed by one record per event:
+ *
+ * - LEVEL: the maze's size, the number of ghosts and every maze item;
+ * - LIFE: a new life starts;
+ * - FRAME: a byte of flags saying what changed since the last frame, then
+ * only that: the score, the tiles whose item changed, Pacman's tile,
+ * direction and open directions, and the tile, state and timer of each
+ * ghost that changed; then the move decided and the nanoseconds it took.
+ *
+ * Numbers are varints and changes are deltas where they are small, so a game
+ * on the classic maze takes about seven bytes a frame. Records go through a
+ * direct buffer onto a channel, only written out when the buffer fills or on
+ * flush, and recording a frame allocates nothing. A failed write is reported
+ * once and ends the recording, never the game.
+ *
+ * A FrameRecorder is not thread safe; a player records from its own thread.
+ */
+public class FrameRecorder {
+
+    static final int MAGIC = 0x50524543;
+    /**
+     * Format version, to be bumped whenever a record's layout changes
+     */
+    public static final int VERSION = 1;
+    static final int LEVEL = 1;
+    static final int LIFE = 2;
+    static final int FRAME = 3;
+    // Frame flags
+    static final int SCORE = 1;
+    static final int ITEMS = 2;
+    static final int PAC_TILE = 4;
+    static final int PAC_DIR = 8;
+    static final int PAC_DIRS = 16;
+    static final int GHOSTS = 32;
+    // Ghost flags
+    static final int GHOST_TILE = 1;
+    static final int GHOST_FRIGHTENED = 2;
+    static final int GHOST_TIMER = 4;
+    /**
+     * Move of a frame where the player decided nothing
+     */
+    static final int NO_MOVE = 0xff;
+    private WritableByteChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+    // Everything as of the last frame, to record only the changes
+    private int width;
+    private int height;
+    private byte[] items = new byte[0];
+    private int score;
+    private int pacX = -1;
+    private int pacY = -1;
+    private int pacDir = -1;
+    private int pacDirs = -1;
+    private int[] ghostX = new int[0];
+    private int[] ghostY = new int[0];
+    private boolean[] ghostFrightened = new boolean[0];
+    private int[] ghostTimer = new int[0];
+    private long frames;
+
+    /**
+     * @param channel - where the recording goes, closed by close
+     */
+    public FrameRecorder(WritableByteChannel channel) {
+        this.channel = channel;
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        putNames(MazeItem.values());
+        putNames(MoveDir.values());
+    }
+
+    /**
+     * @param file
+     * @return a recorder writing to the file, null if it can't be created
+     */
+    public static FrameRecorder open(String file) {
+        try {
+            return new FrameRecorder(new FileOutputStream(file).getChannel());
+        } catch (IOException e) {
+            System.out.println("Recording " + file + " not written: " + e);
+            return null;
+        }
+    }
+
+    private void putNames(Enum<?>[] values) {
+        buffer.put((byte) values.length);
+        for (Enum<?> value : values) {
+            byte[] name = value.name().getBytes(StandardCharsets.UTF_8);
+            buffer.put((byte) name.length);
+            buffer.put(name);
+        }
+    }
+
+    /**
+     * Record the start of a level: the whole maze.
+     *
+     * @param maze
+     * @param ghosts - the number of ghosts
+     */
+    public void level(MazeView maze, int ghosts) {
+        MazeItem[][] matrix = maze.toMatrix();
+        height = matrix.length;
+        width = height == 0 ? 0 : matrix[0].length;
+        if (items.length != width * height) {
+            items = new byte[width * height];
+        }
+        if (ghostX.length != ghosts) {
+            ghostX = new int[ghosts];
+            ghostY = new int[ghosts];
+            ghostFrightened = new boolean[ghosts];
+            ghostTimer = new int[ghosts];
+            Arrays.fill(ghostX, -1);
+            Arrays.fill(ghostY, -1);
+        }
+        if (!ensure(16 + items.length)) {
+            return;
+        }
+        buffer.put((byte) LEVEL);
+        putVarint(width);
+        putVarint(height);
+        putVarint(ghosts);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                items[y * width + x] = (byte) matrix[y][x].ordinal();
+            }
+        }
+        buffer.put(items);
+    }
+
+    /**
+     * Record the start of a new life.
+     */
+    public void life() {
+        if (ensure(1)) {
+            buffer.put((byte) LIFE);
+        }
+    }
+
+    /**
+     * Record a frame: what the player was given, and what it decided.
+     *
+     * @param maze
+     * @param ghosts
+     * @param pac
+     * @param score
+     * @param move - the decision, may be null
+     * @param nanos - the time the decision took
+     */
+    public void frame(MazeView maze, GhostView[] ghosts, PacView pac, int score,
+            MoveDir move, long nanos) {
+        if (channel == null || ghosts.length != ghostX.length) {
+            return;
+        }
+        MazeItem[][] matrix = maze.toMatrix();
+        int changedItems = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (items[y * width + x] != matrix[y][x].ordinal()) {
+                    changedItems++;
+                }
+            }
+        }
+        int dirs = 0;
+        List<MoveDir> possible = pac.getPossibleDirs();
+        for (int i = 0; i < possible.size(); i++) {
+            // Three bits each, in order, as the order decides ties
+            dirs |= (possible.get(i).ordinal() + 1) << (3 * i);
+        }
+        int pacDir = pac.getDir() == null ? -1 : pac.getDir().ordinal();
+        int changedGhosts = 0;
+        for (int i = 0; i < ghosts.length; i++) {
+            if (ghostFlags(ghosts[i], i) != 0) {
+                changedGhosts |= 1 << i;
+            } else {
+                ghostTimer[i] = expectedTimer(i);
+            }
+        }
+        int flags = (score != this.score ? SCORE : 0)
+                | (changedItems > 0 ? ITEMS : 0)
+                | (pac.getTileX() != pacX || pac.getTileY() != pacY ? PAC_TILE : 0)
+                | (pacDir != this.pacDir ? PAC_DIR : 0)
+                | (dirs != pacDirs ? PAC_DIRS : 0)
+                | (changedGhosts != 0 ? GHOSTS : 0);
+        if (!ensure(48 + 11 * changedItems + 32 * ghosts.length)) {
+            return;
+        }
+        buffer.put((byte) FRAME);
+        buffer.put((byte) flags);
+        if ((flags & SCORE) != 0) {
+            putVarint(zigzag(score - this.score));
+            this.score = score;
+        }
+        if ((flags & ITEMS) != 0) {
+            putVarint(changedItems);
+            int last = 0;
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int tile = y * width + x;
+                    byte item = (byte) matrix[y][x].ordinal();
+                    if (items[tile] != item) {
+                        putVarint(tile - last);
+                        buffer.put(item);
+                        items[tile] = item;
+                        last = tile;
+                    }
+                }
+            }
+        }
+        if ((flags & PAC_TILE) != 0) {
+            putVarint(zigzag(pac.getTileX() - pacX));
+            putVarint(zigzag(pac.getTileY() - pacY));
+            pacX = pac.getTileX();
+            pacY = pac.getTileY();
+        }
+        if ((flags & PAC_DIR) != 0) {
+            buffer.put((byte) pacDir);
+            this.pacDir = pacDir;
+        }
+        if ((flags & PAC_DIRS) != 0) {
+            putVarint(dirs);
+            pacDirs = dirs;
+        }
+        if ((flags & GHOSTS) != 0) {
+            putVarint(changedGhosts);
+            for (int i = 0; i < ghosts.length; i++) {
+                if ((changedGhosts & (1 << i)) != 0) {
+                    putGhost(ghosts[i], i);
+                }
+            }
+        }
+        buffer.put((byte) (move == null ? NO_MOVE : move.ordinal()));
+        putVarint(nanos);
+        frames++;
+    }
+
+    /**
+     * @return what changed about ghost i since the last frame, as ghost flags;
+     * a timer counting down a frame at a time doesn't count as a change
+     */
+    private int ghostFlags(GhostView ghost, int i) {
+        int timer = ghost.isFrightened() ? ghost.framesTillRecover() : 0;
+        return (ghost.getTileX() != ghostX[i] || ghost.getTileY() != ghostY[i] ? GHOST_TILE : 0)
+                | (ghost.isFrightened() != ghostFrightened[i] ? GHOST_FRIGHTENED : 0)
+                | (timer != expectedTimer(i) ? GHOST_TIMER : 0);
+    }
+
+    /**
+     * @return ghost i's timer this frame if it went on counting down
+     */
+    private int expectedTimer(int i) {
+        return Math.max(0, ghostTimer[i] - 1);
+    }
+
+    private void putGhost(GhostView ghost, int i) {
+        int flags = ghostFlags(ghost, i);
+        buffer.put((byte) flags);
+        if ((flags & GHOST_TILE) != 0) {
+            putVarint(zigzag(ghost.getTileX() - ghostX[i]));
+            putVarint(zigzag(ghost.getTileY() - ghostY[i]));
+            ghostX[i] = ghost.getTileX();
+            ghostY[i] = ghost.getTileY();
+        }
+        if ((flags & GHOST_FRIGHTENED) != 0) {
+            ghostFrightened[i] = ghost.isFrightened();
+        }
+        int timer = ghost.isFrightened() ? ghost.framesTillRecover() : 0;
+        if ((flags & GHOST_TIMER) != 0) {
+            putVarint(zigzag(timer - expectedTimer(i)));
+        }
+        ghostTimer[i] = timer;
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private void putVarint(long value) {
+        while ((value & ~0x7fL) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Make room for a record of up to the given bytes, writing out the
+     * buffer if needed.
+     *
+     * @return false if the recording has ended
+     */
+    private boolean ensure(int bytes) {
+        if (channel == null) {
+            return false;
+        }
+        if (buffer.remaining() < bytes) {
+            flush();
+            if (buffer.capacity() < bytes) {
+                buffer = ByteBuffer.allocateDirect(Integer.highestOneBit(bytes) << 1);
+            }
+        }
+        return channel != null;
+    }
+
+    /**
+     * Write out the records still buffered, e.g. when a life is lost, so a
+     * crash loses at most the frames since.
+     */
+    public void flush() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            write();
+        } catch (IOException e) {
+            System.out.println("Recording not written: " + e);
+            end();
+        }
+    }
+
+    /**
+     * Write out what is buffered and close the channel.
+     */
+    public void close() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            write();
+        } catch (IOException e) {
+            System.out.println("Recording not written: " + e);
+        }
+        end();
+    }
+
+    private void write() throws IOException {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    private void end() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.out.println("Recording not closed: " + e);
+        }
+        channel = null;
+    }
+
+    /**
+     * @return frames recorded
+     */
+    public long getFrames() {
+        return frames;
+    }
+}
@@ -0,0 +1,434 @@
+package Player;
+
+import com.orbischallenge.pacman.api.common.*;
+import java.awt.Point;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Plays a recording made by FrameRecorder back through a PacPlayer, frame by
+ * frame and as fast as it decides: every level and life start is passed on,
+ * and every frame's maze, ghosts, Pacman and score are rebuilt and decided
+ * again. The recording is read in chunks as it goes, so a long game never
+ * has to fit in memory.
+ *
+ * The player's moves don't steer anything, every frame is as recorded, so a
+ * replay shows how the player decides now on the exact frames of then: how
+ * long it takes and whether it still decides the same. Levels are built
+ * from the recorded maze items, like the simulator's, through the default
+ * TableCache.
+ */
+public class FrameReplay {
+
+    private final ReadableByteChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+    private final MazeItem[] items;
+    private final MoveDir[] moves;
+    // The frame as rebuilt so far
+    private final ReplayMaze maze = new ReplayMaze();
+    private ReplayGhost[] ghosts = new ReplayGhost[0];
+    private final ReplayPac pac = new ReplayPac();
+    private int width;
+    private int score;
+    private boolean levelStarted;
+    private boolean lifeStarted;
+    // The last frame replayed
+    private long frame = -1;
+    private MoveDir recordedMove;
+    private long recordedNanos;
+    private MoveDir move;
+    private long nanos;
+
+    /**
+     * @param channel - a recording, read up to its end
+     * @throws IOException if it is not a recording this version reads
+     */
+    public FrameReplay(ReadableByteChannel channel) throws IOException {
+        this.channel = channel;
+        buffer.flip();
+        ensure(8);
+        if (buffer.getInt() != FrameRecorder.MAGIC || buffer.getInt() != FrameRecorder.VERSION) {
+            throw new IOException("not a recording of version " + FrameRecorder.VERSION);
+        }
+        this.items = readNames(MazeItem.class);
+        this.moves = readNames(MoveDir.class);
+    }
+
+    /**
+     * @param file
+     * @return a replay reading the file
+     * @throws IOException
+     */
+    public static FrameReplay open(String file) throws IOException {
+        return new FrameReplay(new FileInputStream(file).getChannel());
+    }
+
+    /**
+     * @return the current values of the recorded names, in the recorded order
+     */
+    private <E extends Enum<E>> E[] readNames(Class<E> type) throws IOException {
+        ensure(1);
+        int count = buffer.get() & 0xff;
+        List<E> values = new ArrayList<E>(count);
+        for (int i = 0; i < count; i++) {
+            ensure(1);
+            byte[] name = new byte[buffer.get() & 0xff];
+            ensure(name.length);
+            buffer.get(name);
+            try {
+                values.add(Enum.valueOf(type, new String(name, StandardCharsets.UTF_8)));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("recording has an unknown " + type.getSimpleName(), e);
+            }
+        }
+        @SuppressWarnings("unchecked")
+        E[] array = (E[]) java.lang.reflect.Array.newInstance(type, count);
+        return values.toArray(array);
+    }
+
+    /**
+     * Replay the next frame, after starting any level or life recorded
+     * before it.
+     *
+     * @param player
+     * @return false at the end of the recording
+     * @throws IOException if the recording is cut short or corrupt
+     */
+    public boolean next(PacPlayer player) throws IOException {
+        while (true) {
+            if (!buffer.hasRemaining() && !fill()) {
+                return false;
+            }
+            int type = buffer.get();
+            if (type == FrameRecorder.LEVEL) {
+                readLevel();
+                levelStarted = true;
+            } else if (type == FrameRecorder.LIFE) {
+                lifeStarted = true;
+            } else if (type == FrameRecorder.FRAME) {
+                readFrame();
+                break;
+            } else {
+                throw new IOException("bad record type " + type + " after frame " + frame);
+            }
+        }
+        if (levelStarted) {
+            TileGrid grid = new TileGrid(maze.matrix);
+            player.startLevel(new MazeGraph(TableCache.getDefault().load(grid), maze.toMatrix()),
+                    ghosts, pac);
+            levelStarted = false;
+        }
+        if (lifeStarted) {
+            player.startLife(ghosts, pac);
+            lifeStarted = false;
+        }
+        long start = System.nanoTime();
+        move = player.decide(maze, ghosts, score);
+        nanos = System.nanoTime() - start;
+        frame++;
+        return true;
+    }
+
+    private void readLevel() throws IOException {
+        width = (int) readVarint();
+        int height = (int) readVarint();
+        int count = (int) readVarint();
+        maze.matrix = new MazeItem[height][width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                maze.matrix[y][x] = readItem();
+            }
+        }
+        if (ghosts.length != count) {
+            ghosts = new ReplayGhost[count];
+            for (int i = 0; i < count; i++) {
+                ghosts[i] = new ReplayGhost();
+            }
+        }
+    }
+
+    private void readFrame() throws IOException {
+        ensure(1);
+        int flags = buffer.get();
+        if ((flags & FrameRecorder.SCORE) != 0) {
+            score += (int) unzigzag(readVarint());
+        }
+        if ((flags & FrameRecorder.ITEMS) != 0) {
+            int changed = (int) readVarint();
+            int tile = 0;
+            for (int i = 0; i < changed; i++) {
+                tile += (int) readVarint();
+                maze.matrix[tile / width][tile % width] = readItem();
+            }
+        }
+        if ((flags & FrameRecorder.PAC_TILE) != 0) {
+            pac.x += (int) unzigzag(readVarint());
+            pac.y += (int) unzigzag(readVarint());
+        }
+        if ((flags & FrameRecorder.PAC_DIR) != 0) {
+            ensure(1);
+            int dir = buffer.get() & 0xff;
+            pac.dir = dir == 0xff ? null : moves[dir];
+        }
+        if ((flags & FrameRecorder.PAC_DIRS) != 0) {
+            List<MoveDir> dirs = new ArrayList<MoveDir>(TileGrid.DIRS);
+            for (long packed = readVarint(); packed != 0; packed >>>= 3) {
+                dirs.add(moves[(int) (packed & 7) - 1]);
+            }
+            pac.possibleDirs = Collections.unmodifiableList(dirs);
+        }
+        long changedGhosts = (flags & FrameRecorder.GHOSTS) != 0 ? readVarint() : 0;
+        for (int i = 0; i < ghosts.length; i++) {
+            ReplayGhost ghost = ghosts[i];
+            int expected = Math.max(0, ghost.timer - 1);
+            if ((changedGhosts & (1L << i)) == 0) {
+                ghost.timer = expected;
+                continue;
+            }
+            ensure(1);
+            int ghostFlags = buffer.get();
+            if ((ghostFlags & FrameRecorder.GHOST_TILE) != 0) {
+                ghost.x += (int) unzigzag(readVarint());
+                ghost.y += (int) unzigzag(readVarint());
+            }
+            if ((ghostFlags & FrameRecorder.GHOST_FRIGHTENED) != 0) {
+                ghost.frightened = !ghost.frightened;
+            }
+            ghost.timer = (ghostFlags & FrameRecorder.GHOST_TIMER) != 0
+                    ? expected + (int) unzigzag(readVarint()) : expected;
+        }
+        ensure(1);
+        int recorded = buffer.get() & 0xff;
+        recordedMove = recorded == FrameRecorder.NO_MOVE ? null : moves[recorded];
+        recordedNanos = readVarint();
+    }
+
+    private MazeItem readItem() throws IOException {
+        ensure(1);
+        return items[buffer.get() & 0xff];
+    }
+
+    private long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            ensure(1);
+            byte b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("bad varint after frame " + frame);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Have at least the given bytes in the buffer.
+     *
+     * @throws EOFException if the recording ends first
+     */
+    private void ensure(int bytes) throws IOException {
+        while (buffer.remaining() < bytes) {
+            if (!fill()) {
+                throw new EOFException("recording cut short after frame " + frame);
+            }
+        }
+    }
+
+    /**
+     * Read more of the recording in after what is left in the buffer.
+     *
+     * @return false at the end of the recording
+     */
+    private boolean fill() throws IOException {
+        buffer.compact();
+        try {
+            return channel.read(buffer) > 0;
+        } finally {
+            buffer.flip();
+        }
+    }
+
+    /**
+     * @return the index of the last frame replayed, from 0
+     */
+    public long getFrame() {
+        return frame;
+    }
+
+    /**
+     * @return the move the player decided when the frame was recorded
+     */
+    public MoveDir getRecordedMove() {
+        return recordedMove;
+    }
+
+    /**
+     * @return the time that decision took
+     */
+    public long getRecordedNanos() {
+        return recordedNanos;
+    }
+
+    /**
+     * @return the move the player decided on replay
+     */
+    public MoveDir getMove() {
+        return move;
+    }
+
+    /**
+     * @return the time it took on replay
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static final class ReplayMaze implements MazeView {
+
+        private MazeItem[][] matrix = new MazeItem[0][0];
+
+        @Override
+        public MazeItem[][] toMatrix() {
+            return matrix;
+        }
+    }
+
+    private static final class ReplayGhost implements GhostView {
+
+        private int x = -1;
+        private int y = -1;
+        private boolean frightened;
+        private int timer;
+
+        @Override
+        public Point getTile() {
+            return new Point(x, y);
+        }
+
+        @Override
+        public int getTileX() {
+            return x;
+        }
+
+        @Override
+        public int getTileY() {
+            return y;
+        }
+
+        @Override
+        public boolean isFrightened() {
+            return frightened;
+        }
+
+        @Override
+        public int framesTillRecover() {
+            return timer;
+        }
+    }
+
+    private static final class ReplayPac implements PacView {
+
+        private int x = -1;
+        private int y = -1;
+        private MoveDir dir;
+        private List<MoveDir> possibleDirs = Collections.emptyList();
+
+        @Override
+        public Point getTile() {
+            return new Point(x, y);
+        }
+
+        @Override
+        public int getTileX() {
+            return x;
+        }
+
+        @Override
+        public int getTileY() {
+            return y;
+        }
+
+        @Override
+        public MoveDir getDir() {
+            return dir;
+        }
+
+        @Override
+        public List<MoveDir> getPossibleDirs() {
+            return possibleDirs;
+        }
+    }
+
+    /**
+     * Replay a recording through the default player and print how long it
+     * took, how often it decided differently and the slowest frames.
+     *
+     * @param args - the recording, then how many of the slowest frames to
+     * show (default 10)
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("usage: FrameReplay recording [slowest]");
+            return;
+        }
+        int slowest = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        // The slowest frames so far, as replayed nanos in the high bits and
+        // the frame in the low 24, kept sorted
+        long[] worst = new long[slowest];
+        long[] worstRecorded = new long[slowest];
+        PacPlayer player = new PacPlayer(new PlayerConfig());
+        FrameReplay replay = open(args[0]);
+        long frames = 0;
+        long differ = 0;
+        long replayed = 0;
+        long recorded = 0;
+        try {
+            while (replay.next(player)) {
+                frames++;
+                replayed += replay.getNanos();
+                recorded += replay.getRecordedNanos();
+                if (replay.getMove() != replay.getRecordedMove()) {
+                    differ++;
+                }
+                for (int i = 0; i < slowest; i++) {
+                    if (worst[i] == 0 || replay.getNanos() > worst[i] >>> 24) {
+                        System.arraycopy(worst, i, worst, i + 1, slowest - i - 1);
+                        System.arraycopy(worstRecorded, i, worstRecorded, i + 1, slowest - i - 1);
+                        worst[i] = replay.getNanos() << 24 | (replay.getFrame() & 0xffffff);
+                        worstRecorded[i] = replay.getRecordedNanos();
+                        break;
+                    }
+                }
+            }
+        } finally {
+            replay.close();
+            player.shutdown();
+        }
+        System.out.println(frames + " frames, " + differ + " decided differently, mean "
+                + replayed / Math.max(1, frames) / 1000 + "us replayed, "
+                + recorded / Math.max(1, frames) / 1000 + "us recorded");
+        for (int i = 0; i < slowest && worst[i] != 0; i++) {
+            System.out.println("  frame " + (worst[i] & 0xffffff) + ": " + (worst[i] >>> 24) / 1000
+                    + "us replayed, " + worstRecorded[i] / 1000 + "us recorded");
+        }
+        if (FrameMetrics.ENABLED) {
+            System.out.println(player.getMetrics().summary());
+        }
+    }
+}
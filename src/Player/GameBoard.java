@@ -0,0 +1,165 @@
+package Player;
+
+import com.orbischallenge.pacman.api.common.*;
+import java.util.Arrays;
+
+/**
+ * The fixed part of a level for GameState: where Pacman and the ghosts can
+ * move from every tile, through the tunnel included, where the power dots
+ * start and where the ghost house is. Built once per layout and shared by
+ * every state played on it.
+ */
+public class GameBoard {
+
+    private final MazeTables tables;
+    private final TileGrid grid;
+    // The tile reached from every tile in every direction, at
+    // [tile * DIRS + d], -1 if the way is closed
+    private final int[] pacNext;
+    private final int[] ghostNext;
+    private final long[] power;
+    private final long[] dots;
+    private final int dotCount;
+    private final int door;
+    private final int houseExit;
+    private final int[] house;
+
+    /**
+     * @param tables - the layout
+     * @param matrix - the maze items at the start of the level, indexed
+     * [y][x]
+     */
+    public GameBoard(MazeTables tables, MazeItem[][] matrix) {
+        this.tables = tables;
+        this.grid = tables.getGrid();
+        int size = grid.size();
+        this.pacNext = new int[size * TileGrid.DIRS];
+        this.ghostNext = new int[size * TileGrid.DIRS];
+        this.power = new long[(size + 63) >>> 6];
+        this.dots = new long[(size + 63) >>> 6];
+        int count = 0;
+        int doorTile = -1;
+        for (int tile = 0; tile < size; tile++) {
+            MazeItem item = matrix[grid.yOf(tile)][grid.xOf(tile)];
+            if (item == MazeItem.DOT || item == GhostRules.POWER) {
+                dots[tile >>> 6] |= 1L << tile;
+                count++;
+            }
+            if (item == GhostRules.POWER) {
+                power[tile >>> 6] |= 1L << tile;
+            }
+            if (item == MazeItem.DOOR && doorTile < 0) {
+                doorTile = tile;
+            }
+            for (int d = 0; d < TileGrid.DIRS; d++) {
+                int next = step(tile, d);
+                MazeItem to = next < 0 ? MazeItem.WALL : matrix[grid.yOf(next)][grid.xOf(next)];
+                boolean open = to != MazeItem.WALL && to != MazeItem.DOOR;
+                pacNext[tile * TileGrid.DIRS + d] = open ? next : -1;
+                ghostNext[tile * TileGrid.DIRS + d] = open && to != MazeItem.TELEPORT ? next : -1;
+            }
+        }
+        this.dotCount = count;
+        this.door = doorTile;
+        this.houseExit = doorTile < 0 ? -1 : doorTile - grid.getWidth();
+        int inside = 0;
+        int[] tiles = new int[size];
+        for (int tile = 0; tile < size && houseExit >= 0; tile++) {
+            if (grid.isWalkable(tile) && isInHouse(tile)) {
+                tiles[inside++] = tile;
+            }
+        }
+        this.house = inside > 0 ? Arrays.copyOf(tiles, inside)
+                : new int[]{Math.max(0, houseExit)};
+    }
+
+    /**
+     * Like SimMaze.step: walking off the maze from a teleport comes back in
+     * on the other side.
+     */
+    private int step(int tile, int d) {
+        int next = grid.step(tile, d);
+        if (next < 0 && grid.isTeleport(tile)) {
+            int x = (grid.xOf(tile) + TileGrid.DX[d] + grid.getWidth()) % grid.getWidth();
+            int y = (grid.yOf(tile) + TileGrid.DY[d] + grid.getHeight()) % grid.getHeight();
+            next = grid.tileAt(x, y);
+        }
+        return next;
+    }
+
+    /**
+     * @param tile
+     * @param d - direction index
+     * @return where Pacman gets to moving that way, -1 if he can't
+     */
+    public int pacNext(int tile, int d) {
+        return pacNext[tile * TileGrid.DIRS + d];
+    }
+
+    /**
+     * @param tile
+     * @param d - direction index
+     * @return where a ghost gets to moving that way, -1 if it can't; ghosts
+     * keep out of the tunnel ends
+     */
+    public int ghostNext(int tile, int d) {
+        return ghostNext[tile * TileGrid.DIRS + d];
+    }
+
+    public boolean isPower(int tile) {
+        return (power[tile >>> 6] & (1L << tile)) != 0;
+    }
+
+    /**
+     * @return the dots and power dots at the start of the level, as a bitset
+     * over tile ids; not to be changed
+     */
+    long[] getDots() {
+        return dots;
+    }
+
+    public int getDotCount() {
+        return dotCount;
+    }
+
+    /**
+     * @param tile
+     * @return true if the tile is the door or can't be reached from the
+     * house exit, i.e. a ghost there hasn't come out yet
+     */
+    public boolean isInHouse(int tile) {
+        if (houseExit < 0) {
+            return false;
+        }
+        return tile == door || (!grid.isTeleport(tile)
+                && tables.getDistances().distance(houseExit, tile) == DistanceTable.UNREACHABLE);
+    }
+
+    public int getDoor() {
+        return door;
+    }
+
+    /**
+     * @return the tile above the door, where ghosts come out of the house
+     */
+    public int getHouseExit() {
+        return houseExit;
+    }
+
+    /**
+     * @param g - ghost number
+     * @return the tile in the house the ghost waits on, picked as SimMaze
+     * does
+     */
+    public int getHouseTile(int g) {
+        return house[(house.length / 2 + g) % house.length];
+    }
+
+    public MazeTables getTables() {
+        return tables;
+    }
+
+    public TileGrid getGrid() {
+        return grid;
+    }
+}
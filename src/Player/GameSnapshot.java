@@ -0,0 +1,277 @@
+package Player;
+
+import com.orbischallenge.pacman.api.common.*;
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable copy of everything the planner reads in a frame, so another
+ * thread can plan on it while the game goes on. Nothing in a snapshot changes
+ * after it is built, the maze matrix included: it is a private copy, shared
+ * only with other snapshots of the same dots.
+ *
+ * Each snapshot has a key of what the planner's decision depends on:
+ * Pacman's tile and direction, each ghost's tile and whether it is normal,
+ * worth chasing, frightened but about to recover or neither, and the level
+ * and life it belongs to. The planner treats snapshots with equal keys as
+ * the same state.
+ */
+public final class GameSnapshot implements MazeView {
+
+    private final MazeTables tables;
+    private final int level;
+    private final int epoch;
+    private final MazeItem[][] matrix;
+    private final FrozenGhost[] ghosts;
+    private final FrozenPac pac;
+    private final int score;
+    private final int[] key;
+
+    private GameSnapshot(MazeTables tables, int level, int epoch, MazeItem[][] matrix,
+            FrozenGhost[] ghosts, FrozenPac pac, int score, PlayerConfig config) {
+        this.tables = tables;
+        this.level = level;
+        this.epoch = epoch;
+        this.matrix = matrix;
+        this.ghosts = ghosts;
+        this.pac = pac;
+        this.score = score;
+        this.key = new int[4 + ghosts.length];
+        TileGrid grid = tables.getGrid();
+        key[0] = level;
+        key[1] = epoch;
+        key[2] = grid.tileAt(pac.x, pac.y);
+        key[3] = TileGrid.indexOf(pac.dir);
+        for (int i = 0; i < ghosts.length; i++) {
+            key[4 + i] = grid.tileAt(ghosts[i].x, ghosts[i].y) * 4 + stateOf(ghosts[i], config);
+        }
+    }
+
+    /**
+     * Copy the game as it is now.
+     *
+     * @param tables - the level's layout
+     * @param level
+     * @param epoch - counts levels and lives, so snapshots from before a
+     * restart never match one after
+     * @param matrix - a copy of the maze no one will change, see copyOf
+     * @param ghosts
+     * @param pac
+     * @param score
+     * @param config - the thresholds that decide how a ghost is treated
+     * @return the snapshot
+     */
+    public static GameSnapshot take(MazeTables tables, int level, int epoch,
+            MazeItem[][] matrix, GhostView[] ghosts, PacView pac, int score,
+            PlayerConfig config) {
+        FrozenGhost[] frozen = new FrozenGhost[ghosts.length];
+        for (int i = 0; i < ghosts.length; i++) {
+            GhostView g = ghosts[i];
+            frozen[i] = new FrozenGhost(g.getTileX(), g.getTileY(), g.isFrightened(),
+                    g.framesTillRecover());
+        }
+        FrozenPac frozenPac = new FrozenPac(pac.getTileX(), pac.getTileY(), pac.getDir(),
+                Collections.unmodifiableList(new ArrayList<MoveDir>(pac.getPossibleDirs())));
+        return new GameSnapshot(tables, level, epoch, matrix, frozen, frozenPac, score, config);
+    }
+
+    /**
+     * @param matrix - the maze items, indexed [y][x]
+     * @return a copy to take snapshots with
+     */
+    public static MazeItem[][] copyOf(MazeItem[][] matrix) {
+        MazeItem[][] copy = new MazeItem[matrix.length][];
+        for (int y = 0; y < matrix.length; y++) {
+            copy[y] = matrix[y].clone();
+        }
+        return copy;
+    }
+
+    /**
+     * 0 for a ghost that isn't frightened, 1 for one worth chasing, 2 for one
+     * about to recover and 3 for a frightened ghost that is neither
+     */
+    private static int stateOf(FrozenGhost ghost, PlayerConfig config) {
+        if (!ghost.frightened) {
+            return 0;
+        }
+        if (ghost.framesTillRecover > config.getChaseFrames()) {
+            return 1;
+        }
+        return ghost.framesTillRecover < config.getDangerFrames() ? 2 : 3;
+    }
+
+    /**
+     * Guess the next frame: Pacman turns to dir if he can and, if step is
+     * set, moves on to the next tile that way, eating its dot. Ghosts stay
+     * where they are, one frame nearer to recovering.
+     *
+     * @param dir - the direction the player just chose
+     * @param step - true to move Pacman a tile
+     * @param config
+     * @return the guessed snapshot, null if Pacman can't step that way or
+     * has no direction to step in
+     */
+    public GameSnapshot guess(MoveDir dir, boolean step, PlayerConfig config) {
+        TileGrid grid = tables.getGrid();
+        int tile = grid.tileAt(pac.x, pac.y);
+        MoveDir pacDir = pac.possibleDirs.contains(dir) ? dir : pac.dir;
+        List<MoveDir> possibleDirs = pac.possibleDirs;
+        MazeItem[][] nextMatrix = matrix;
+        if (step) {
+            // Without a direction to move in there is no tile to guess
+            int move = TileGrid.indexOf(pacDir);
+            if (move < 0) {
+                return null;
+            }
+            int next = grid.neighbour(tile, move);
+            if (next < 0 || grid.isTeleport(next)) {
+                return null;
+            }
+            tile = next;
+            List<MoveDir> dirs = new ArrayList<MoveDir>(TileGrid.DIRS);
+            for (int d = 0; d < TileGrid.DIRS; d++) {
+                if (grid.neighbour(tile, d) >= 0) {
+                    dirs.add(TileGrid.toMoveDir(d));
+                }
+            }
+            possibleDirs = Collections.unmodifiableList(dirs);
+            MazeItem item = matrix[grid.yOf(tile)][grid.xOf(tile)];
+            if (item == MazeItem.DOT || item == GhostRules.POWER) {
+                nextMatrix = copyOf(matrix);
+                nextMatrix[grid.yOf(tile)][grid.xOf(tile)] = GhostRules.EMPTY;
+            }
+        }
+        FrozenGhost[] later = new FrozenGhost[ghosts.length];
+        for (int i = 0; i < ghosts.length; i++) {
+            FrozenGhost g = ghosts[i];
+            later[i] = new FrozenGhost(g.x, g.y, g.frightened,
+                    g.frightened ? Math.max(0, g.framesTillRecover - 1) : g.framesTillRecover);
+        }
+        FrozenPac nextPac = new FrozenPac(grid.xOf(tile), grid.yOf(tile), pacDir, possibleDirs);
+        return new GameSnapshot(tables, level, epoch, nextMatrix, later, nextPac, score, config);
+    }
+
+    /**
+     * @param other
+     * @return true if the planner would decide the same on both
+     */
+    public boolean matches(GameSnapshot other) {
+        return other != null && Arrays.equals(key, other.key);
+    }
+
+    public MazeTables getTables() {
+        return tables;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public int getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * @return the maze; must not be changed
+     */
+    @Override
+    public MazeItem[][] toMatrix() {
+        return matrix;
+    }
+
+    public GhostView[] getGhosts() {
+        return ghosts.clone();
+    }
+
+    public PacView getPac() {
+        return pac;
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    private static final class FrozenGhost implements GhostView {
+
+        private final int x;
+        private final int y;
+        private final boolean frightened;
+        private final int framesTillRecover;
+
+        FrozenGhost(int x, int y, boolean frightened, int framesTillRecover) {
+            this.x = x;
+            this.y = y;
+            this.frightened = frightened;
+            this.framesTillRecover = framesTillRecover;
+        }
+
+        @Override
+        public Point getTile() {
+            return new Point(x, y);
+        }
+
+        @Override
+        public int getTileX() {
+            return x;
+        }
+
+        @Override
+        public int getTileY() {
+            return y;
+        }
+
+        @Override
+        public boolean isFrightened() {
+            return frightened;
+        }
+
+        @Override
+        public int framesTillRecover() {
+            return framesTillRecover;
+        }
+    }
+
+    private static final class FrozenPac implements PacView {
+
+        private final int x;
+        private final int y;
+        private final MoveDir dir;
+        private final List<MoveDir> possibleDirs;
+
+        FrozenPac(int x, int y, MoveDir dir, List<MoveDir> possibleDirs) {
+            this.x = x;
+            this.y = y;
+            this.dir = dir;
+            this.possibleDirs = possibleDirs;
+        }
+
+        @Override
+        public Point getTile() {
+            return new Point(x, y);
+        }
+
+        @Override
+        public int getTileX() {
+            return x;
+        }
+
+        @Override
+        public int getTileY() {
+            return y;
+        }
+
+        @Override
+        public MoveDir getDir() {
+            return dir;
+        }
+
+        @Override
+        public List<MoveDir> getPossibleDirs() {
+            return possibleDirs;
+        }
+    }
+}
@@ -0,0 +1,569 @@
+package Player;
+
+import com.orbischallenge.pacman.api.common.*;
+
+/**
+ * A compact, mutable copy of a game for lookahead search. Everything that
+ * changes from frame to frame is kept in one int array plus a bitset of the
+ * dots left, so a state is copied with two array copies, and apply plays one
+ * frame by the same rules as the Simulator (GhostRules for the ghosts, and
+ * the same speeds, scores and collisions) without allocating.
+ *
+ * Each apply saves the frame it changes in a journal, so undo steps back in
+ * constant time and a search can walk down and back up a single state
+ * instead of copying it at every step.
+ *
+ * Speeds and the distance travelled towards the next tile are fixed point,
+ * in 1/ONE of a tile. Frightened ghosts choose at random with the state's
+ * own generator, which is part of the state, so a copy plays out the same.
+ */
+public class GameState {
+
+    public static final int ONE = 1 << 24;
+    public static final int PLAYING = 0;
+    public static final int DEAD = 1;
+    public static final int CLEARED = 2;
+    // Ghost modes, as in SimGhost
+    public static final int IN_HOUSE = GhostRules.IN_HOUSE;
+    public static final int ACTIVE = GhostRules.ACTIVE;
+    public static final int FRIGHTENED = GhostRules.FRIGHTENED;
+    // Offsets into the state array
+    private static final int PAC_TILE = 0;
+    private static final int PAC_DIR = 1;
+    private static final int PAC_PROGRESS = 2;
+    private static final int LIFE_FRAME = 3;
+    private static final int WAVE_FRAME = 4;
+    private static final int SCORE = 5;
+    private static final int EATEN = 6;
+    private static final int DOTS_LEFT = 7;
+    private static final int STATUS = 8;
+    private static final int SEED = 9;
+    private static final int LEVEL = 10;
+    private static final int PAC_STEP = 11;
+    private static final int GHOST_STEP = 12;
+    private static final int FRIGHT_STEP = 13;
+    private static final int HEADER = 14;
+    // Offsets of each ghost's fields after the header
+    private static final int G_TILE = 0;
+    private static final int G_DIR = 1;
+    private static final int G_MODE = 2;
+    private static final int G_FRIGHT = 3;
+    private static final int G_RELEASE = 4;
+    private static final int G_PROGRESS = 5;
+    private static final int G_REVERSE = 6;
+    private static final int GHOST_FIELDS = 7;
+    private final GameBoard board;
+    private final TileGrid grid;
+    private final int ghosts;
+    private final int[] s;
+    private final long[] dots;
+    // Saved frames, each the state array followed by the tile whose dot the
+    // frame ate, or -1
+    private int[] journal;
+    private int journalSize;
+
+    /**
+     * A state at the start of a life on the board's first level, with every
+     * dot in place.
+     *
+     * @param board
+     * @param ghosts - number of ghosts
+     */
+    public GameState(GameBoard board, int ghosts) {
+        this.board = board;
+        this.grid = board.getGrid();
+        this.ghosts = ghosts;
+        this.s = new int[HEADER + ghosts * GHOST_FIELDS];
+        this.dots = board.getDots().clone();
+        this.journal = new int[64 * (s.length + 1)];
+        s[DOTS_LEFT] = board.getDotCount();
+        s[SEED] = 0x9e3779b9;
+        setLevel(1);
+    }
+
+    /**
+     * @return a state equal to this one, with an empty journal
+     */
+    public GameState copy() {
+        GameState copy = new GameState(board, ghosts);
+        copy.copyFrom(this);
+        return copy;
+    }
+
+    /**
+     * Become equal to another state on the same board, e.g. to start a
+     * rollout from it. The journal is emptied.
+     *
+     * @param other
+     */
+    public void copyFrom(GameState other) {
+        System.arraycopy(other.s, 0, s, 0, s.length);
+        System.arraycopy(other.dots, 0, dots, 0, dots.length);
+        journalSize = 0;
+    }
+
+    /**
+     * @param level - sets the speeds; starting at 1
+     */
+    public final void setLevel(int level) {
+        s[LEVEL] = level;
+        double ghostSpeed = PacPlayer.getGhostSpeed(level) / GhostRules.FPS;
+        s[PAC_STEP] = toStep(PacPlayer.pacSpeed / GhostRules.FPS);
+        s[GHOST_STEP] = toStep(ghostSpeed);
+        s[FRIGHT_STEP] = toStep(ghostSpeed / 2);
+    }
+
+    /**
+     * @param tilesPerFrame
+     * @return the speed in 1/ONE tiles per frame, as the simulator moves too
+     */
+    public static int toStep(double tilesPerFrame) {
+        return (int) Math.round(tilesPerFrame * ONE);
+    }
+
+    /**
+     * @param seed - for the frightened ghosts' choices
+     */
+    public void setSeed(int seed) {
+        s[SEED] = seed == 0 ? 1 : seed;
+    }
+
+    /**
+     * Copy a simulator's game exactly, e.g. to check the two play alike.
+     *
+     * @param sim
+     */
+    public void load(Simulator sim) {
+        journalSize = 0;
+        System.arraycopy(board.getDots(), 0, dots, 0, dots.length);
+        SimMaze maze = sim.getMaze();
+        int left = 0;
+        for (int tile = 0; tile < grid.size(); tile++) {
+            MazeItem item = maze.itemAt(tile);
+            if (item != MazeItem.DOT && item != GhostRules.POWER) {
+                dots[tile >>> 6] &= ~(1L << tile);
+            } else if (hasDot(tile)) {
+                left++;
+            }
+        }
+        setLevel(sim.getLevel());
+        s[DOTS_LEFT] = left;
+        s[SCORE] = sim.getScore();
+        s[LIFE_FRAME] = sim.getLifeFrame();
+        s[WAVE_FRAME] = sim.getWaveFrame();
+        s[EATEN] = sim.getGhostsEaten();
+        s[STATUS] = PLAYING;
+        SimPac pac = sim.getPac();
+        s[PAC_TILE] = pac.getTileId();
+        s[PAC_DIR] = pac.getDirIndex();
+        s[PAC_PROGRESS] = pac.getProgress();
+        SimGhost[] simGhosts = sim.getGhosts();
+        for (int g = 0; g < ghosts; g++) {
+            int o = HEADER + g * GHOST_FIELDS;
+            SimGhost ghost = simGhosts[g];
+            s[o + G_TILE] = ghost.getTileId();
+            s[o + G_DIR] = ghost.getDirIndex();
+            s[o + G_MODE] = ghost.getMode();
+            s[o + G_FRIGHT] = ghost.framesTillRecover();
+            s[o + G_RELEASE] = ghost.getReleaseFrame();
+            s[o + G_PROGRESS] = ghost.getProgress();
+            s[o + G_REVERSE] = ghost.isReversing() ? 1 : 0;
+        }
+    }
+
+    /**
+     * Start a life: the frame counters go back to zero. Follow with observe
+     * to place Pacman and the ghosts.
+     */
+    public void startLife() {
+        journalSize = 0;
+        s[LIFE_FRAME] = 0;
+        s[WAVE_FRAME] = 0;
+        s[STATUS] = PLAYING;
+        for (int g = 0; g < ghosts; g++) {
+            int o = HEADER + g * GHOST_FIELDS;
+            s[o + G_DIR] = TileGrid.indexOf(MoveDir.LEFT);
+            s[o + G_MODE] = ACTIVE;
+        }
+    }
+
+    /**
+     * Bring the state up to a frame of the game, which counts as one frame
+     * played. What the game doesn't show is carried over or guessed: a
+     * ghost's direction from the tile it came from, and when a ghost in the
+     * house comes out (at once from the door, else after the time an eaten
+     * ghost waits). Progress towards the next tile starts again at zero.
+     *
+     * @param maze - read only when Pacman is on a new tile, as that is when
+     * dots go
+     * @param views - the ghosts, as many as this state has
+     * @param pac
+     * @param score
+     */
+    public void observe(MazeView maze, GhostView[] views, PacView pac, int score) {
+        journalSize = 0;
+        int pacTile = grid.tileAt(pac.getTileX(), pac.getTileY());
+        if (pacTile != s[PAC_TILE] || s[LIFE_FRAME] == 0) {
+            MazeItem[][] matrix = maze.toMatrix();
+            int left = 0;
+            for (int tile = 0; tile < grid.size(); tile++) {
+                MazeItem item = matrix[grid.yOf(tile)][grid.xOf(tile)];
+                if (item == MazeItem.DOT || item == GhostRules.POWER) {
+                    dots[tile >>> 6] |= 1L << tile;
+                    left++;
+                } else {
+                    dots[tile >>> 6] &= ~(1L << tile);
+                }
+            }
+            s[DOTS_LEFT] = left;
+        }
+        s[PAC_TILE] = pacTile;
+        // Without a direction, Pacman keeps the last one known
+        int pacDir = TileGrid.indexOf(pac.getDir());
+        if (pacDir >= 0) {
+            s[PAC_DIR] = pacDir;
+        } else if (s[PAC_DIR] < 0) {
+            s[PAC_DIR] = 0;
+        }
+        s[PAC_PROGRESS] = 0;
+        s[SCORE] = score;
+        s[STATUS] = PLAYING;
+        s[LIFE_FRAME]++;
+        boolean frightened = false;
+        for (int g = 0; g < ghosts; g++) {
+            int o = HEADER + g * GHOST_FIELDS;
+            GhostView view = views[g];
+            int tile = grid.tileAt(view.getTileX(), view.getTileY());
+            int from = s[o + G_TILE];
+            if (tile != from && from >= 0) {
+                int d = grid.dirBetween(from, tile);
+                if (d >= 0) {
+                    s[o + G_DIR] = d;
+                }
+            }
+            s[o + G_TILE] = tile;
+            s[o + G_PROGRESS] = 0;
+            s[o + G_REVERSE] = 0;
+            if (board.isInHouse(tile)) {
+                if (s[o + G_MODE] != IN_HOUSE) {
+                    s[o + G_RELEASE] = s[LIFE_FRAME]
+                            + (tile == board.getDoor() ? 0 : GhostRules.EATEN_RELEASE * GhostRules.FPS);
+                }
+                s[o + G_MODE] = IN_HOUSE;
+                s[o + G_FRIGHT] = 0;
+            } else if (view.isFrightened()) {
+                s[o + G_MODE] = FRIGHTENED;
+                s[o + G_FRIGHT] = view.framesTillRecover();
+                frightened = true;
+            } else {
+                s[o + G_MODE] = ACTIVE;
+                s[o + G_FRIGHT] = 0;
+            }
+        }
+        if (!frightened) {
+            s[WAVE_FRAME]++;
+        }
+    }
+
+    /**
+     * Play one frame.
+     *
+     * @param wanted - direction index Pacman is asked to take, -1 for none
+     */
+    public void apply(int wanted) {
+        save();
+        if (s[STATUS] != PLAYING) {
+            return;
+        }
+        s[LIFE_FRAME]++;
+        boolean frightened = false;
+        for (int g = 0; g < ghosts; g++) {
+            frightened |= s[HEADER + g * GHOST_FIELDS + G_MODE] == FRIGHTENED;
+        }
+        if (!frightened) {
+            // The waves pause while any ghost is frightened
+            s[WAVE_FRAME]++;
+            if (GhostRules.isWaveChange(s[WAVE_FRAME])) {
+                for (int g = 0; g < ghosts; g++) {
+                    int o = HEADER + g * GHOST_FIELDS;
+                    if (s[o + G_MODE] == ACTIVE) {
+                        s[o + G_REVERSE] = 1;
+                    }
+                }
+            }
+        }
+        movePac(wanted);
+        if (collide()) {
+            return;
+        }
+        boolean scatter = GhostRules.isScatter(s[WAVE_FRAME]);
+        int blinky = HEADER + G_TILE;
+        for (int g = 0; g < ghosts; g++) {
+            int o = HEADER + g * GHOST_FIELDS;
+            int target = scatter ? GhostRules.scatterTarget(grid, g)
+                    : GhostRules.chaseTarget(grid, g, s[o + G_TILE], s[PAC_TILE],
+                            s[PAC_DIR], s[blinky]);
+            moveGhost(o, target, s[o + G_MODE] == FRIGHTENED ? s[FRIGHT_STEP] : s[GHOST_STEP]);
+        }
+        if (!collide() && s[DOTS_LEFT] == 0) {
+            s[STATUS] = CLEARED;
+        }
+    }
+
+    /**
+     * Take back the last frame applied.
+     *
+     * @return false if there is nothing to take back
+     */
+    public boolean undo() {
+        if (journalSize == 0) {
+            return false;
+        }
+        journalSize -= s.length + 1;
+        System.arraycopy(journal, journalSize, s, 0, s.length);
+        int eaten = journal[journalSize + s.length];
+        if (eaten >= 0) {
+            dots[eaten >>> 6] |= 1L << eaten;
+        }
+        return true;
+    }
+
+    private void save() {
+        if (journalSize + s.length + 1 > journal.length) {
+            int[] grown = new int[journal.length * 2];
+            System.arraycopy(journal, 0, grown, 0, journalSize);
+            journal = grown;
+        }
+        System.arraycopy(s, 0, journal, journalSize, s.length);
+        journal[journalSize + s.length] = -1;
+        journalSize += s.length + 1;
+    }
+
+    /**
+     * Move Pacman like SimPac.move, eating what he lands on.
+     */
+    private void movePac(int wanted) {
+        int tile = s[PAC_TILE];
+        if (wanted >= 0 && board.pacNext(tile, wanted) >= 0) {
+            s[PAC_DIR] = wanted;
+        }
+        int next = board.pacNext(tile, s[PAC_DIR]);
+        if (next < 0) {
+            // Up against a wall
+            s[PAC_PROGRESS] = 0;
+            return;
+        }
+        s[PAC_PROGRESS] += s[PAC_STEP];
+        if (s[PAC_PROGRESS] < ONE) {
+            return;
+        }
+        s[PAC_PROGRESS] -= ONE;
+        s[PAC_TILE] = next;
+        if (!hasDot(next)) {
+            return;
+        }
+        dots[next >>> 6] &= ~(1L << next);
+        journal[journalSize - 1] = next;
+        s[DOTS_LEFT]--;
+        if (!board.isPower(next)) {
+            s[SCORE] += GhostRules.DOT_POINTS;
+            return;
+        }
+        s[SCORE] += GhostRules.POWER_POINTS;
+        s[EATEN] = 0;
+        int frames = GhostRules.frightFrames(s[LEVEL]);
+        for (int g = 0; g < ghosts; g++) {
+            int o = HEADER + g * GHOST_FIELDS;
+            if (s[o + G_MODE] != IN_HOUSE) {
+                s[o + G_MODE] = FRIGHTENED;
+                s[o + G_FRIGHT] = frames;
+                s[o + G_REVERSE] = 1;
+            }
+        }
+    }
+
+    /**
+     * Move a ghost like SimGhost.move.
+     *
+     * @param o - offset of the ghost's fields
+     */
+    private void moveGhost(int o, int targetTile, int step) {
+        if (s[o + G_MODE] == IN_HOUSE) {
+            if (s[LIFE_FRAME] >= s[o + G_RELEASE]) {
+                s[o + G_TILE] = board.getHouseExit();
+                s[o + G_MODE] = ACTIVE;
+                s[o + G_PROGRESS] = 0;
+            }
+            return;
+        }
+        if (s[o + G_MODE] == FRIGHTENED && --s[o + G_FRIGHT] <= 0) {
+            s[o + G_MODE] = ACTIVE;
+        }
+        s[o + G_PROGRESS] += step;
+        if (s[o + G_PROGRESS] < ONE) {
+            return;
+        }
+        s[o + G_PROGRESS] -= ONE;
+        int tile = s[o + G_TILE];
+        if (s[o + G_REVERSE] != 0) {
+            s[o + G_REVERSE] = 0;
+            int back = TileGrid.opposite(s[o + G_DIR]);
+            int next = board.ghostNext(tile, back);
+            if (next >= 0) {
+                s[o + G_DIR] = back;
+                s[o + G_TILE] = next;
+                return;
+            }
+        }
+        int d = choose(o, targetTile);
+        if (d >= 0) {
+            s[o + G_DIR] = d;
+            s[o + G_TILE] = board.ghostNext(tile, d);
+        }
+    }
+
+    /**
+     * The ghost's next direction, as SimGhost chooses it.
+     */
+    private int choose(int o, int targetTile) {
+        int tile = s[o + G_TILE];
+        int back = TileGrid.opposite(s[o + G_DIR]);
+        boolean frightened = s[o + G_MODE] == FRIGHTENED;
+        int tx = grid.xOf(targetTile);
+        int ty = grid.yOf(targetTile);
+        int options = 0;
+        int best = -1;
+        long bestDistance = Long.MAX_VALUE;
+        for (int d : GhostRules.PREFERENCE) {
+            int next = board.ghostNext(tile, d);
+            if (d == back || next < 0) {
+                continue;
+            }
+            options++;
+            if (frightened) {
+                if (nextInt(options) == 0) {
+                    best = d;
+                }
+                continue;
+            }
+            long dx = grid.xOf(next) - tx;
+            long dy = grid.yOf(next) - ty;
+            if (dx * dx + dy * dy < bestDistance) {
+                best = d;
+                bestDistance = dx * dx + dy * dy;
+            }
+        }
+        if (best < 0 && board.ghostNext(tile, back) >= 0) {
+            // Dead end, the only way is back
+            best = back;
+        }
+        return best;
+    }
+
+    /**
+     * Xorshift, kept in the state so copies make the same choices
+     */
+    private int nextInt(int bound) {
+        int x = s[SEED];
+        x ^= x << 13;
+        x ^= x >>> 17;
+        x ^= x << 5;
+        s[SEED] = x;
+        return (int) ((x & 0xffffffffL) % bound);
+    }
+
+    /**
+     * Settle Pacman sharing a tile with ghosts, as Simulator does.
+     *
+     * @return true if Pacman died
+     */
+    private boolean collide() {
+        for (int g = 0; g < ghosts; g++) {
+            int o = HEADER + g * GHOST_FIELDS;
+            if (s[o + G_MODE] == IN_HOUSE || s[o + G_TILE] != s[PAC_TILE]) {
+                continue;
+            }
+            if (s[o + G_MODE] != FRIGHTENED) {
+                s[STATUS] = DEAD;
+                return true;
+            }
+            s[SCORE] += GhostRules.GHOST_POINTS << Math.min(s[EATEN]++, 3);
+            s[o + G_TILE] = board.getHouseTile(g);
+            s[o + G_MODE] = IN_HOUSE;
+            s[o + G_RELEASE] = s[LIFE_FRAME] + GhostRules.EATEN_RELEASE * GhostRules.FPS;
+            s[o + G_FRIGHT] = 0;
+            s[o + G_PROGRESS] = 0;
+        }
+        return false;
+    }
+
+    public boolean hasDot(int tile) {
+        return (dots[tile >>> 6] & (1L << tile)) != 0;
+    }
+
+    public GameBoard getBoard() {
+        return board;
+    }
+
+    public int getGhosts() {
+        return ghosts;
+    }
+
+    public int getPacTile() {
+        return s[PAC_TILE];
+    }
+
+    public int getPacDir() {
+        return s[PAC_DIR];
+    }
+
+    public int getGhostTile(int g) {
+        return s[HEADER + g * GHOST_FIELDS + G_TILE];
+    }
+
+    public int getGhostDir(int g) {
+        return s[HEADER + g * GHOST_FIELDS + G_DIR];
+    }
+
+    /**
+     * @param g
+     * @return IN_HOUSE, ACTIVE or FRIGHTENED
+     */
+    public int getGhostMode(int g) {
+        return s[HEADER + g * GHOST_FIELDS + G_MODE];
+    }
+
+    public int getFramesTillRecover(int g) {
+        return s[HEADER + g * GHOST_FIELDS + G_FRIGHT];
+    }
+
+    public int getScore() {
+        return s[SCORE];
+    }
+
+    public int getDotsLeft() {
+        return s[DOTS_LEFT];
+    }
+
+    public int getLevel() {
+        return s[LEVEL];
+    }
+
+    public int getLifeFrame() {
+        return s[LIFE_FRAME];
+    }
+
+    /**
+     * @return PLAYING, DEAD or CLEARED
+     */
+    public int getStatus() {
+        return s[STATUS];
+    }
+
+    /**
+     * @return the number of frames undo can take back
+     */
+    public int getDepth() {
+        return journalSize / (s.length + 1);
+    }
+}
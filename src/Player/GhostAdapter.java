@@ -0,0 +1,68 @@
+package Player;
+
+import com.orbischallenge.pacman.api.common.*;
+import com.orbischallenge.pacman.api.java.*;
+import java.awt.Point;
+
+/**
+ * GhostView over the game's Ghost. Adapters are reused from frame to frame,
+ * so wrapping the ghosts allocates nothing.
+ */
+public class GhostAdapter implements GhostView {
+
+    private Ghost ghost;
+
+    /**
+     * @param ghost
+     * @return this adapter, now reading the given ghost
+     */
+    public GhostAdapter wrap(Ghost ghost) {
+        this.ghost = ghost;
+        return this;
+    }
+
+    /**
+     * Point a set of adapters at this frame's ghosts.
+     *
+     * @param adapters - reused if they are the right length, may be null
+     * @param ghosts
+     * @return the adapters
+     */
+    public static GhostAdapter[] wrap(GhostAdapter[] adapters, Ghost[] ghosts) {
+        if (adapters == null || adapters.length != ghosts.length) {
+            adapters = new GhostAdapter[ghosts.length];
+            for (int i = 0; i < ghosts.length; i++) {
+                adapters[i] = new GhostAdapter();
+            }
+        }
+        for (int i = 0; i < ghosts.length; i++) {
+            adapters[i].wrap(ghosts[i]);
+        }
+        return adapters;
+    }
+
+    @Override
+    public Point getTile() {
+        return ghost.getTile();
+    }
+
+    @Override
+    public int getTileX() {
+        return ghost.getTileX();
+    }
+
+    @Override
+    public int getTileY() {
+        return ghost.getTileY();
+    }
+
+    @Override
+    public boolean isFrightened() {
+        return ghost.getState() == GhostState.FRIGHTEN;
+    }
+
+    @Override
+    public int framesTillRecover() {
+        return ghost.framesTillRecover();
+    }
+}
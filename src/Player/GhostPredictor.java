@@ -0,0 +1,479 @@
+package Player;
+
+import java.util.Arrays;
+
+/**
+ * Where each dangerous ghost is going over the next frames, by playing its
+ * own rules forward rather than assuming, as the ThreatField does, that it
+ * can take the shortest way to any tile: a ghost never turns back on its
+ * own, takes the way towards its scatter or chase target at every junction,
+ * and turns around when the waves change. Between junctions it has no choice,
+ * so a prediction follows the JunctionGraph's corridors a whole edge at a
+ * time and only works out the targets at its nodes.
+ *
+ * What the predictions add up to is kept as a bitboard of the tiles some
+ * ghost is on for every slice of SLICE_FRAMES frames up to the horizon, so
+ * checking a tile of Pacman's path is a few bit tests.
+ *
+ * Predictions carry over from frame to frame: while a ghost is where its
+ * prediction has it, the prediction is moved along and only its end is
+ * played further, and the choice at the next junction is checked against
+ * where Pacman is now. A ghost that went elsewhere is predicted anew.
+ * Frightened ghosts about to recover wander at random, so while there is one
+ * the predictor covers nothing and callers fall back on the ThreatField.
+ *
+ * Times are in the ThreatField's units, 1/ThreatField.TIME_SCALE seconds.
+ */
+public class GhostPredictor implements TileGate {
+
+    /**
+     * Frames per slice of the occupancy
+     */
+    static final int SLICE_FRAMES = 4;
+    private final TileGrid grid;
+    private final JunctionGraph junctions;
+    private final MazeDistances distances;
+    private final int words;
+    private final int horizon;
+    private final int sliceTime;
+    private final int ghostStepTime;
+    private final int pacStepTime;
+    private final int slack;
+    private final int dangerFrames;
+    // The tiles a ghost is predicted on, a bitboard for every slice
+    private final long[] occupancy;
+    // Per ghost: the tiles it is predicted to walk and the direction it
+    // enters each in, the one it is on at start
+    private final int[][] tiles;
+    private final int[][] dirs;
+    private final int[] start;
+    private final int[] end;
+    private final boolean[] predicted;
+    // Per ghost: the tile it was last seen on, since when, and the way it
+    // came in, -1 if it jumped or hasn't moved yet
+    private final int[] seen;
+    private final int[] seenSince;
+    private final int[] heading;
+    private int frame;
+    private int now;
+    private int waveFrame;
+    private boolean paused;
+    // Times of the wave changes just before and after now, -1 for none
+    private int lastChange;
+    private int nextChange;
+    private int pacTile;
+    private int pacDir;
+    // True if every dangerous ghost Pacman can meet is predicted
+    private boolean covered;
+    private long updates;
+    private long recomputes;
+
+    /**
+     * @param junctions - the maze's junction graph
+     * @param distances - the maze's distances
+     * @param ghosts - the number of ghosts
+     * @param pacSpeed - tiles per second of Pacman
+     * @param ghostSpeed - tiles per second of the ghosts
+     * @param margin - extra seconds a ghost must be away from Pacman's tiles
+     * @param dangerFrames - frightened ghosts recovering in fewer frames than
+     * this are dangerous
+     * @param frames - how far ahead to predict
+     */
+    public GhostPredictor(JunctionGraph junctions, MazeDistances distances, int ghosts,
+            double pacSpeed, double ghostSpeed, double margin, int dangerFrames, int frames) {
+        this.grid = junctions.getGrid();
+        this.junctions = junctions;
+        this.distances = distances;
+        this.words = (grid.size() + 63) >>> 6;
+        this.horizon = timeOf(frames);
+        this.sliceTime = timeOf(SLICE_FRAMES);
+        this.ghostStepTime = (int) Math.round(ThreatField.TIME_SCALE / ghostSpeed);
+        this.pacStepTime = (int) Math.round(ThreatField.TIME_SCALE / pacSpeed);
+        this.slack = (int) Math.round(margin * ThreatField.TIME_SCALE);
+        this.dangerFrames = dangerFrames;
+        this.occupancy = new long[(horizon / sliceTime + 1) * words];
+        int capacity = 2 * (horizon / ghostStepTime + 2);
+        this.tiles = new int[ghosts][capacity];
+        this.dirs = new int[ghosts][capacity];
+        this.start = new int[ghosts];
+        this.end = new int[ghosts];
+        this.predicted = new boolean[ghosts];
+        this.seen = new int[ghosts];
+        this.seenSince = new int[ghosts];
+        this.heading = new int[ghosts];
+        reset();
+    }
+
+    private static int timeOf(int frames) {
+        return (int) ((long) frames * ThreatField.TIME_SCALE / GhostRules.FPS);
+    }
+
+    private static int framesOf(int time) {
+        return (int) ((long) time * GhostRules.FPS / ThreatField.TIME_SCALE);
+    }
+
+    /**
+     * Forget the ghosts and start the waves over, as at the start of a life.
+     */
+    public final void reset() {
+        Arrays.fill(predicted, false);
+        Arrays.fill(seen, -1);
+        Arrays.fill(heading, -1);
+        frame = 0;
+        waveFrame = 0;
+        covered = false;
+    }
+
+    /**
+     * Bring the predictions up to date with where the ghosts are now. To be
+     * called once every frame, as it keeps count of the waves.
+     *
+     * @param ghosts
+     * @param pacTile - Pacman's tile id
+     * @param pacDir - Pacman's direction index
+     */
+    public void update(GhostView[] ghosts, int pacTile, int pacDir) {
+        frame++;
+        now = timeOf(frame);
+        paused = false;
+        for (GhostView ghost : ghosts) {
+            paused |= ghost.isFrightened();
+        }
+        if (!paused) {
+            // The waves pause while any ghost is frightened
+            waveFrame++;
+        }
+        int last = GhostRules.lastWaveChange(waveFrame);
+        int next = paused ? -1 : GhostRules.nextWaveChange(waveFrame);
+        lastChange = last < 0 ? -1 : now - timeOf(waveFrame - last);
+        nextChange = next < 0 ? -1 : now + timeOf(next - waveFrame);
+        this.pacTile = pacTile;
+        this.pacDir = pacDir;
+        covered = true;
+        for (int g = 0; g < ghosts.length; g++) {
+            GhostView ghost = ghosts[g];
+            int tile = grid.tileAt(ghost.getTileX(), ghost.getTileY());
+            see(g, tile);
+            if (ghost.isFrightened() && ghost.framesTillRecover() >= dangerFrames) {
+                predicted[g] = false;
+                continue;
+            }
+            if (ghost.isFrightened() || heading[g] < 0) {
+                predicted[g] = false;
+                // Shut in, e.g. in the house, it can't be met yet
+                if (pacTile >= 0 && distances.contains(tile)
+                        && distances.distance(pacTile, tile) != DistanceTable.UNREACHABLE) {
+                    covered = false;
+                }
+                continue;
+            }
+            updates++;
+            if (!predicted[g] || !follow(g, tile)) {
+                recomputes++;
+                start[g] = 0;
+                end[g] = 1;
+                tiles[g][0] = tile;
+                dirs[g][0] = heading[g];
+                predicted[g] = true;
+            } else {
+                recheck(g);
+            }
+            extend(g);
+        }
+        fill();
+    }
+
+    private void see(int g, int tile) {
+        if (tile == seen[g]) {
+            return;
+        }
+        heading[g] = seen[g] >= 0 ? grid.dirBetween(seen[g], tile) : -1;
+        seen[g] = tile;
+        seenSince[g] = now;
+    }
+
+    /**
+     * Move ghost g's prediction along to the tile it is on.
+     *
+     * @return false if the ghost isn't where it was predicted to be
+     */
+    private boolean follow(int g, int tile) {
+        int s = start[g];
+        if (tiles[g][s] == tile) {
+            return true;
+        }
+        if (s + 1 < end[g] && tiles[g][s + 1] == tile) {
+            start[g] = s + 1;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Check the choice at the first junction ahead of ghost g against
+     * Pacman's tile now, and cut the prediction there if it changed.
+     */
+    private void recheck(int g) {
+        int[] t = tiles[g];
+        int[] ds = dirs[g];
+        for (int k = start[g]; k + 1 < end[g]; k++) {
+            if (junctions.nodeOf(t[k]) < 0) {
+                continue;
+            }
+            // Turning back is the waves or a dead end, not a choice
+            if (ds[k + 1] != TileGrid.opposite(ds[k])
+                    && choose(g, t[k], ds[k], timeOf(g, k) + ghostStepTime) != ds[k + 1]) {
+                end[g] = k + 1;
+            }
+            return;
+        }
+    }
+
+    /**
+     * @return the time ghost g gets to the k-th tile of its prediction
+     */
+    private int timeOf(int g, int k) {
+        return seenSince[g] + (k - start[g]) * ghostStepTime;
+    }
+
+    /**
+     * @return true if the waves change between the two times, which turns
+     * the ghosts around on the move at the later one
+     */
+    private boolean reverses(int from, int to) {
+        return (lastChange >= 0 && from <= lastChange && lastChange < to)
+                || (nextChange >= 0 && from <= nextChange && nextChange < to);
+    }
+
+    /**
+     * Play ghost g's prediction on to the horizon.
+     */
+    private void extend(int g) {
+        int[] t = tiles[g];
+        int[] ds = dirs[g];
+        if (start[g] > t.length / 2) {
+            System.arraycopy(t, start[g], t, 0, end[g] - start[g]);
+            System.arraycopy(ds, start[g], ds, 0, end[g] - start[g]);
+            end[g] -= start[g];
+            start[g] = 0;
+        }
+        int until = now + horizon;
+        while (end[g] < t.length && timeOf(g, end[g] - 1) < until) {
+            int k = end[g] - 1;
+            int tile = t[k];
+            int moved = timeOf(g, k) + ghostStepTime;
+            int d;
+            if (reverses(timeOf(g, k), moved) && grid.neighbour(tile, TileGrid.opposite(ds[k])) >= 0) {
+                d = TileGrid.opposite(ds[k]);
+            } else {
+                d = choose(g, tile, ds[k], moved);
+            }
+            if (d < 0) {
+                break;
+            }
+            int next = grid.neighbour(tile, d);
+            int node = junctions.nodeOf(tile);
+            int edge = -1;
+            for (int e = node < 0 ? 0 : junctions.firstEdge(node); node >= 0 && e < junctions.endEdge(node); e++) {
+                if (junctions.edgeTile(e, 0) == next) {
+                    edge = e;
+                }
+            }
+            if (edge < 0) {
+                t[end[g]] = next;
+                ds[end[g]] = d;
+                end[g]++;
+                continue;
+            }
+            // No choices along the corridor: take it whole, up to the horizon
+            // or a wave change
+            int prev = tile;
+            for (int i = 0; i < junctions.edgeLength(edge) && end[g] < t.length; i++) {
+                int j = end[g];
+                if (i > 0 && (timeOf(g, j - 1) >= until
+                        || reverses(timeOf(g, j - 1), timeOf(g, j)))) {
+                    break;
+                }
+                t[j] = junctions.edgeTile(edge, i);
+                ds[j] = grid.dirBetween(prev, t[j]);
+                prev = t[j];
+                end[g]++;
+            }
+        }
+    }
+
+    /**
+     * The arcade choice, as SimGhost makes it: of the ways on other than
+     * back, the one whose next tile is closest to the target, ties broken in
+     * GhostRules.PREFERENCE order; back only at a dead end.
+     *
+     * @param g - the ghost
+     * @param tile - where it is
+     * @param dir - the direction it came in
+     * @param time - when it moves on
+     * @return the direction index it leaves in, -1 if it can't move
+     */
+    private int choose(int g, int tile, int dir, int time) {
+        int wave = paused ? waveFrame : waveFrame + Math.max(0, framesOf(time - now));
+        int target = GhostRules.isScatter(wave) ? GhostRules.scatterTarget(grid, g)
+                : GhostRules.chaseTarget(grid, g, tile, pacTile, pacDir,
+                        seen[0] >= 0 ? seen[0] : tile);
+        int targetX = grid.xOf(target);
+        int targetY = grid.yOf(target);
+        int back = TileGrid.opposite(dir);
+        int best = -1;
+        long bestDistance = Long.MAX_VALUE;
+        for (int d : GhostRules.PREFERENCE) {
+            int next = grid.neighbour(tile, d);
+            if (d == back || next < 0) {
+                continue;
+            }
+            long dx = grid.xOf(next) - targetX;
+            long dy = grid.yOf(next) - targetY;
+            if (dx * dx + dy * dy < bestDistance) {
+                best = d;
+                bestDistance = dx * dx + dy * dy;
+            }
+        }
+        if (best < 0 && grid.neighbour(tile, back) >= 0) {
+            best = back;
+        }
+        return best;
+    }
+
+    /**
+     * Rebuild the occupancy from the predictions.
+     */
+    private void fill() {
+        Arrays.fill(occupancy, 0L);
+        for (int g = 0; g < predicted.length; g++) {
+            if (!predicted[g]) {
+                continue;
+            }
+            for (int k = start[g]; k < end[g]; k++) {
+                int from = timeOf(g, k) - now;
+                if (from >= horizon) {
+                    break;
+                }
+                // The tile it is on counts from now even if it is overdue to
+                // leave, and the last one it is predicted on to the horizon
+                int to = k + 1 < end[g] ? from + ghostStepTime : horizon;
+                from = Math.max(0, from);
+                to = Math.min(horizon, Math.max(to, from + 1));
+                int tile = tiles[g][k];
+                for (int s = from / sliceTime; s <= (to - 1) / sliceTime; s++) {
+                    occupancy[s * words + (tile >>> 6)] |= 1L << tile;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param tile
+     * @param frames - frames from now
+     * @return true if a ghost is predicted on the tile then, to within a
+     * slice; false also beyond the horizon
+     */
+    public boolean isOccupied(int tile, int frames) {
+        int time = timeOf(frames);
+        return time < horizon
+                && (occupancy[time / sliceTime * words + (tile >>> 6)] & (1L << tile)) != 0;
+    }
+
+    /**
+     * @param tile
+     * @param depth - steps Pacman needs to get to the tile
+     * @return true if no predicted ghost is on the tile while Pacman is, with
+     * the margin to spare either side; false if that runs past the horizon
+     */
+    private boolean isClear(int tile, int depth) {
+        int from = Math.max(0, depth * pacStepTime - slack);
+        int to = (depth + 1) * pacStepTime + slack;
+        if (to > horizon) {
+            return false;
+        }
+        int word = tile >>> 6;
+        long bit = 1L << tile;
+        for (int s = from / sliceTime; s <= (to - 1) / sliceTime; s++) {
+            if ((occupancy[s * words + word] & bit) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Pacman may enter a tile if every ghost he could meet is predicted and
+     * none of them is going to be there while he is.
+     *
+     * @param tile
+     * @param depth - steps Pacman needs to get to the tile
+     * @return true if the tile is clear at that time
+     */
+    @Override
+    public boolean allows(int tile, int depth) {
+        return covered && isClear(tile, depth);
+    }
+
+    /**
+     * @param gate - e.g. the ThreatField
+     * @return a gate letting Pacman through wherever the given one does, and
+     * also where no ghost is predicted to be
+     */
+    public TileGate relax(final TileGate gate) {
+        return new TileGate() {
+            @Override
+            public boolean allows(int tile, int depth) {
+                return gate.allows(tile, depth) || GhostPredictor.this.allows(tile, depth);
+            }
+        };
+    }
+
+    /**
+     * Check the part of a route within the horizon against the predictions;
+     * the rest is checked again on later frames.
+     *
+     * @param route - tile ids
+     * @param from - the first tile still ahead of Pacman
+     * @param to - the end of the route (exclusive)
+     * @return true if the predictions cover the ghosts and none of them is
+     * going to cut the route
+     */
+    public boolean isSafe(int[] route, int from, int to) {
+        if (!covered) {
+            return false;
+        }
+        for (int i = from; i < to; i++) {
+            int depth = i - from + 1;
+            if ((depth + 1) * pacStepTime + slack > horizon) {
+                break;
+            }
+            if (!isClear(route[i], depth)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if every dangerous ghost Pacman can meet was predicted
+     * this frame
+     */
+    public boolean isCovered() {
+        return covered;
+    }
+
+    /**
+     * @return ghost frames predicted so far, carried over or anew
+     */
+    public long getUpdates() {
+        return updates;
+    }
+
+    /**
+     * @return ghost frames whose prediction was made anew
+     */
+    public long getRecomputes() {
+        return recomputes;
+    }
+}
@@ -0,0 +1,201 @@
+package Player;
+
+import com.orbischallenge.pacman.api.common.*;
+
+/**
+ * The arcade rules the ghosts follow, shared by the simulator and the
+ * lookahead GameState so both play the same game: scatter and chase waves,
+ * each ghost's target tile, how long a fright lasts and the order ties are
+ * broken in; and what the rules go by besides, the ghosts' modes, the points
+ * for what Pacman eats and the maze items the player's API doesn't name.
+ */
+public final class GhostRules {
+
+    public static final int FPS = 60;
+    // Ghost modes
+    public static final int IN_HOUSE = 0;
+    public static final int ACTIVE = 1;
+    public static final int FRIGHTENED = 2;
+    // Points for a dot, a power dot and the first ghost of a fright, which
+    // doubles for each ghost after it up to the fourth
+    public static final int DOT_POINTS = 10;
+    public static final int POWER_POINTS = 50;
+    public static final int GHOST_POINTS = 200;
+    /**
+     * The power dot, found among the game's MazeItem values by name; null if
+     * the game has none
+     */
+    public static final MazeItem POWER = findPower();
+    /**
+     * The item of a tile with nothing on it, found among the game's MazeItem
+     * values; never a dot or a power dot
+     */
+    public static final MazeItem EMPTY = findEmpty();
+    // Seconds of scatter and chase, in turns, until chase for good
+    private static final int[] WAVES = {7, 20, 7, 20, 5, 20, 5};
+    /**
+     * Order the arcade game breaks ties in: up, left, down, right
+     */
+    static final int[] PREFERENCE = {2, 0, 3, 1};
+    /**
+     * Seconds before each ghost leaves the house at the start of a life
+     */
+    static final int[] RELEASE = {0, 1, 4, 7};
+    /**
+     * Seconds an eaten ghost stays in the house
+     */
+    static final int EATEN_RELEASE = 2;
+
+    private GhostRules() {
+    }
+
+    private static MazeItem findPower() {
+        for (MazeItem item : MazeItem.values()) {
+            if (item.name().contains("POWER")) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    private static MazeItem findEmpty() {
+        for (MazeItem item : MazeItem.values()) {
+            if (item.name().equals("EMPTY")) {
+                return item;
+            }
+        }
+        // Else the one passable item that isn't eaten
+        for (MazeItem item : MazeItem.values()) {
+            if (TileGrid.isPassable(item) && item != MazeItem.DOT && item != POWER) {
+                return item;
+            }
+        }
+        throw new IllegalStateException("no empty maze item");
+    }
+
+    /**
+     * @param level - starting at 1
+     * @return frames a fright lasts on the level
+     */
+    public static int frightFrames(int level) {
+        return Math.max(1, 7 - level) * FPS;
+    }
+
+    /**
+     * @param frame - frames into the waves
+     * @return true if the ghosts turn around on this frame
+     */
+    public static boolean isWaveChange(int frame) {
+        int end = 0;
+        for (int seconds : WAVES) {
+            end += seconds * FPS;
+            if (frame == end) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param frame - frames into the waves
+     * @return frames into the waves of the first change after the given
+     * frame, -1 once the ghosts chase for good
+     */
+    public static int nextWaveChange(int frame) {
+        int end = 0;
+        for (int seconds : WAVES) {
+            end += seconds * FPS;
+            if (end > frame) {
+                return end;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param frame - frames into the waves
+     * @return frames into the waves of the last change at or before the
+     * given frame, -1 if there was none
+     */
+    public static int lastWaveChange(int frame) {
+        int end = 0;
+        int last = -1;
+        for (int seconds : WAVES) {
+            end += seconds * FPS;
+            if (end > frame) {
+                break;
+            }
+            last = end;
+        }
+        return last;
+    }
+
+    /**
+     * @param frame - frames into the waves
+     * @return true while the ghosts scatter to their corners
+     */
+    public static boolean isScatter(int frame) {
+        int end = 0;
+        for (int i = 0; i < WAVES.length; i++) {
+            end += WAVES[i] * FPS;
+            if (frame < end) {
+                return i % 2 == 0;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param grid
+     * @param number - 0 to 3 for Blinky, Pinky, Inky and Clyde
+     * @return the tile at the ghost's corner of the maze
+     */
+    public static int scatterTarget(TileGrid grid, int number) {
+        int x = number % 2 == 0 ? grid.getWidth() - 1 : 0;
+        int y = number < 2 ? 0 : grid.getHeight() - 1;
+        return grid.tileAt(x, y);
+    }
+
+    /**
+     * The arcade targets: Blinky goes for Pacman, Pinky for four tiles ahead
+     * of him, Inky for the point opposite Blinky across two tiles ahead of
+     * Pacman, and Clyde for Pacman until he is within eight tiles.
+     *
+     * @param grid
+     * @param number - 0 to 3 for Blinky, Pinky, Inky and Clyde
+     * @param ghost - the ghost's tile
+     * @param pac - Pacman's tile
+     * @param pacDir - Pacman's direction index
+     * @param blinky - Blinky's tile
+     * @return the tile the ghost heads for
+     */
+    public static int chaseTarget(TileGrid grid, int number, int ghost, int pac,
+            int pacDir, int blinky) {
+        int px = grid.xOf(pac);
+        int py = grid.yOf(pac);
+        int x = px;
+        int y = py;
+        switch (number) {
+            case 1:
+                x = px + 4 * TileGrid.DX[pacDir];
+                y = py + 4 * TileGrid.DY[pacDir];
+                break;
+            case 2:
+                x = 2 * (px + 2 * TileGrid.DX[pacDir]) - grid.xOf(blinky);
+                y = 2 * (py + 2 * TileGrid.DY[pacDir]) - grid.yOf(blinky);
+                break;
+            case 3:
+                int dx = grid.xOf(ghost) - px;
+                int dy = grid.yOf(ghost) - py;
+                if (dx * dx + dy * dy < 64) {
+                    return scatterTarget(grid, number);
+                }
+                break;
+            default:
+                break;
+        }
+        x = Math.max(0, Math.min(grid.getWidth() - 1, x));
+        y = Math.max(0, Math.min(grid.getHeight() - 1, y));
+        return grid.tileAt(x, y);
+    }
+}
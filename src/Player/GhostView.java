@@ -0,0 +1,26 @@
+package Player;
+
+import java.awt.Point;
+
+/**
+ * The part of the game's Ghost the player reads. Implemented by
+ * GhostAdapter for the real game and by SimGhost for headless runs.
+ */
+public interface GhostView {
+
+    Point getTile();
+
+    int getTileX();
+
+    int getTileY();
+
+    /**
+     * @return true if the ghost is in the FRIGHTEN state
+     */
+    boolean isFrightened();
+
+    /**
+     * @return frames until a frightened ghost recovers
+     */
+    int framesTillRecover();
+}
@@ -0,0 +1,216 @@
+package Player;
+
+import java.util.Arrays;
+
+/**
+ * The order to catch the frightened ghosts in. Each ghost has a deadline,
+ * the frames until it recovers, and catching a ghost takes Pacman as long as
+ * the maze distance from where he is (the first ghost) or from the last ghost
+ * caught. The planner finds the order that catches the most ghosts before
+ * their deadlines, and of those the quickest, by dynamic programming over
+ * subsets: for every set of ghosts and every last ghost of it, the earliest
+ * time all of them can be caught. With four ghosts that is 64 states.
+ *
+ * Ghosts are taken to stay where they are, as a frightened ghost wanders at
+ * random and at half speed. Distances come from the DistanceTable. Between
+ * solves only the distances of Pacman and the ghosts that moved are looked
+ * up again, and a solve is skipped while nobody moved and the last order
+ * still meets every deadline.
+ *
+ * A HuntPlanner holds scratch state and must not be shared between threads.
+ */
+public class HuntPlanner {
+
+    private static final int NONE = -1;
+    private final MazeDistances distances;
+    private final int maxGhosts;
+    // Tiles of Pacman (slot 0) and the ghosts (slot g + 1) of the last
+    // solve, and the steps between every two of them
+    private final int[] tiles;
+    private final int[] steps;
+    private int ghosts;
+    // Earliest frame every set of ghosts can be caught by, ending with each
+    // ghost, at [mask * maxGhosts + last]; and the ghost caught before last
+    private final int[] time;
+    private final int[] before;
+    // The best order found, and when each of its ghosts is caught
+    private final int[] order;
+    private final int[] catchTime;
+    private int captures;
+    private long solves;
+    private long reused;
+
+    /**
+     * @param distances - the maze's distances
+     * @param maxGhosts - the most ghosts solve is given; at most 16
+     */
+    public HuntPlanner(MazeDistances distances, int maxGhosts) {
+        this.distances = distances;
+        this.maxGhosts = maxGhosts;
+        this.tiles = new int[maxGhosts + 1];
+        this.steps = new int[(maxGhosts + 1) * (maxGhosts + 1)];
+        this.time = new int[(1 << maxGhosts) * maxGhosts];
+        this.before = new int[(1 << maxGhosts) * maxGhosts];
+        this.order = new int[maxGhosts];
+        this.catchTime = new int[maxGhosts];
+        Arrays.fill(tiles, NONE);
+    }
+
+    /**
+     * Plan the hunt.
+     *
+     * @param pacTile
+     * @param ghostTiles - the frightened ghosts worth catching
+     * @param deadlines - frames each of them has left to be caught in
+     * @param n - how many ghosts are given
+     * @param framesPerTile - frames Pacman needs per tile
+     * @return the ghost to catch first, an index into ghostTiles; -1 if none
+     * can be caught in time
+     */
+    public int solve(int pacTile, int[] ghostTiles, int[] deadlines, int n,
+            double framesPerTile) {
+        boolean moved = n != ghosts;
+        moved |= update(0, pacTile);
+        for (int g = 0; g < n; g++) {
+            moved |= update(g + 1, ghostTiles[g]);
+        }
+        ghosts = n;
+        if (!moved && stillInTime(deadlines)) {
+            reused++;
+            return captures > 0 ? order[0] : NONE;
+        }
+        solves++;
+        int full = 1 << n;
+        Arrays.fill(time, 0, full * maxGhosts, Integer.MAX_VALUE);
+        int bestMask = 0;
+        int bestLast = NONE;
+        for (int g = 0; g < n; g++) {
+            int t = frames(steps[g + 1], framesPerTile);
+            if (t <= deadlines[g]) {
+                time[(1 << g) * maxGhosts + g] = t;
+                before[(1 << g) * maxGhosts + g] = NONE;
+            }
+        }
+        // Sets in increasing order, so every subset is done before its
+        // supersets
+        for (int mask = 1; mask < full; mask++) {
+            for (int last = 0; last < n; last++) {
+                int t = time[mask * maxGhosts + last];
+                if (t == Integer.MAX_VALUE) {
+                    continue;
+                }
+                if (isBetter(mask, last, bestMask, bestLast)) {
+                    bestMask = mask;
+                    bestLast = last;
+                }
+                for (int next = 0; next < n; next++) {
+                    if ((mask & (1 << next)) != 0) {
+                        continue;
+                    }
+                    int leg = frames(steps[(last + 1) * (maxGhosts + 1) + next + 1], framesPerTile);
+                    if (leg == Integer.MAX_VALUE || t + leg > deadlines[next]) {
+                        continue;
+                    }
+                    int slot = (mask | (1 << next)) * maxGhosts + next;
+                    if (t + leg < time[slot]) {
+                        time[slot] = t + leg;
+                        before[slot] = last;
+                    }
+                }
+            }
+        }
+        // Walk back from the best end to the first ghost
+        captures = Integer.bitCount(bestMask);
+        int mask = bestMask;
+        for (int i = captures - 1, last = bestLast; i >= 0; i--) {
+            order[i] = last;
+            catchTime[i] = time[mask * maxGhosts + last];
+            int prev = before[mask * maxGhosts + last];
+            mask &= ~(1 << last);
+            last = prev;
+        }
+        return captures > 0 ? order[0] : NONE;
+    }
+
+    /**
+     * @return true if catching every ghost of mask ending with last beats
+     * the best so far: more ghosts, or as many sooner
+     */
+    private boolean isBetter(int mask, int last, int bestMask, int bestLast) {
+        int count = Integer.bitCount(mask);
+        int bestCount = Integer.bitCount(bestMask);
+        if (count != bestCount) {
+            return count > bestCount;
+        }
+        return bestLast == NONE
+                || time[mask * maxGhosts + last] < time[bestMask * maxGhosts + bestLast];
+    }
+
+    /**
+     * Put a tile in a slot, looking its distances up again if it changed.
+     *
+     * @return true if it changed
+     */
+    private boolean update(int slot, int tile) {
+        if (tiles[slot] == tile) {
+            return false;
+        }
+        tiles[slot] = tile;
+        for (int other = 0; other <= maxGhosts; other++) {
+            int d = tiles[other] == NONE ? DistanceTable.UNREACHABLE
+                    : distances.distance(tile, tiles[other]);
+            steps[slot * (maxGhosts + 1) + other] = d;
+            steps[other * (maxGhosts + 1) + slot] = d;
+        }
+        return true;
+    }
+
+    private static int frames(int steps, double framesPerTile) {
+        if (steps == DistanceTable.UNREACHABLE) {
+            return Integer.MAX_VALUE;
+        }
+        return (int) Math.ceil(steps * framesPerTile);
+    }
+
+    /**
+     * @return true if the last order still catches every ghost of it in
+     * time, with deadlines that went down since
+     */
+    private boolean stillInTime(int[] deadlines) {
+        for (int i = 0; i < captures; i++) {
+            if (catchTime[i] > deadlines[order[i]]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of ghosts the last plan catches
+     */
+    public int getCaptures() {
+        return captures;
+    }
+
+    /**
+     * @param i - position in the order
+     * @return the index of the i-th ghost to catch
+     */
+    public int getOrder(int i) {
+        return order[i];
+    }
+
+    /**
+     * @return hunts solved from scratch
+     */
+    public long getSolves() {
+        return solves;
+    }
+
+    /**
+     * @return hunts answered with the last order, as nothing moved
+     */
+    public long getReused() {
+        return reused;
+    }
+}
@@ -0,0 +1,194 @@
+package Player;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The maze compressed to its nodes (intersections and dead ends) and the
+ * corridors between them. Every corridor is stored as a directed, weighted
+ * edge in each direction, with its length and the tiles along it, in flat
+ * int arrays grouped by the node they leave from.
+ *
+ * A JunctionGraph never changes after it is built and can be shared freely.
+ */
+public class JunctionGraph {
+
+    private final TileGrid grid;
+    private final int nodeCount;
+    // Node id -> tile id, and tile id -> node id (-1 if not a node)
+    private final int[] nodeTile;
+    private final int[] nodeOf;
+    private final int edgeCount;
+    private final int[] edgeFrom;
+    private final int[] edgeTo;
+    private final int[] edgeLength;
+    // Tiles of edge e are edgeTiles[edgeStart[e]] .. edgeTiles[edgeStart[e] +
+    // edgeLength[e] - 1], from the from-node (exclusive) to the to-node
+    // (inclusive)
+    private final int[] edgeStart;
+    private final int[] edgeTiles;
+    // Edges leaving node n are firstEdge[n] .. firstEdge[n + 1] - 1
+    private final int[] firstEdge;
+
+    public JunctionGraph(TileGrid grid) {
+        this.grid = grid;
+        this.nodeOf = new int[grid.size()];
+        Arrays.fill(nodeOf, -1);
+        int nodes = 0;
+        for (int tile = 0; tile < grid.size(); tile++) {
+            if (grid.isNode(tile)) {
+                nodeOf[tile] = nodes++;
+            }
+        }
+        this.nodeCount = nodes;
+        this.nodeTile = new int[nodes];
+        for (int tile = 0; tile < grid.size(); tile++) {
+            if (nodeOf[tile] >= 0) {
+                nodeTile[nodeOf[tile]] = tile;
+            }
+        }
+        int[] from = new int[nodes * TileGrid.DIRS];
+        int[] to = new int[nodes * TileGrid.DIRS];
+        int[] length = new int[nodes * TileGrid.DIRS];
+        int[] start = new int[nodes * TileGrid.DIRS];
+        int[] tiles = new int[grid.size()];
+        int[] buffer = new int[grid.size()];
+        this.firstEdge = new int[nodes + 1];
+        int edges = 0;
+        int used = 0;
+        for (int n = 0; n < nodes; n++) {
+            firstEdge[n] = edges;
+            for (int d = 0; d < TileGrid.DIRS; d++) {
+                int steps = grid.walkToNode(nodeTile[n], d, buffer);
+                // Corridors that end without a node (e.g. the tunnel) can't
+                // be part of a route
+                if (steps == 0 || nodeOf[buffer[steps - 1]] < 0) {
+                    continue;
+                }
+                if (used + steps > tiles.length) {
+                    tiles = Arrays.copyOf(tiles, Math.max(tiles.length * 2, used + steps));
+                }
+                System.arraycopy(buffer, 0, tiles, used, steps);
+                from[edges] = n;
+                to[edges] = nodeOf[buffer[steps - 1]];
+                length[edges] = steps;
+                start[edges] = used;
+                used += steps;
+                edges++;
+            }
+        }
+        firstEdge[nodes] = edges;
+        this.edgeCount = edges;
+        this.edgeFrom = Arrays.copyOf(from, edges);
+        this.edgeTo = Arrays.copyOf(to, edges);
+        this.edgeLength = Arrays.copyOf(length, edges);
+        this.edgeStart = Arrays.copyOf(start, edges);
+        this.edgeTiles = Arrays.copyOf(tiles, used);
+    }
+
+    /**
+     * Read a graph written by write, for the given grid.
+     *
+     * @param grid
+     * @param in - positioned at the graph; left after it
+     */
+    JunctionGraph(TileGrid grid, ByteBuffer in) {
+        this.grid = grid;
+        this.nodeTile = TableCache.readInts(in);
+        this.nodeOf = TableCache.readInts(in);
+        this.edgeFrom = TableCache.readInts(in);
+        this.edgeTo = TableCache.readInts(in);
+        this.edgeLength = TableCache.readInts(in);
+        this.edgeStart = TableCache.readInts(in);
+        this.edgeTiles = TableCache.readInts(in);
+        this.firstEdge = TableCache.readInts(in);
+        this.nodeCount = nodeTile.length;
+        this.edgeCount = edgeFrom.length;
+        if (nodeOf.length != grid.size() || firstEdge.length != nodeCount + 1) {
+            throw new IllegalArgumentException("junction graph is for another maze");
+        }
+    }
+
+    /**
+     * @param out - receives the graph, in the form the reading constructor
+     * takes
+     * @throws IOException
+     */
+    void write(DataOutput out) throws IOException {
+        TableCache.writeInts(out, nodeTile);
+        TableCache.writeInts(out, nodeOf);
+        TableCache.writeInts(out, edgeFrom);
+        TableCache.writeInts(out, edgeTo);
+        TableCache.writeInts(out, edgeLength);
+        TableCache.writeInts(out, edgeStart);
+        TableCache.writeInts(out, edgeTiles);
+        TableCache.writeInts(out, firstEdge);
+    }
+
+    public TileGrid getGrid() {
+        return grid;
+    }
+
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    public int edgeCount() {
+        return edgeCount;
+    }
+
+    /**
+     * @param tile
+     * @return the node id of the tile, -1 if the tile isn't a node
+     */
+    public int nodeOf(int tile) {
+        return tile >= 0 ? nodeOf[tile] : -1;
+    }
+
+    public int nodeTile(int node) {
+        return nodeTile[node];
+    }
+
+    /**
+     * @param node
+     * @return the first edge leaving the node
+     */
+    public int firstEdge(int node) {
+        return firstEdge[node];
+    }
+
+    /**
+     * @param node
+     * @return one past the last edge leaving the node
+     */
+    public int endEdge(int node) {
+        return firstEdge[node + 1];
+    }
+
+    public int edgeFrom(int edge) {
+        return edgeFrom[edge];
+    }
+
+    public int edgeTo(int edge) {
+        return edgeTo[edge];
+    }
+
+    /**
+     * @param edge
+     * @return the number of steps along the edge
+     */
+    public int edgeLength(int edge) {
+        return edgeLength[edge];
+    }
+
+    /**
+     * @param edge
+     * @param i - step along the edge, 0 for the tile after the from-node
+     * @return the tile id
+     */
+    public int edgeTile(int edge, int i) {
+        return edgeTiles[edgeStart[edge] + i];
+    }
+}
@@ -0,0 +1,26 @@
+package Player;
+
+import com.orbischallenge.pacman.api.common.*;
+import com.orbischallenge.pacman.api.java.*;
+
+/**
+ * MazeView over the game's Maze.
+ */
+public class MazeAdapter implements MazeView {
+
+    private Maze maze;
+
+    /**
+     * @param maze
+     * @return this adapter, now reading the given maze
+     */
+    public MazeAdapter wrap(Maze maze) {
+        this.maze = maze;
+        return this;
+    }
+
+    @Override
+    public MazeItem[][] toMatrix() {
+        return maze.toMatrix();
+    }
+}
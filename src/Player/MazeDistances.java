@@ -0,0 +1,42 @@
+package Player;
+
+/**
+ * Shortest distances, first moves and paths between the walkable tiles of a
+ * maze. A DistanceTable answers from all-pairs tables; mazes too large for
+ * those get a ClusterGraph, which searches an abstract graph of clusters of
+ * tiles instead. Distances are DistanceTable.UNREACHABLE and first moves
+ * DistanceTable.NO_MOVE where there is no way.
+ */
+public interface MazeDistances {
+
+    /**
+     * @param tile
+     * @return true if the tile is walkable and so covered
+     */
+    boolean contains(int tile);
+
+    /**
+     * @param from - tile id of the start
+     * @param to - tile id of the goal
+     * @return the number of steps from one tile to the other, or UNREACHABLE
+     */
+    int distance(int from, int to);
+
+    /**
+     * @param from - tile id of the start
+     * @param to - tile id of the goal
+     * @return direction index of the first step of a shortest path, or
+     * NO_MOVE if the tiles are equal or cannot reach each other
+     */
+    int firstMove(int from, int to);
+
+    /**
+     * @param from - tile id of the start
+     * @param to - tile id of the goal
+     * @param out - receives the tile ids of a shortest path from start
+     * (exclusive) to goal (inclusive)
+     * @return the number of tiles in the path, 0 if start is the goal or the
+     * goal cannot be reached
+     */
+    int path(int from, int to, int[] out);
+}
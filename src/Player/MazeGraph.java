@@ -10,58 +10,182 @@ import java.util.Map;
 import com.orbischallenge.pacman.api.common.*;
 import com.orbischallenge.pacman.api.java.*;
 import java.util.Collections;
-import java.util.LinkedList;
-import java.util.Queue;
 
 /**
- * A graph representation of the maze. Important: the methods are not optimized
- * for best performance. If your AI is likely to do heavy calculation, consider
- * improving some of the methods below. You are welcome to supply your own
- * methods or classes.
+ * A graph representation of the maze. The methods keep the starter code's
+ * signatures but answer from precomputed tables: distances and first moves
+ * come from the MazeDistances, shortest paths are walked along them, the
+ * k-path search runs A* and Yen's algorithm over the JunctionGraph,
+ * findTargets is a gated breadth first search on reused scratch, and the dots
+ * are a DotIndex kept up to date from Pacman's moves. The variants taking
+ * tile ids fill the caller's buffers and allocate nothing.
+ *
+ * Everything that depends only on the layout lives in the MazeTables, which
+ * any number of graphs share. A graph adds the dots of its game and the
+ * scratch of its searches, so it belongs to one game and one thread at a
+ * time.
  */
 public class MazeGraph {
 
-    private Maze maze;
-    // All the possible path from any start point to any end point
+    // The nodes and weighted corridors between them, from the shared tables,
+    // and this graph's own search over them, made on the first getPaths
+    private JunctionGraph junctions;
+    private RouteFinder routes;
+    // Most paths getPaths returns
+    private static final int PATH_LIMIT = 8;
+    // The layout's tables, shared with other graphs of the same maze
+    private MazeTables tables;
+    // Tile ids, walkability and neighbours of the maze
+    private TileGrid grid;
+    // Shortest distances and first moves between every pair of tiles
+    private MazeDistances distances;
+    // Scratch search and tile buffer, reused by every query
+    private TileSearch search;
+    private int[] pathBuffer;
+    // The corners, and every node to its neighbours and the paths there,
+    // made on the first getGraph; this graph's own, as callers may change
+    // the Points
+    private List<Point> corners;
     private Map<Point, Map<Point, List<Point>>> graph;
+    // Corridor segments and the dots left in them
+    private CorridorMap corridors;
+    private DotIndex dots;
+    // Frames since the dot index was last checked against the maze
+    private int dotFrames;
+    private static final int DOT_RESYNC_FRAMES = 64;
 
     public MazeGraph(Maze maze) {
-        this.maze = maze;
-        makeGraph();
+        this(TableCache.getDefault().load(new TileGrid(maze)), maze.toMatrix());
     }
 
-    public Map<Point, Map<Point, List<Point>>> getGraph() {
-        return graph;
+    /**
+     * Build the graph of a maze given as a matrix, e.g. in the simulator.
+     *
+     * @param grid - tiles of the maze
+     * @param matrix - the maze items, indexed [y][x], to read the dots from
+     */
+    public MazeGraph(TileGrid grid, MazeItem[][] matrix) {
+        this(new MazeTables(grid), matrix);
+    }
+
+    /**
+     * Build the graph on tables shared with other graphs of the same layout.
+     * Only the dot index and search scratch are created, in proportion to the
+     * number of tiles.
+     *
+     * @param tables - precomputed tables of the layout
+     * @param matrix - the maze items, indexed [y][x], to read the dots from
+     */
+    public MazeGraph(MazeTables tables, MazeItem[][] matrix) {
+        this.tables = tables;
+        this.grid = tables.getGrid();
+        this.distances = tables.getDistances();
+        this.search = new TileSearch(grid);
+        this.pathBuffer = new int[grid.size()];
+        this.corridors = tables.getCorridors();
+        this.dots = new DotIndex(corridors, distances, matrix);
+        this.junctions = tables.getJunctions();
+        this.corners = new ArrayList<Point>(4);
+        for (int corner : tables.getCorners()) {
+            this.corners.add(grid.toPoint(corner));
+        }
+    }
+
+    public MazeTables getTables() {
+        return tables;
+    }
+
+    public TileGrid getGrid() {
+        return grid;
+    }
+
+    public MazeDistances getDistances() {
+        return distances;
+    }
+
+    public JunctionGraph getJunctions() {
+        return junctions;
+    }
+
+    public CorridorMap getCorridors() {
+        return corridors;
+    }
+
+    public DotIndex getDots() {
+        return dots;
+    }
+
+    /**
+     * @return the search behind findTargets and the fallback paths
+     */
+    public TileSearch getSearch() {
+        return search;
+    }
+
+    /**
+     * Bring the dot index up to date. Call once per frame; the maze matrix is
+     * only read every DOT_RESYNC_FRAMES frames as a safety net.
+     *
+     * @param maze
+     * @param pacTile - the tile Pacman is on
+     */
+    public void updateDots(MazeView maze, Point pacTile) {
+        dots.onPacTile(grid.tileAt(pacTile.x, pacTile.y));
+        if (++dotFrames >= DOT_RESYNC_FRAMES) {
+            dotFrames = 0;
+            dots.resync(maze.toMatrix());
+        }
     }
 
     /**
-     * Construct a graph representation of the maze.
+     * Rebuild the dot index from the maze, e.g. after planning on a guessed
+     * future maze whose dots Pacman may not actually eat.
      *
-     * @return
+     * @param maze
      */
-    private void makeGraph() {
-        this.graph = new HashMap<Point, Map<Point, List<Point>>>();
-        for (int j = 0; j < maze.getHeight(); j++) {
-            for (int i = 0; i < maze.getWidth(); i++) {
-                Point node = new Point(i, j);
-                // It's a node if the tile is an intersection or a dead end
-                if (maze.isIntersection(node) || maze.isDeadEnd(node)) {
-                    Map<Point, List<Point>> connected = new HashMap<Point, List<Point>>();
-                    for (MoveDir dir : MoveDir.values()) {
-                        List<Point> path = getPathToNextNode(node, dir);
-                        if (path.size() > 0) {
-                            // Get the end node, which is the nearest node of
-                            // this one
-                            Point endNode = path.get(path.size() - 1);
-                            // Put in the end node and the path leading to it
-                            connected.put(endNode, path);
-                        }
+    public void reloadDots(MazeView maze) {
+        dotFrames = 0;
+        dots.reload(maze.toMatrix());
+    }
+
+    /**
+     * @param tile
+     * @return the number of dots left in the corridor segment of the tile
+     */
+    public int getDotsInSegment(Point tile) {
+        return dots.dotsInSegment(corridors.segmentOf(grid.tileAt(tile.x, tile.y)));
+    }
+
+    /**
+     * @param start
+     * @return the dot closest to start by maze distance, null if no dot can
+     * be reached
+     */
+    public Point getNearestDot(Point start) {
+        int dot = dots.nearestDot(grid.tileAt(start.x, start.y));
+        return dot < 0 ? null : grid.toPoint(dot);
+    }
+
+    /**
+     * @return every node to the nodes next to it and the paths there, from
+     * the node (exclusive) to the next (inclusive)
+     */
+    public Map<Point, Map<Point, List<Point>>> getGraph() {
+        if (graph == null) {
+            graph = new HashMap<Point, Map<Point, List<Point>>>();
+            for (int n = 0; n < junctions.nodeCount(); n++) {
+                Map<Point, List<Point>> connected = new HashMap<Point, List<Point>>();
+                for (int e = junctions.firstEdge(n); e < junctions.endEdge(n); e++) {
+                    List<Point> path = new ArrayList<Point>(junctions.edgeLength(e));
+                    for (int i = 0; i < junctions.edgeLength(e); i++) {
+                        path.add(grid.toPoint(junctions.edgeTile(e, i)));
                     }
-                    // Put in this node and its connected node->path maps
-                    graph.put(node, connected);
+                    connected.put(grid.toPoint(junctions.nodeTile(junctions.edgeTo(e))), path);
                 }
+                graph.put(grid.toPoint(junctions.nodeTile(n)), connected);
             }
         }
+        return graph;
     }
 
     /**
@@ -74,117 +198,75 @@ public class MazeGraph {
      * the given direction
      */
     public List<Point> getPathToNextNode(Point tile, MoveDir dir) {
-        ArrayList<Point> path = new ArrayList<Point>();
-        Point dirVector = JUtil.getVector(dir);
-        Point currTile;
-        Point nextTile = JUtil.vectorAdd(tile, dirVector);
-        while (maze.isAccessible(nextTile)) {
-            currTile = nextTile; // move to the next tile
-            path.add(currTile); // add the curr tile to path
-            if (maze.isIntersection(currTile)) {
-                return path;
-            }
-            if (maze.isCorner(currTile)) {
-                // Turn corner, get the updated direction
-                dirVector = turnCorner(currTile, dirVector);
-            }
-            // Move to the next tile to the new location
-            nextTile = JUtil.vectorAdd(currTile, dirVector);
-        }
-        return path;
+        int length = getPathToNextNode(grid.tileAt(tile.x, tile.y),
+                TileGrid.indexOf(dir), pathBuffer);
+        return toPoints(pathBuffer, length);
     }
 
     /**
-     * Turn direction at a corner tile
+     * Get path to the next intersection/dead end as tile ids
      *
-     * @param cornerTile - This given tile must be a corner tile
-     * @param currDirVector
-     * @return Point
+     * @param tile - the starting tile id
+     * @param d - direction index
+     * @param out - receives the path, must hold grid.size() tiles
+     * @return the number of tiles in the path, from the current tile
+     * (exclusive) to the nearest node tile (inclusive)
      */
-    private Point turnCorner(Point cornerTile, Point currDirVector) {
-        for (Point perVector : JUtil.getPerpendiculars(currDirVector)) {
-            Point newTile = JUtil.vectorAdd(cornerTile,
-                    perVector);
-            if (maze.isAccessible(newTile)) {
-                return perVector;
-            }
+    public int getPathToNextNode(int tile, int d, int[] out) {
+        return grid.walkToNode(tile, d, out);
+    }
+
+    /**
+     * @param tiles - tile ids
+     * @param length - number of tiles to convert
+     * @return the tiles as a list of Points
+     */
+    private List<Point> toPoints(int[] tiles, int length) {
+        List<Point> points = new ArrayList<Point>(length);
+        for (int i = 0; i < length; i++) {
+            points.add(grid.toPoint(tiles[i]));
         }
-        return currDirVector;
+        return points;
     }
 
     /**
-     * Find all paths from a given starting tile to a goal tile, with maximum
-     * number of nodes in each path. A path is a list of connected tiles.
+     * Find the shortest paths from a given starting tile to a goal tile, with
+     * maximum number of nodes in each path. A path is a list of connected
+     * tiles.
      *
      * @param start - the starting tile, doesn't have to be a node
      * @param goal - to tile to look for
      * @param nodeLimit - maximum number of nodes we want to have in our path
-     * @return List<List<Point>> - List of paths
+     * @return List<List<Point>> - Up to PATH_LIMIT paths, shortest first
      */
     public List<List<Point>> getPaths(Point start, Point goal, int nodeLimit) {
-        List<List<Point>> paths = new ArrayList<List<Point>>();
-        for (MoveDir dir : MoveDir.values()) {
-            List<Point> path = getPathToNextNode(start, dir);
-            if (path.size() > 0) {
-                // Check if our goal is already in the nearby path
-                if (path.contains(goal)) {
-                    paths.add(path.subList(0, path.indexOf(goal) + 1));
-                } else {
-                    Point node = path.get(path.size() - 1);
-                    for (List<Point> newPath : this.graph.get(node).values()) {
-                        // Don't go back to the start at the first node
-                        if (!newPath.contains(start)) {
-                            List<Point> explored = Arrays.asList(new Point[]{
-                                        start, node});
-                            findPathFromNode(paths, path, newPath, explored,
-                                    goal, nodeLimit);
-                        }
-                    }
-                }
-            }
-        }
-        return paths;
+        return getPaths(start, goal, nodeLimit, PATH_LIMIT);
     }
 
     /**
-     * Recursive helper method for graph search starting from a node
+     * Find the k shortest loopless paths from a starting tile to a goal tile,
+     * searching the junction graph.
      *
-     * @param paths - accumulating all paths to the goal tile
-     * @param currPath - our current path so far
-     * @param newPath - the path to be searched
-     * @param explored - nodes we have visited so far
+     * @param start - the starting tile, doesn't have to be a node
      * @param goal - to tile to look for
      * @param nodeLimit - maximum number of nodes we want to have in our path
+     * @param k - maximum number of paths
+     * @return List<List<Point>> - List of paths, shortest first
      */
-    private void findPathFromNode(List<List<Point>> paths,
-            List<Point> currPath, List<Point> newPath, List<Point> explored,
-            Point goal, int nodeLimit) {
-        // If we have found the goal in the new path, add the sublist in which
-        // the goal is the
-        // end tile of our current path, and save it.
-        if (newPath.contains(goal)) {
-            List<Point> pathToGoal = new ArrayList<Point>(currPath);
-            pathToGoal.addAll(newPath.subList(0, newPath.indexOf(goal) + 1));
-            paths.add(pathToGoal);
-            return;
+    public List<List<Point>> getPaths(Point start, Point goal, int nodeLimit, int k) {
+        List<List<Point>> paths = new ArrayList<List<Point>>();
+        int from = grid.tileAt(start.x, start.y);
+        int to = grid.tileAt(goal.x, goal.y);
+        if (from < 0 || to < 0) {
+            return paths;
         }
-        Point node = newPath.get(newPath.size() - 1);
-        // Check if the current node has been visited, if so, don't go back
-        // Check if the number of node visited exceeds the node limit
-        if (explored.contains(node) || explored.size() > nodeLimit) {
-            return;
+        if (routes == null) {
+            routes = new RouteFinder(junctions);
         }
-        // Add the node to our list of explored nodes
-        List<Point> newExplored = new ArrayList<Point>(explored);
-        newExplored.add(node);
-        // Add the searched path to our current path
-        List<Point> newCurrPath = new ArrayList<Point>(currPath);
-        newCurrPath.addAll(newPath);
-        // Check all paths connected to the current node
-        for (List<Point> newNewPath : this.graph.get(node).values()) {
-            findPathFromNode(paths, newCurrPath, newNewPath, newExplored, goal,
-                    nodeLimit);
+        for (int[] route : routes.kShortestRoutes(from, to, k, nodeLimit)) {
+            paths.add(toPoints(route, route.length));
         }
+        return paths;
     }
 
     /**
@@ -208,123 +290,97 @@ public class MazeGraph {
     }
 
     /**
-     *
-     * @param start Given the start point
-     * @param goal All the available dots saved in a list
-     * @param nodeLimit Limit of node in the path
-     * @return Call getPaths and return the shortest path in the list of paths
+     * @param start
+     * @param goal
+     * @return number of steps on the shortest path between the two tiles,
+     * DistanceTable.UNREACHABLE if there is none
      */
-    public List<Point> getShortestPath(Point start, Point goal) {
-
-        if (start.x == goal.x && start.y == goal.y) {
-            List<Point> result = new ArrayList<Point>();
-            return result;
+    public int getDistance(Point start, Point goal) {
+        int from = grid.tileAt(start.x, start.y);
+        int to = grid.tileAt(goal.x, goal.y);
+        if (from == to && from >= 0) {
+            return 0;
         }
+        if (from >= 0 && !distances.contains(from)) {
+            // Not walkable (e.g. a ghost on the door), search from the tile
+            int length = search.search(from, to);
+            return length < 0 ? DistanceTable.UNREACHABLE : length;
+        }
+        return distances.distance(from, to);
+    }
 
-        Queue<Point> startPoints = new LinkedList<Point>();
-        startPoints.add(start);
-        Point[][] parents = new Point[24][23];
-        MazeItem[][] map = this.maze.toMatrix();
-        parents[start.y][start.x] = new Point(0, 0);
-        boolean success = false;
-        while (startPoints.size() > 0) {
-            Point anotherStart = startPoints.poll();
-
-            // Found the point
-            if (anotherStart.x == goal.x && anotherStart.y == goal.y) {
-                success = true;
-                break;
-            }
-
-            // Try left
-            Point nextPointLeft = new Point(anotherStart.x - 1, anotherStart.y);
-            if (nextPointLeft.x > 0) {
-                if (map[nextPointLeft.y][nextPointLeft.x] != MazeItem.WALL && map[nextPointLeft.y][nextPointLeft.x] != MazeItem.DOOR && map[nextPointLeft.y][nextPointLeft.x] != MazeItem.TELEPORT) {
-                    if (parents[nextPointLeft.y][nextPointLeft.x] == null) {
-                        parents[nextPointLeft.y][nextPointLeft.x] = anotherStart;
-                        startPoints.add(nextPointLeft);
-                    }
-                }
-            }
-
-            // Try right
-            Point nextPointRight = new Point(anotherStart.x + 1, anotherStart.y);
-            if (nextPointRight.x < 23) {
-                if (map[nextPointRight.y][nextPointRight.x] != MazeItem.WALL && map[nextPointRight.y][nextPointRight.x] != MazeItem.DOOR && map[nextPointRight.y][nextPointRight.x] != MazeItem.TELEPORT) {
-                    if (parents[nextPointRight.y][nextPointRight.x] == null) {
-                        parents[nextPointRight.y][nextPointRight.x] = anotherStart;
-                        startPoints.add(nextPointRight);
-                    }
-                }
-            }
-
-            // Try up
-            Point nextPointUp = new Point(anotherStart.x, anotherStart.y - 1);
-            if (nextPointUp.y > 0) {
-                if (map[nextPointUp.y][nextPointUp.x] != MazeItem.WALL && map[nextPointUp.y][nextPointUp.x] != MazeItem.DOOR && map[nextPointUp.y][nextPointUp.x] != MazeItem.TELEPORT) {
-                    if (parents[nextPointUp.y][nextPointUp.x] == null) {
-                        parents[nextPointUp.y][nextPointUp.x] = anotherStart;
-                        startPoints.add(nextPointUp);
-                    }
-                }
-            }
+    /**
+     * @param start
+     * @param goal
+     * @return the first move of a shortest path from start to goal, null if
+     * start is the goal or the goal cannot be reached
+     */
+    public MoveDir getNextDir(Point start, Point goal) {
+        int d = distances.firstMove(grid.tileAt(start.x, start.y),
+                grid.tileAt(goal.x, goal.y));
+        return d == DistanceTable.NO_MOVE ? null : TileGrid.toMoveDir(d);
+    }
 
-            // Try down
-            Point nextPointDown = new Point(anotherStart.x, anotherStart.y + 1);
-            if (nextPointDown.y < 24) {
-                if (map[nextPointDown.y][nextPointDown.x] != MazeItem.WALL && map[nextPointDown.y][nextPointDown.x] != MazeItem.DOOR && map[nextPointDown.y][nextPointDown.x] != MazeItem.TELEPORT) {
-                    if (parents[nextPointDown.y][nextPointDown.x] == null) {
-                        parents[nextPointDown.y][nextPointDown.x] = anotherStart;
-                        startPoints.add(nextPointDown);
-                    }
-                }
-            }
-        }
-        List<Point> route = new ArrayList<Point>();
-        if (success) {
-            Point currentPoint = goal;
-            while (true) {
-                route.add(0, currentPoint);
-                if (parents[currentPoint.y][currentPoint.x] != null) {
-                    currentPoint = parents[currentPoint.y][currentPoint.x];
-                } else {
-                    break;
-                }
-                if (currentPoint.x == start.x && currentPoint.y == start.y) {
-                    break;
-                }
-            }
+    /**
+     * Find the nearest tiles of a goal set in true maze distance, in one
+     * bounded search.
+     *
+     * @param start
+     * @param goals - the tiles to look for, e.g. the DotIndex
+     * @param gate - tiles the search may enter, e.g. a ThreatField; null to
+     * allow all
+     * @param k - the number of goals wanted
+     * @param maxDepth - the furthest distance to explore
+     * @param out - receives the tile ids of the goals found, nearest first
+     * @return the number of goals found
+     */
+    public int findTargets(Point start, TileFilter goals, TileGate gate,
+            int k, int maxDepth, int[] out) {
+        int from = grid.tileAt(start.x, start.y);
+        if (from < 0) {
+            return 0;
         }
-        return route;
+        return search.findTargets(from, goals, gate, k, maxDepth, out);
     }
 
-    private class DistanceDot implements Comparable {
+    /**
+     * @param target - a tile id returned by the last findTargets call
+     * @return the path from the start of that search (exclusive) to the
+     * target (inclusive)
+     */
+    public List<Point> getTargetPath(int target) {
+        return toPoints(pathBuffer, search.pathTo(target, pathBuffer));
+    }
 
-        Point point;
-        int distance;
+    /**
+     * @param target - a tile id returned by the last findTargets call
+     * @param out - receives the tile ids of the path from the start of that
+     * search (exclusive) to the target (inclusive)
+     * @return the number of tiles in the path
+     */
+    public int getTargetPath(int target, int[] out) {
+        return search.pathTo(target, out);
+    }
 
-        DistanceDot(Point point, int distance) {
-            this.point = point;
-            this.distance = distance;
+    /**
+     *
+     * @param start Given the start point
+     * @param goal The tile to go to
+     * @return The shortest path from start (exclusive) to goal (inclusive),
+     * empty if start is the goal or the goal cannot be reached
+     */
+    public List<Point> getShortestPath(Point start, Point goal) {
+        int from = grid.tileAt(start.x, start.y);
+        int to = grid.tileAt(goal.x, goal.y);
+        if (from < 0 || from == to) {
+            return new ArrayList<Point>();
         }
-
-        @Override
-        public int compareTo(Object o) {
-            DistanceDot dot = null;
-            try {
-                dot = (DistanceDot) o;
-            } catch (Exception e) {
-                System.out.println(e.toString());
-            }
-
-            if (dot.distance == this.distance) {
-                return 0;
-            } else if (dot.distance < this.distance) {
-                return 1;
-            } else {
-                return -1;
-            }
+        if (!distances.contains(from)) {
+            // Not walkable (e.g. a ghost on the door), search from the tile
+            search.search(from, to);
+            return toPoints(pathBuffer, search.pathTo(to, pathBuffer));
         }
+        return toPoints(pathBuffer, distances.path(from, to, pathBuffer));
     }
 
     private class DistanceGhost implements Comparable {
@@ -360,27 +416,33 @@ public class MazeGraph {
      *
      * @param start Given the start point
      * @param availableDots All the available dots saved in a list
-     * @return Find the nearest dot item in the maze, return the Point of the
-     * item If the return is null, then there is no dot
+     * @return The dots ordered by maze distance from start, followed by the
+     * corners of the maze
      */
     public List<Point> findNearestDots(Point start, List<Point> availableDots) {
-        List<DistanceDot> sortedDots = new ArrayList<DistanceDot>();
-        for (Point point : availableDots) {
-            sortedDots.add(new DistanceDot(point, Utility.manhattan_distance(start.x, start.y, point.x, point.y)));
+        // Distance in the high half, index into availableDots in the low half
+        long[] keys = new long[availableDots.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = ((long) getDistance(start, availableDots.get(i)) << 32) | i;
         }
-        Collections.sort(sortedDots);
+        Arrays.sort(keys);
 
-        List<Point> results = new ArrayList<Point>();
-        for (DistanceDot dot : sortedDots) {
-            results.add(dot.point);
+        List<Point> results = new ArrayList<Point>(keys.length + 4);
+        for (long key : keys) {
+            results.add(availableDots.get((int) key));
         }
-        results.add(new Point(0, 0));
-        results.add(new Point(0, 22));
-        results.add(new Point(23, 0));
-        results.add(new Point(23, 22));
+        results.addAll(getCorners());
         return results;
     }
 
+    /**
+     * @return the corners of the maze, Pacman's last resort when no dot is
+     * safe
+     */
+    public List<Point> getCorners() {
+        return corners;
+    }
+
     public List<Ghost> findNearestGhosts(Point start, Ghost[] ghosts) {
         List<DistanceGhost> sortedDots = new ArrayList<DistanceGhost>();
         for (Ghost ghost : ghosts) {
@@ -401,17 +463,9 @@ public class MazeGraph {
      * @return Find all the dots in the maze
      */
     public List<Point> getCurrentDots() {
-        List<Point> currentDots = new ArrayList<Point>();
-        MazeItem mazeMatrix[][] = this.maze.toMatrix();
-        for (int i = 0; i < mazeMatrix.length; i++) {
-            for (int j = 0; j < mazeMatrix[i].length; j++) {
-                if (mazeMatrix[i][j] == MazeItem.DOT) {
-                    Point p = new Point();
-                    p.x = j;
-                    p.y = i;
-                    currentDots.add(p);
-                }
-            }
+        List<Point> currentDots = new ArrayList<Point>(dots.remaining());
+        for (int tile = dots.nextDot(0); tile >= 0; tile = dots.nextDot(tile + 1)) {
+            currentDots.add(grid.toPoint(tile));
         }
         return currentDots;
     }
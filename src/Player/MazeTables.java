@@ -0,0 +1,102 @@
+package Player;
+
+import java.util.Arrays;
+
+/**
+ * The precomputed tables of a maze that depend only on its layout: the tile
+ * grid, the distances, corridor segments, the junction graph and the escape
+ * index, and the corners of the maze. They are the expensive part of a
+ * MazeGraph to build. Distances come from an all-pairs DistanceTable, or
+ * from a ClusterGraph for mazes with more walkable tiles than
+ * DistanceTable.MAX_TILES.
+ *
+ * MazeTables never change after they are built and can be shared by any
+ * number of MazeGraphs, also across threads, so they hold tile ids rather
+ * than Points anyone could change. A MazeGraph adds only its dots and search
+ * scratch, a few kilobytes on the classic maze, and the Points of its
+ * corners and node paths.
+ */
+public class MazeTables {
+
+    private final TileGrid grid;
+    private final MazeDistances distances;
+    private final CorridorMap corridors;
+    private final JunctionGraph junctions;
+    private final EscapeIndex escapes;
+    private final int[] corners;
+
+    public MazeTables(TileGrid grid) {
+        this.grid = grid;
+        this.distances = DistanceTable.fits(grid) ? new DistanceTable(grid)
+                : new ClusterGraph(grid, 0);
+        this.corridors = new CorridorMap(grid);
+        this.junctions = new JunctionGraph(grid);
+        this.escapes = new EscapeIndex(grid);
+        this.corners = cornersOf(grid, distances);
+    }
+
+    MazeTables(TileGrid grid, DistanceTable distances, CorridorMap corridors,
+            JunctionGraph junctions) {
+        this.grid = grid;
+        this.distances = distances;
+        this.corridors = corridors;
+        this.junctions = junctions;
+        // Cheap enough to build on loading rather than cache
+        this.escapes = new EscapeIndex(grid);
+        this.corners = cornersOf(grid, distances);
+    }
+
+    /**
+     * @return for each corner of the grid, the walkable tile nearest to it
+     * as the crow flies, if any
+     */
+    private static int[] cornersOf(TileGrid grid, MazeDistances distances) {
+        int[] found = new int[4];
+        int count = 0;
+        for (int corner = 0; corner < 4; corner++) {
+            int cx = (corner & 1) == 0 ? 0 : grid.getWidth() - 1;
+            int cy = (corner & 2) == 0 ? 0 : grid.getHeight() - 1;
+            int best = -1;
+            int bestDistance = Integer.MAX_VALUE;
+            for (int tile = 0; tile < grid.size(); tile++) {
+                int distance = Math.abs(grid.xOf(tile) - cx) + Math.abs(grid.yOf(tile) - cy);
+                if (distance < bestDistance && distances.contains(tile) && !grid.isTeleport(tile)) {
+                    best = tile;
+                    bestDistance = distance;
+                }
+            }
+            if (best >= 0) {
+                found[count++] = best;
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    public TileGrid getGrid() {
+        return grid;
+    }
+
+    public MazeDistances getDistances() {
+        return distances;
+    }
+
+    public CorridorMap getCorridors() {
+        return corridors;
+    }
+
+    public JunctionGraph getJunctions() {
+        return junctions;
+    }
+
+    public EscapeIndex getEscapes() {
+        return escapes;
+    }
+
+    /**
+     * @return the tile ids of the walkable tiles nearest the corners of the
+     * maze, a copy
+     */
+    public int[] getCorners() {
+        return corners.clone();
+    }
+}
@@ -0,0 +1,15 @@
+package Player;
+
+import com.orbischallenge.pacman.api.common.*;
+
+/**
+ * The part of the game's Maze the player reads every frame. Implemented by
+ * MazeAdapter for the real game and by SimMaze for headless runs.
+ */
+public interface MazeView {
+
+    /**
+     * @return the maze items, indexed [y][x]
+     */
+    MazeItem[][] toMatrix();
+}
@@ -0,0 +1,366 @@
+package Player;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Monte Carlo tree search over corridor segments, the alternative to the
+ * greedy planner. A tree step is not one tile but one segment: Pacman goes
+ * the chosen way and follows the corridor round its corners until he gets to
+ * the next node of the junction graph, dies or clears the level, so a shallow
+ * tree already fills the horizon. Below the tree each rollout plays random
+ * segments, never turning back unless at a dead end. No segment, in the tree
+ * or the rollout, starts later than the horizon of one second of play after
+ * the root, though one started before it is played out to its end.
+ *
+ * The search is root parallel: every worker copies the root GameState and
+ * grows a tree of its own until the deadline, each with its own random seeds,
+ * and the visits of the root moves are added up across workers at the end.
+ * Workers share nothing while searching, so no locking is needed. The trees
+ * are open loop: a node stands for the moves that lead to it, not for one
+ * state, as frightened ghosts turn at random.
+ *
+ * A rollout scores 0 if Pacman dies, 1 if he clears the level, and otherwise
+ * between 0.5 and 1 by the points gained on the way.
+ */
+public class MctsPlanner {
+
+    // Frames a rollout plays from the root, tree steps included
+    private static final int HORIZON = GhostRules.FPS;
+    // Frames a single segment may take, e.g. round the tunnel
+    private static final int SEGMENT_FRAMES = 2 * GhostRules.FPS;
+    // Points gained for which a rollout scores 0.75
+    private static final double HALF_GAIN = 100;
+    private static final double EXPLORATION = 0.5;
+    private static final int MAX_NODES = 1 << 14;
+    private final Worker[] workers;
+    private final ForkJoinPool pool;
+    private final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+    private final long[] visits = new long[TileGrid.DIRS];
+    private final double[] value = new double[TileGrid.DIRS];
+    private long searches;
+    private long rollouts;
+    private long nanos;
+    private int seed = 0x2545f491;
+
+    /**
+     * @param threads - workers searching at once, 0 for one per core
+     */
+    public MctsPlanner(int threads) {
+        int count = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.workers = new Worker[count];
+        for (int w = 0; w < count; w++) {
+            final Worker worker = new Worker();
+            workers[w] = worker;
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    worker.search();
+                    return null;
+                }
+            });
+        }
+        this.pool = count > 1 ? new ForkJoinPool(count) : null;
+    }
+
+    /**
+     * Search from a state until the deadline.
+     *
+     * @param root - the state now; not changed
+     * @param deadline - System.nanoTime() to stop at
+     * @return the direction index to take, -1 if there is no way to go or no
+     * rollout gained anything, so another planner should choose
+     */
+    public int search(GameState root, long deadline) {
+        long start = System.nanoTime();
+        for (Worker worker : workers) {
+            seed = nextSeed(seed);
+            worker.start(root, deadline, seed);
+        }
+        if (pool == null) {
+            workers[0].search();
+        } else {
+            pool.invokeAll(tasks);
+        }
+        int best = -1;
+        boolean gained = false;
+        for (int d = 0; d < TileGrid.DIRS; d++) {
+            visits[d] = 0;
+            value[d] = 0;
+            for (Worker worker : workers) {
+                visits[d] += worker.rootVisits(d);
+                value[d] += worker.rootValue(d);
+                gained |= worker.gained;
+            }
+            if (visits[d] > 0 && (best < 0 || visits[d] > visits[best]
+                    || (visits[d] == visits[best] && value[d] > value[best]))) {
+                best = d;
+            }
+        }
+        for (Worker worker : workers) {
+            rollouts += worker.rollouts;
+        }
+        searches++;
+        nanos += System.nanoTime() - start;
+        return gained ? best : -1;
+    }
+
+    /**
+     * Stop the worker threads.
+     */
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @return the rollouts played across all workers so far
+     */
+    public long getRollouts() {
+        return rollouts;
+    }
+
+    /**
+     * @return rollouts played per second of search, across all workers
+     */
+    public double getRolloutsPerSecond() {
+        return nanos == 0 ? 0 : rollouts * 1e9 / nanos;
+    }
+
+    public int getThreads() {
+        return workers.length;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("mcts: %d searches, %d rollouts (%.0f per search), "
+                + "%.0f rollouts/s on %d threads", searches, rollouts,
+                searches == 0 ? 0.0 : (double) rollouts / searches,
+                getRolloutsPerSecond(), workers.length);
+    }
+
+    private static int nextSeed(int x) {
+        x ^= x << 13;
+        x ^= x >>> 17;
+        x ^= x << 5;
+        return x == 0 ? 1 : x;
+    }
+
+    /**
+     * One tree and the state it plays on; used by one thread at a time.
+     */
+    private final class Worker {
+
+        // Child of node n in direction d at [n * DIRS + d], 0 if not yet
+        // expanded (the root is node 0, never anyone's child)
+        private final int[] children = new int[MAX_NODES * TileGrid.DIRS];
+        private final int[] visits = new int[MAX_NODES];
+        private final double[] value = new double[MAX_NODES];
+        private final int[] path = new int[MAX_NODES];
+        private int nodes;
+        private GameState root;
+        private GameState state;
+        private JunctionGraph junctions;
+        private long deadline;
+        private int seed;
+        private int rootScore;
+        long rollouts;
+        boolean gained;
+
+        void start(GameState root, long deadline, int seed) {
+            if (state == null || state.getBoard() != root.getBoard()) {
+                state = root.copy();
+                junctions = root.getBoard().getTables().getJunctions();
+            }
+            this.root = root;
+            this.deadline = deadline;
+            this.seed = seed;
+            this.rootScore = root.getScore();
+            this.rollouts = 0;
+            this.gained = false;
+            this.nodes = 1;
+            visits[0] = 0;
+            value[0] = 0;
+            for (int d = 0; d < TileGrid.DIRS; d++) {
+                children[d] = 0;
+            }
+        }
+
+        void search() {
+            // At least one rollout, so a late start still gives an answer
+            do {
+                iterate();
+                rollouts++;
+            } while (System.nanoTime() - deadline < 0);
+        }
+
+        /**
+         * Select down the tree, expand one node, roll out and back up.
+         */
+        private void iterate() {
+            state.copyFrom(root);
+            seed = nextSeed(seed);
+            state.setSeed(seed);
+            int node = 0;
+            int depth = 0;
+            path[depth++] = node;
+            while (state.getStatus() == GameState.PLAYING
+                    && state.getLifeFrame() - root.getLifeFrame() < HORIZON) {
+                int d = select(node);
+                if (d < 0) {
+                    break;
+                }
+                int child = children[node * TileGrid.DIRS + d];
+                boolean expand = child == 0;
+                if (expand) {
+                    if (nodes == MAX_NODES) {
+                        break;
+                    }
+                    child = nodes++;
+                    children[node * TileGrid.DIRS + d] = child;
+                    for (int c = 0; c < TileGrid.DIRS; c++) {
+                        children[child * TileGrid.DIRS + c] = 0;
+                    }
+                    visits[child] = 0;
+                    value[child] = 0;
+                }
+                playSegment(d);
+                node = child;
+                path[depth++] = node;
+                if (expand) {
+                    break;
+                }
+            }
+            double reward = rollout();
+            for (int i = 0; i < depth; i++) {
+                visits[path[i]]++;
+                value[path[i]] += reward;
+            }
+        }
+
+        /**
+         * @return an open direction not yet tried from the node, else the
+         * one with the best upper confidence bound; -1 if Pacman can't move
+         */
+        private int select(int node) {
+            GameBoard board = state.getBoard();
+            int tile = state.getPacTile();
+            int best = -1;
+            double bestBound = Double.NEGATIVE_INFINITY;
+            double log = Math.log(Math.max(1, visits[node]));
+            int untried = 0;
+            for (int d = 0; d < TileGrid.DIRS; d++) {
+                if (board.pacNext(tile, d) < 0) {
+                    continue;
+                }
+                int child = children[node * TileGrid.DIRS + d];
+                if (child == 0) {
+                    // Untried moves come first, picked at random
+                    if (nextInt(++untried) == 0) {
+                        best = d;
+                    }
+                    bestBound = Double.POSITIVE_INFINITY;
+                    continue;
+                }
+                if (untried > 0) {
+                    continue;
+                }
+                double bound = value[child] / visits[child]
+                        + EXPLORATION * Math.sqrt(log / visits[child]);
+                if (bound > bestBound) {
+                    best = d;
+                    bestBound = bound;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Play random segments from where the tree left off, up to the
+         * horizon.
+         *
+         * @return the rollout's score, 0 to 1
+         */
+        private double rollout() {
+            GameBoard board = state.getBoard();
+            while (state.getStatus() == GameState.PLAYING
+                    && state.getLifeFrame() - root.getLifeFrame() < HORIZON) {
+                int tile = state.getPacTile();
+                int back = TileGrid.opposite(state.getPacDir());
+                int pick = -1;
+                int options = 0;
+                for (int d = 0; d < TileGrid.DIRS; d++) {
+                    if (d != back && board.pacNext(tile, d) >= 0 && nextInt(++options) == 0) {
+                        pick = d;
+                    }
+                }
+                if (pick < 0) {
+                    if (board.pacNext(tile, back) < 0) {
+                        break;
+                    }
+                    pick = back;
+                }
+                playSegment(pick);
+            }
+            if (state.getStatus() == GameState.DEAD) {
+                return 0;
+            }
+            if (state.getStatus() == GameState.CLEARED) {
+                gained = true;
+                return 1;
+            }
+            int gain = state.getScore() - rootScore;
+            if (gain > 0) {
+                gained = true;
+            }
+            return 0.5 + 0.5 * gain / (gain + HALF_GAIN);
+        }
+
+        /**
+         * Move Pacman the given way and along the corridor it leads into,
+         * until he gets to a junction node or the game stops.
+         */
+        private void playSegment(int d) {
+            GameBoard board = state.getBoard();
+            int tile = state.getPacTile();
+            int wanted = d;
+            for (int frame = 0; frame < SEGMENT_FRAMES && state.getStatus() == GameState.PLAYING; frame++) {
+                state.apply(wanted);
+                int now = state.getPacTile();
+                if (now == tile) {
+                    continue;
+                }
+                if (junctions.nodeOf(now) >= 0) {
+                    return;
+                }
+                tile = now;
+                // In a corridor: round the corner, never back
+                int back = TileGrid.opposite(state.getPacDir());
+                for (int c = 0; c < TileGrid.DIRS; c++) {
+                    if (c != back && board.pacNext(tile, c) >= 0) {
+                        wanted = c;
+                        break;
+                    }
+                }
+            }
+        }
+
+        int rootVisits(int d) {
+            int child = children[d];
+            return child == 0 ? 0 : visits[child];
+        }
+
+        double rootValue(int d) {
+            int child = children[d];
+            return child == 0 ? 0 : value[child];
+        }
+
+        private int nextInt(int bound) {
+            seed = nextSeed(seed);
+            return (int) ((seed & 0xffffffffL) % bound);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package Player;
+
+import com.orbischallenge.pacman.api.common.*;
+import com.orbischallenge.pacman.api.java.*;
+import java.awt.Point;
+import java.util.List;
+
+/**
+ * PacView over the game's Pac.
+ */
+public class PacAdapter implements PacView {
+
+    private final Pac pac;
+
+    public PacAdapter(Pac pac) {
+        this.pac = pac;
+    }
+
+    public Pac getPac() {
+        return pac;
+    }
+
+    @Override
+    public Point getTile() {
+        return pac.getTile();
+    }
+
+    @Override
+    public int getTileX() {
+        return pac.getTileX();
+    }
+
+    @Override
+    public int getTileY() {
+        return pac.getTileY();
+    }
+
+    @Override
+    public MoveDir getDir() {
+        return pac.getDir();
+    }
+
+    @Override
+    public List<MoveDir> getPossibleDirs() {
+        return pac.getPossibleDirs();
+    }
+}
@@ -4,9 +4,8 @@ import com.orbischallenge.pacman.api.common.*;
 import com.orbischallenge.pacman.api.java.*;
 import java.awt.Point;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Random;
 
 /**
  * The Player class is the parent class of your AI player. It is just like a
@@ -17,13 +16,104 @@ import java.util.Random;
 public class PacPlayer implements Player {
 
     private int lives = 3;
-    private Pac pac;
+    private PacView pac;
     private MazeGraph graph;
     private List<MoveDir> motion;
-    private Ghost targetGhost;
-    private static final double[] ghostSpeed = {4, 6, 7, 7, 7.5, 7.5, 7.5, 7.5, 8};
+    // Index of the frightened ghost being chased
+    private int targetGhost;
+    // Views of the game objects, reused every frame
+    private final MazeAdapter mazeView = new MazeAdapter();
+    private GhostAdapter[] ghostViews;
+    // Earliest arrival of the dangerous ghosts at every tile, this frame
+    private ThreatField threats;
+    // The threats, also keeping dot searches out of tiles Pacman couldn't
+    // get away from, and letting them through where no ghost is predicted
+    private TileGate dotGate;
+    // Tiles of the frightened ghosts worth chasing, and search results
+    private TileSet prey;
+    private int[] targets = new int[1];
+    // The order to catch the frightened ghosts in, and the ghosts it is
+    // planned over: their tiles, deadlines and indices
+    private HuntPlanner hunt;
+    private int[] preyTiles;
+    private int[] preyDeadlines;
+    private int[] preyGhosts;
+    // The order to clear the dot segments in, and the dots of the segment
+    // it goes to first
+    private SegmentTour tour;
+    private TileFilter tourDots;
+    // Escapes from a lone ghost solved offline, null if there is no table
+    // for the maze; and the tile and heading of every ghost, for it
+    private PolicyTable policy;
+    private int[] ghostTiles;
+    private int[] ghostHeadings;
+    // Where the ghosts are going by their own rules, null unless on
+    private GhostPredictor predictor;
+    // Flood fills, and the tiles Pacman can get to before the ghosts; null
+    // on mazes too big for a fill to beat the gated search
+    private BitBoard bits;
+    private long[] region;
+    private static final int FILL_TILES = 1024;
+    // The route being followed across frames, and the ghosts that were
+    // frightened when it was planned
+    private RoutePlan route;
+    private int[] routeBuffer;
+    private int routeFrightened;
+    // Tuning values
+    private final PlayerConfig config;
+    // Time allowed per decision, and how often it ran out
+    private FrameBudget budget;
+    // Where the time of each decision goes
+    private final FrameMetrics metrics;
+    // Plans ahead on another thread when async planning is on, with the
+    // level and life count and maze copy its snapshots are taken with
+    private BackgroundPlanner background;
+    private int epoch;
+    private MazeItem[][] snapshotMatrix;
+    private int snapshotTile = -1;
+    // Tree search when the strategy is MCTS: the game as a GameState, kept
+    // up to date every frame, and the move chosen on Pacman's current tile
+    private MctsPlanner mcts;
+    // Every frame's input and decision, null unless recording; the level
+    // and life starts not yet recorded
+    private FrameRecorder recorder;
+    private boolean recordLevel;
+    private boolean recordLife;
+    private GameState state;
+    private int mctsTile = -1;
+    private int mctsDir = -1;
+    // Tiles per second in the game, also used by the simulator
+    static final double[] ghostSpeed = {4, 6, 7, 7, 7.5, 7.5, 7.5, 7.5, 8};
+    static final double pacSpeed = 8.0;
     private int level = 0;
 
+    public PacPlayer() {
+        this(new PlayerConfig());
+        String record = System.getProperty("pacman.record");
+        if (record != null) {
+            this.recorder = FrameRecorder.open(record);
+        }
+    }
+
+    /**
+     * @param config - tuning values, e.g. from a tournament sweep
+     */
+    public PacPlayer(PlayerConfig config) {
+        this(config, new FrameMetrics());
+    }
+
+    PacPlayer(PlayerConfig config, FrameMetrics metrics) {
+        this.config = config;
+        this.budget = new FrameBudget(config.getTimeBudget());
+        this.metrics = metrics;
+        if (config.isAsyncPlanning()) {
+            this.background = new BackgroundPlanner(config);
+        }
+        if (config.getStrategy() == PlayerConfig.MCTS) {
+            this.mcts = new MctsPlanner(config.getMctsThreads());
+        }
+    }
+
     /**
      * This is method decides Pacman�s moving direction in the next frame (See
      * Frame Concept). The parameters represent the maze, ghosts, Pacman, and
@@ -39,109 +129,486 @@ public class PacPlayer implements Player {
      */
     @Override
     public MoveDir calculateDirection(Maze maze, Ghost[] ghosts, Pac pac, int score) {
-        //if (this.motion.isEmpty()) {
-        MazeItem[][] items = maze.toMatrix();
-        if (items[this.pac.getTileY()][this.pac.getTileX()] == MazeItem.TELEPORT) {
+        this.ghostViews = GhostAdapter.wrap(this.ghostViews, ghosts);
+        return this.decide(this.mazeView.wrap(maze), this.ghostViews, score);
+    }
+
+    /**
+     * Decide Pacman's next move from views of the game objects. The game
+     * comes in through calculateDirection, the simulator calls this directly.
+     *
+     * @param maze
+     * @param ghosts
+     * @param score
+     * @return MoveDir
+     */
+    public MoveDir decide(MazeView maze, GhostView[] ghosts, int score) {
+        long start = this.recorder != null ? System.nanoTime() : 0;
+        if (FrameMetrics.ENABLED) {
+            this.metrics.startFrame(this.searches(), this.expanded());
+        }
+        // Every phase of the frame counts against its budget
+        this.budget.start();
+        if (this.predictor != null) {
+            this.enter(FrameMetrics.PREDICT);
+            MoveDir pacDir = this.pac.getDir();
+            this.predictor.update(ghosts, this.graph.getGrid().tileAt(this.pac.getTileX(), this.pac.getTileY()),
+                    pacDir == null ? 0 : TileGrid.indexOf(pacDir));
+        }
+        MoveDir dir;
+        if (this.mcts != null && this.background == null) {
+            dir = this.searchTree(maze, ghosts, score);
+        } else if (this.background == null) {
+            dir = this.plan(maze, ghosts);
+        } else {
+            this.enter(FrameMetrics.ASYNC);
+            GameSnapshot snapshot = this.snapshot(maze, ghosts, score);
+            dir = this.background.answer(snapshot);
+            if (dir == null) {
+                dir = this.plan(maze, ghosts);
+            } else {
+                this.graph.updateDots(maze, this.pac.getTile());
+            }
+            this.background.submit(snapshot, dir);
+        }
+        this.budget.end();
+        if (FrameMetrics.ENABLED) {
+            this.metrics.endFrame(this.searches(), this.expanded());
+        }
+        if (this.recorder != null) {
+            this.record(maze, ghosts, score, dir, System.nanoTime() - start);
+        }
+        return dir;
+    }
+
+    private void record(MazeView maze, GhostView[] ghosts, int score, MoveDir dir, long nanos) {
+        if (this.recordLevel) {
+            this.recorder.level(maze, ghosts.length);
+            this.recordLevel = false;
+        }
+        if (this.recordLife) {
+            this.recorder.life();
+            this.recordLife = false;
+        }
+        this.recorder.frame(maze, ghosts, this.pac, score, dir, nanos);
+    }
+
+    /**
+     * Decide for another Pacman view, e.g. one from a snapshot.
+     */
+    MoveDir decide(MazeView maze, GhostView[] ghosts, PacView pac, int score) {
+        this.pac = pac;
+        return this.decide(maze, ghosts, score);
+    }
+
+    /**
+     * @return the frame as the background planner sees it; the maze is only
+     * copied when Pacman gets to a new tile, as that is when dots go
+     */
+    private GameSnapshot snapshot(MazeView maze, GhostView[] ghosts, int score) {
+        int pacTile = this.graph.getGrid().tileAt(this.pac.getTileX(), this.pac.getTileY());
+        if (pacTile != this.snapshotTile || this.snapshotMatrix == null) {
+            this.snapshotMatrix = GameSnapshot.copyOf(maze.toMatrix());
+            this.snapshotTile = pacTile;
+        }
+        return GameSnapshot.take(this.graph.getTables(), this.level, this.epoch,
+                this.snapshotMatrix, ghosts, this.pac, score, this.config);
+    }
+
+    private MoveDir plan(MazeView maze, GhostView[] ghosts) {
+        TileGrid grid = this.graph.getGrid();
+        int pacTileId = grid.tileAt(this.pac.getTileX(), this.pac.getTileY());
+        if (grid.isTeleport(pacTileId)) {
+            this.route.clear();
             return MoveDir.LEFT;
         }
-        List<Point> dots = this.graph.findNearestDots(this.pac.getTile(), this.graph.getCurrentDots());
+        this.enter(FrameMetrics.UPDATE);
+        this.graph.updateDots(maze, this.pac.getTile());
+        if (this.policy != null) {
+            this.trackHeadings(ghosts);
+        }
+        if (this.config.isPlanReuse()) {
+            this.enter(FrameMetrics.REUSE);
+            if (this.isRouteValid(pacTileId, ghosts)) {
+                return TileGrid.toMoveDir(this.route.nextDir());
+            }
+            this.enter(FrameMetrics.UPDATE);
+        }
+        this.threats.update(ghosts, this.config.getGhostSpeed(level));
+        Point pacTile = this.pac.getTile();
+        // Always have a move ready in case we run out of time
+        this.enter(FrameMetrics.SAFEST);
+        MoveDir best = this.safestDirection();
 
-        // Try targetGhost first
-        if (targetGhost.getState() == GhostState.FRIGHTEN && targetGhost.framesTillRecover() > 5) {
-            List<Point> path = this.graph.getShortestPath(this.pac.getTile(), this.targetGhost.getTile());
-            if (path.size() < 5) {
-                List<MoveDir> dir = MazeGraph.pathToMoveDir(this.pac.getTile(), path);
-                this.motion = dir;
-                if (dir.isEmpty()) {
-                    MoveDir pacDir = this.pac.getDir();
-                    for (MoveDir possibleDir : this.pac.getPossibleDirs()) {
-                        if (possibleDir == pacDir) {
-                            return pacDir;
-                        }
-                    }
-                    return this.pac.getPossibleDirs().get(0);
+        if (this.config.isHuntPlanner()) {
+            this.enter(FrameMetrics.CHASE);
+            MoveDir hunted = this.huntDirection(pacTileId, ghosts);
+            if (hunted != null) {
+                return hunted;
+            }
+        } else {
+            MoveDir chased = this.chaseDirection(pacTile, ghosts);
+            if (chased != null) {
+                return chased;
+            }
+        }
+
+        if (this.policy != null) {
+            this.enter(FrameMetrics.POLICY);
+            MoveDir escape = this.policyDirection(pacTileId, ghosts);
+            if (escape != null) {
+                return escape;
+            }
+        }
+
+        if (this.tour != null) {
+            this.enter(FrameMetrics.TOUR);
+            MoveDir toured = this.tourDirection(pacTileId, ghosts);
+            if (toured != null) {
+                return toured;
+            }
+        }
+
+        // Go for the nearest dot Pacman can reach before the ghosts, looking
+        // further each round until one is found or time is up; the first
+        // round is cheap and always runs, whatever the phases above took
+        this.enter(FrameMetrics.DOTS);
+        for (int depth = this.config.getDotDepth(); ; depth *= 2) {
+            if (this.graph.findTargets(pacTile, this.graph.getDots(), this.dotGate, 1, depth, this.targets) > 0) {
+                int length = this.graph.getTargetPath(this.targets[0], this.routeBuffer);
+                this.keepRoute(pacTileId, length, RoutePlan.DOT, ghosts);
+                return TileGrid.toMoveDir(grid.dirBetween(pacTileId, this.routeBuffer[0]));
+            }
+            if (depth >= grid.size()) {
+                break;
+            }
+            // Nothing near: before searching further, check that there is a
+            // dot to find at all
+            if (depth == this.config.getDotDepth() && !this.hasSafeDot(pacTile)) {
+                break;
+            }
+            if (this.budget.expired()) {
+                break;
+            }
+        }
+
+        // No safe dot, head for a corner we can reach, or else take the
+        // safest way out
+        this.enter(FrameMetrics.CORNERS);
+        for (Point corner : this.graph.getCorners()) {
+            if (!this.config.isCorners() || this.budget.expired()) {
+                break;
+            }
+            List<Point> path = this.graph.getShortestPath(pacTile, corner);
+            if (!path.isEmpty() && this.threats.isSafe(path)) {
+                for (int i = 0; i < path.size(); i++) {
+                    this.routeBuffer[i] = grid.tileAt(path.get(i).x, path.get(i).y);
                 }
+                this.keepRoute(pacTileId, path.size(), RoutePlan.CORNER, ghosts);
+                this.motion = MazeGraph.pathToMoveDir(pacTile, path);
                 return this.motion.get(0);
             }
         }
+        this.enter(FrameMetrics.FALLBACK);
+        this.motion = MazeGraph.pathToMoveDir(pacTile, this.graph.getPathToNextNode(pacTile, best));
+        if (this.motion.isEmpty()) {
+            this.motion.add(best);
+        }
+        return this.motion.get(0);
+        //return startDir;
+    }
 
-        // Try chase ghost first
-        boolean chasingGhost = false;
-        boolean ghostComingChasingGhost = false;
-        List<Point> chasePath = new ArrayList<Point>();
-        for (Ghost ghost : this.graph.findNearestGhosts(this.pac.getTile(), ghosts)) {
-            if (ghost.getState() == GhostState.FRIGHTEN && ghost.framesTillRecover() > 5) {
-                if (Utility.manhattan_distance(this.pac.getTileX(), this.pac.getTileY(), ghost.getTileX(), ghost.getTileY()) < 5) {
-                    if (!chasingGhost && this.pac.getTileX() != ghost.getTileX() && this.pac.getTileY() != ghost.getTileY()) {
-                        chasePath = this.graph.getShortestPath(this.pac.getTile(), ghost.getTile());
-                        chasingGhost = true;
-                        this.targetGhost = ghost;
-                        break;
-                    }
+    /**
+     * Look up the way out from the one dangerous ghost within policyRange
+     * steps, if there is just one.
+     *
+     * @return of the moves that hold out longest against the ghost, the one
+     * all ghosts reach last; null if there isn't a lone ghost near, or every
+     * move holds out as long
+     */
+    private MoveDir policyDirection(int pacTileId, GhostView[] ghosts) {
+        int near = -1;
+        for (int i = 0; i < ghosts.length; i++) {
+            if (!this.threats.isDangerous(ghosts[i])) {
+                continue;
+            }
+            int steps = this.graph.getDistances().distance(pacTileId, this.ghostTiles[i]);
+            if (steps <= this.config.getPolicyRange()) {
+                if (near >= 0) {
+                    return null;
                 }
+                near = i;
             }
         }
-        if (chasingGhost) {
-            for (Ghost ghost : ghosts) {
-                List<Point> ghostPath = this.graph.getShortestPath(ghost.getTile(), this.pac.getTile());
-                if (!this.isGhostOnPath(ghostPath, ghosts)) {
-                    if (ghost.getState() != GhostState.FRIGHTEN || ghost.framesTillRecover() < 5) {
-                        if (ghostPath.size() / this.getGhostSpeed(level) < chasePath.size() / 8.0 + 0.5 && !ghostPath.isEmpty()) {
-                            if (isPathsOverlap(chasePath, ghostPath)) {
-                                ghostComingChasingGhost = true;
-                            }
-                        }
-                    }
-                }
+        if (near < 0) {
+            return null;
+        }
+        int moves = this.policy.moves(pacTileId, this.ghostTiles[near], this.ghostHeadings[near]);
+        int open = 0;
+        for (MoveDir dir : this.pac.getPossibleDirs()) {
+            open |= 1 << TileGrid.indexOf(dir);
+        }
+        if (moves < 0 || (moves & open) == open || (moves & open) == 0) {
+            return null;
+        }
+        TileGrid grid = this.graph.getGrid();
+        MoveDir keep = this.keepDirection();
+        MoveDir best = null;
+        int bestArrival = 0;
+        for (MoveDir dir : this.pac.getPossibleDirs()) {
+            int d = TileGrid.indexOf(dir);
+            if ((moves & (1 << d)) == 0) {
+                continue;
+            }
+            int arrival = this.threats.arrival(grid.step(pacTileId, d));
+            if (best == null || arrival > bestArrival || (arrival == bestArrival && dir == keep)) {
+                best = dir;
+                bestArrival = arrival;
             }
         }
-        if (ghostComingChasingGhost || !chasingGhost) {
-            for (Point dot : dots) {
-                List<Point> path = this.graph.getShortestPath(this.pac.getTile(), dot);
-                boolean ghostComing = false;
-                if (!this.isGhostOnPath(path, ghosts)) {
-                    for (Ghost ghost : ghosts) {
-                        List<Point> ghostPath = this.graph.getShortestPath(ghost.getTile(), this.pac.getTile());
-                        if (ghost.getState() != GhostState.FRIGHTEN || ghost.framesTillRecover() < 5) {
-                            if (ghostPath.size() / this.getGhostSpeed(level) < path.size() / 8.0 + 0.5 && !ghostPath.isEmpty()) {
-                                if (isPathsOverlap(path, ghostPath)) {
-                                    ghostComing = true;
-                                    break;
-                                }
-                            }
-                        }
-                    }
-                    if (ghostComing) {
-                        continue;
-                    }
-                    List<MoveDir> dir = MazeGraph.pathToMoveDir(this.pac.getTile(), path);
-                    this.motion = dir;
-                    if (dir.isEmpty()) {
-                        MoveDir pacDir = this.pac.getDir();
-                        for (MoveDir possibleDir : this.pac.getPossibleDirs()) {
-                            if (possibleDir == pacDir) {
-                                return pacDir;
-                            }
-                        }
-                        return this.pac.getPossibleDirs().get(0);
-                    }
-                    return this.motion.get(0);
+        this.route.clear();
+        return best;
+    }
+
+    /**
+     * Note the way each ghost went when it last changed tiles, ANY if it
+     * jumped or hasn't moved yet this life.
+     */
+    private void trackHeadings(GhostView[] ghosts) {
+        TileGrid grid = this.graph.getGrid();
+        for (int i = 0; i < ghosts.length; i++) {
+            int tile = grid.tileAt(ghosts[i].getTileX(), ghosts[i].getTileY());
+            if (tile == this.ghostTiles[i]) {
+                continue;
+            }
+            int heading = PolicyTable.ANY;
+            for (int d = 0; d < TileGrid.DIRS && this.ghostTiles[i] >= 0; d++) {
+                if (grid.step(this.ghostTiles[i], d) == tile) {
+                    heading = d;
                 }
             }
+            this.ghostTiles[i] = tile;
+            this.ghostHeadings[i] = heading;
+        }
+    }
+
+    /**
+     * Head for the nearest dot of the segment the tour clears next, after
+     * bringing the tour up to date and improving it for a quarter of the
+     * time left.
+     *
+     * @return the first move there, null if the segment can't be reached
+     * safely
+     */
+    private MoveDir tourDirection(int pacTileId, GhostView[] ghosts) {
+        TileGrid grid = this.graph.getGrid();
+        if (this.tour.getRebuilds() == 0) {
+            this.tour.rebuild(this.graph.getDots(), pacTileId);
         } else {
-            List<MoveDir> dir = MazeGraph.pathToMoveDir(this.pac.getTile(), chasePath);
-            if (dir.size() > 0) {
+            this.tour.update(this.graph.getDots(), pacTileId);
+        }
+        this.tour.improve(System.nanoTime() + this.budget.remaining() / 4);
+        if (this.tour.next() < 0) {
+            return null;
+        }
+        Point pacTile = this.pac.getTile();
+        if (this.graph.findTargets(pacTile, this.tourDots, this.dotGate, 1, grid.size(), this.targets) == 0) {
+            return null;
+        }
+        int length = this.graph.getTargetPath(this.targets[0], this.routeBuffer);
+        this.keepRoute(pacTileId, length, RoutePlan.DOT, ghosts);
+        return TileGrid.toMoveDir(grid.dirBetween(pacTileId, this.routeBuffer[0]));
+    }
+
+    /**
+     * Chase the frightened ghost picked by the hunt planner, the first of
+     * the order that catches the most ghosts before they recover, along a
+     * path the dangerous ghosts can't cut.
+     *
+     * @return the first move of the chase, null if there is no ghost to
+     * chase
+     */
+    private MoveDir huntDirection(int pacTileId, GhostView[] ghosts) {
+        TileGrid grid = this.graph.getGrid();
+        int n = 0;
+        for (int i = 0; i < ghosts.length; i++) {
+            GhostView ghost = ghosts[i];
+            if (ghost.isFrightened() && ghost.framesTillRecover() > this.config.getChaseFrames()) {
+                this.preyTiles[n] = grid.tileAt(ghost.getTileX(), ghost.getTileY());
+                this.preyDeadlines[n] = ghost.framesTillRecover() - this.config.getDangerFrames();
+                this.preyGhosts[n] = i;
+                n++;
+            }
+        }
+        if (n == 0) {
+            return null;
+        }
+        int first = this.hunt.solve(pacTileId, this.preyTiles, this.preyDeadlines, n,
+                GhostRules.FPS / this.config.getPacSpeed());
+        if (first < 0) {
+            return null;
+        }
+        Point pacTile = this.pac.getTile();
+        this.prey.clear();
+        this.prey.add(this.preyTiles[first]);
+        if (this.graph.findTargets(pacTile, this.prey, this.threats, 1, grid.size(), this.targets) == 0) {
+            return null;
+        }
+        this.targetGhost = this.preyGhosts[first];
+        this.graph.getTargetPath(this.targets[0], this.routeBuffer);
+        return TileGrid.toMoveDir(grid.dirBetween(pacTileId, this.routeBuffer[0]));
+    }
+
+    /**
+     * Chase a frightened ghost close by: the one chased last while it stays
+     * near, else the nearest one in reach along a safe path.
+     *
+     * @return the first move of the chase, null if there is no ghost to
+     * chase
+     */
+    private MoveDir chaseDirection(Point pacTile, GhostView[] ghosts) {
+        TileGrid grid = this.graph.getGrid();
+        // Try targetGhost first
+        this.enter(FrameMetrics.TARGET);
+        GhostView target = ghosts[this.targetGhost];
+        if (target.isFrightened() && target.framesTillRecover() > this.config.getChaseFrames()) {
+            if (this.graph.getDistance(pacTile, target.getTile()) < this.config.getTargetDistance()) {
+                List<MoveDir> dir = MazeGraph.pathToMoveDir(pacTile, this.graph.getShortestPath(pacTile, target.getTile()));
                 this.motion = dir;
+                if (dir.isEmpty()) {
+                    return this.keepDirection();
+                }
                 return this.motion.get(0);
             }
         }
-        List<MoveDir> possibleDir = this.pac.getPossibleDirs();
-        Random r = new Random();
-        MoveDir startDir = possibleDir.get(r.nextInt(possibleDir.size()));
-        this.motion = MazeGraph.pathToMoveDir(this.pac.getTile(), this.graph.getPathToNextNode(this.pac.getTile(), startDir));
 
-        return this.motion.get(0);
-        //return startDir;
+        // Try chase the nearest frightened ghost in reach, along a safe path
+        this.enter(FrameMetrics.CHASE);
+        this.prey.clear();
+        for (GhostView ghost : ghosts) {
+            if (ghost.isFrightened() && ghost.framesTillRecover() > this.config.getChaseFrames()) {
+                this.prey.add(grid.tileAt(ghost.getTileX(), ghost.getTileY()));
+            }
+        }
+        if (!this.prey.isEmpty() && this.graph.findTargets(pacTile, this.prey, this.threats, 1, this.config.getChaseDepth(), this.targets) > 0) {
+            for (int i = 0; i < ghosts.length; i++) {
+                if (grid.tileAt(ghosts[i].getTileX(), ghosts[i].getTileY()) == this.targets[0] && ghosts[i].isFrightened()) {
+                    this.targetGhost = i;
+                }
+            }
+            this.graph.getTargetPath(this.targets[0], this.routeBuffer);
+            return TileGrid.toMoveDir(grid.dirBetween(grid.tileAt(pacTile.x, pacTile.y),
+                    this.routeBuffer[0]));
+        }
+        return null;
+    }
+
+    /**
+     * Decide by tree search, once per tile: the move found when Pacman got to
+     * his tile is kept until he leaves it. The greedy planner decides when
+     * the search finds nothing to gain, and gets the last quarter of the
+     * frame's budget for it.
+     */
+    private MoveDir searchTree(MazeView maze, GhostView[] ghosts, int score) {
+        TileGrid grid = this.graph.getGrid();
+        int pacTileId = grid.tileAt(this.pac.getTileX(), this.pac.getTileY());
+        if (this.state == null) {
+            // Built on the level's first frame, with every dot in place
+            this.state = new GameState(new GameBoard(this.graph.getTables(), maze.toMatrix()),
+                    ghosts.length);
+            this.state.setLevel(this.level);
+            this.state.startLife();
+        }
+        this.state.observe(maze, ghosts, this.pac, score);
+        if (pacTileId == this.mctsTile && this.mctsDir >= 0) {
+            this.graph.updateDots(maze, this.pac.getTile());
+            return TileGrid.toMoveDir(this.mctsDir);
+        }
+        if (grid.isTeleport(pacTileId)) {
+            return this.plan(maze, ghosts);
+        }
+        this.enter(FrameMetrics.MCTS);
+        int d = this.mcts.search(this.state,
+                System.nanoTime() + this.budget.remaining() * 3 / 4);
+        this.mctsTile = pacTileId;
+        this.mctsDir = d;
+        if (d < 0) {
+            return this.plan(maze, ghosts);
+        }
+        this.graph.updateDots(maze, this.pac.getTile());
+        return TileGrid.toMoveDir(d);
+    }
+
+    /**
+     * @param pacTile
+     * @return true if Pacman can get to some dot before the dangerous ghosts
+     * of the last threat update, by flood fill where the maze is small and
+     * by the gated search elsewhere
+     */
+    private boolean hasSafeDot(Point pacTile) {
+        TileGrid grid = this.graph.getGrid();
+        if (this.bits == null) {
+            return this.graph.findTargets(pacTile, this.graph.getDots(), this.threats, 1,
+                    grid.size(), this.targets) > 0;
+        }
+        long[] dots = this.graph.getDots().getBits();
+        this.threats.safeRegion(this.bits, grid.tileAt(pacTile.x, pacTile.y), grid.size(), dots,
+                this.region);
+        return BitBoard.countBoth(this.region, dots) > 0;
+    }
+
+    /**
+     * Check the route kept from an earlier frame, in time linear in what is
+     * left of it: Pacman is still on it, its dot hasn't been eaten, no ghost
+     * has been frightened or recovered since, and the dangerous ghosts still
+     * can't cut it, or are predicted not to. The route is dropped if any of
+     * these fail.
+     *
+     * @param pacTile
+     * @param ghosts
+     * @return true if Pacman can keep following the route
+     */
+    private boolean isRouteValid(int pacTile, GhostView[] ghosts) {
+        if (!this.route.follow(pacTile)) {
+            return false;
+        }
+        if ((this.route.getKind() == RoutePlan.DOT && !this.graph.getDots().hasDot(this.route.getGoal()))
+                || frightened(ghosts) != this.routeFrightened) {
+            this.route.clear();
+            return false;
+        }
+        this.threats.track(ghosts, this.config.getGhostSpeed(level));
+        if (!this.threats.isSafe(this.route.getTiles(), this.route.getCursor(),
+                this.route.getLength(), this.graph.getDistances())
+                && (this.predictor == null || !this.predictor.isSafe(this.route.getTiles(),
+                        this.route.getCursor(), this.route.getLength()))) {
+            this.route.clear();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Follow the path in routeBuffer from now on, if plan reuse is on.
+     */
+    private void keepRoute(int pacTile, int length, int kind, GhostView[] ghosts) {
+        if (this.config.isPlanReuse()) {
+            this.route.set(pacTile, this.routeBuffer, length, kind);
+            this.routeFrightened = frightened(ghosts);
+        }
+    }
+
+    /**
+     * @return a bit for each frightened ghost
+     */
+    private static int frightened(GhostView[] ghosts) {
+        int mask = 0;
+        for (int i = 0; i < ghosts.length; i++) {
+            if (ghosts[i].isFrightened()) {
+                mask |= 1 << i;
+            }
+        }
+        return mask;
     }
 
     /**
@@ -157,11 +624,97 @@ public class PacPlayer implements Player {
     @Override
     public void onLevelStart(Maze maze, Ghost[] ghosts, Pac pac, int score) {
         System.out.println("Java player start new level!");
-        this.graph = new MazeGraph(maze);
+        if (this.level > 0) {
+            System.out.println("Planner " + this.budget);
+            if (this.background != null) {
+                System.out.println(this.background);
+            }
+            if (this.mcts != null) {
+                System.out.println(this.mcts);
+            }
+            if (FrameMetrics.ENABLED) {
+                System.out.println("Level " + this.level + ": " + this.metrics.summary());
+            }
+        }
+        this.ghostViews = GhostAdapter.wrap(null, ghosts);
+        this.startLevel(new MazeGraph(maze), this.ghostViews, new PacAdapter(pac));
+    }
+
+    /**
+     * Start a level on an already built maze graph.
+     *
+     * @param graph - the graph of the new level's maze
+     * @param ghosts
+     * @param pac
+     */
+    public void startLevel(MazeGraph graph, GhostView[] ghosts, PacView pac) {
+        this.startLevel(this.level + 1, graph, ghosts, pac);
+    }
+
+    void startLevel(int level, MazeGraph graph, GhostView[] ghosts, PacView pac) {
+        this.metrics.reset();
+        if (this.recorder != null) {
+            this.recorder.flush();
+            this.recordLevel = true;
+        }
+        this.graph = graph;
+        this.threats = new ThreatField(this.graph.getGrid(), this.config.getPacSpeed(),
+                this.config.getSafetyMargin(), this.config.getDangerFrames());
+        this.dotGate = this.config.isTrapCheck()
+                ? this.graph.getTables().getEscapes().guard(this.threats) : this.threats;
+        if (this.config.getPredictFrames() > 0) {
+            this.predictor = new GhostPredictor(this.graph.getJunctions(), this.graph.getDistances(),
+                    ghosts.length, this.config.getPacSpeed(), this.config.getGhostSpeed(level),
+                    this.config.getSafetyMargin(), this.config.getDangerFrames(),
+                    this.config.getPredictFrames());
+            this.dotGate = this.predictor.relax(this.dotGate);
+        } else {
+            this.predictor = null;
+        }
+        this.prey = new TileSet(this.graph.getGrid().size());
+        this.hunt = new HuntPlanner(this.graph.getDistances(), ghosts.length);
+        this.preyTiles = new int[ghosts.length];
+        this.preyDeadlines = new int[ghosts.length];
+        this.preyGhosts = new int[ghosts.length];
+        if (this.config.isDotTour()) {
+            final SegmentTour segments = new SegmentTour(this.graph.getCorridors(), this.graph.getDistances());
+            final DotIndex dots = this.graph.getDots();
+            final CorridorMap corridors = this.graph.getCorridors();
+            this.tour = segments;
+            this.tourDots = new TileFilter() {
+                @Override
+                public boolean accept(int tile) {
+                    return dots.accept(tile) && segments.isNext(corridors.segmentOf(tile));
+                }
+            };
+        } else {
+            this.tour = null;
+        }
+        this.policy = this.config.getPolicyRange() > 0
+                ? TableCache.getDefault().loadPolicy(this.graph.getGrid()) : null;
+        this.ghostTiles = new int[ghosts.length];
+        this.ghostHeadings = new int[ghosts.length];
+        Arrays.fill(this.ghostTiles, -1);
+        Arrays.fill(this.ghostHeadings, PolicyTable.ANY);
+        // A fill step costs every word of the maze, so only a small maze
+        // fills faster than the search
+        if (this.graph.getGrid().size() <= FILL_TILES) {
+            this.bits = new BitBoard(this.graph.getGrid());
+            this.region = this.bits.newSet();
+        } else {
+            this.bits = null;
+            this.region = null;
+        }
+        this.route = new RoutePlan(this.graph.getGrid());
+        this.routeBuffer = new int[this.graph.getGrid().size()];
         this.pac = pac;
         this.motion = new ArrayList<MoveDir>();
-        this.targetGhost = ghosts[0];
-        this.level++;
+        this.targetGhost = 0;
+        this.level = level;
+        this.epoch++;
+        this.snapshotMatrix = null;
+        this.state = null;
+        this.mctsTile = -1;
     }
 
     /**
@@ -178,55 +731,182 @@ public class PacPlayer implements Player {
     @Override
     public void onNewLife(Maze maze, Ghost[] ghosts, Pac pac, int score) {
         System.out.println("Hi, I still have " + lives + " lives left.");
+        this.ghostViews = GhostAdapter.wrap(null, ghosts);
+        this.startLife(this.ghostViews, new PacAdapter(pac));
+    }
+
+    /**
+     * Start a new life with repositioned ghosts and Pacman.
+     *
+     * @param ghosts
+     * @param pac
+     */
+    public void startLife(GhostView[] ghosts, PacView pac) {
         this.lives--;
+        if (this.recorder != null) {
+            this.recorder.flush();
+            this.recordLife = true;
+        }
         this.pac = pac;
         this.motion = new ArrayList<MoveDir>();
-        this.targetGhost = ghosts[0];
+        this.route.clear();
+        this.graph.getDots().resetPac();
+        if (this.predictor != null) {
+            this.predictor.reset();
+        }
+        Arrays.fill(this.ghostTiles, -1);
+        Arrays.fill(this.ghostHeadings, PolicyTable.ANY);
+        this.targetGhost = 0;
+        this.epoch++;
+        this.snapshotMatrix = null;
+        if (this.state != null) {
+            this.state.startLife();
+        }
+        this.mctsTile = -1;
     }
 
     /**
-     * 
-     * @param path
-     * @param ghosts
-     * @return 
-     */
-    private boolean isGhostOnPath(List<Point> path, Ghost[] ghosts) {
-        for (Point point : path) {
-            for (Ghost ghost : ghosts) {
-                if (ghost.getState() != GhostState.FRIGHTEN || ghost.framesTillRecover() < 5) {
-                    Point ghostPoint = ghost.getTile();
-                    if (ghostPoint.x == point.x && ghostPoint.y == point.y) {
-                        return true;
-                    }
-                }
+     * @return the open direction whose next tile the dangerous ghosts reach
+     * last, preferring Pacman's current direction on ties
+     */
+    private MoveDir safestDirection() {
+        TileGrid grid = this.graph.getGrid();
+        int pacTile = grid.tileAt(this.pac.getTileX(), this.pac.getTileY());
+        MoveDir best = this.keepDirection();
+        int bestArrival = this.threats.arrival(grid.step(pacTile, TileGrid.indexOf(best)));
+        for (MoveDir dir : this.pac.getPossibleDirs()) {
+            int arrival = this.threats.arrival(grid.step(pacTile, TileGrid.indexOf(dir)));
+            if (arrival > bestArrival) {
+                best = dir;
+                bestArrival = arrival;
             }
         }
-        return false;
+        return best;
+    }
+
+    /**
+     * Set the time allowed for each decision. When it runs out the planner
+     * returns the best move found so far.
+     *
+     * @param nanos
+     */
+    public void setTimeBudget(long nanos) {
+        this.budget.setBudget(nanos);
+    }
+
+    /**
+     * @return the decision time budget and how often it was hit
+     */
+    public FrameBudget getBudget() {
+        return this.budget;
+    }
+
+    /**
+     * Stop the tree search threads and the background planner, if there are
+     * any, and close the recording. The player still works afterwards,
+     * planning every frame itself with the greedy planner.
+     */
+    public void shutdown() {
+        if (this.mcts != null) {
+            this.mcts.shutdown();
+            this.mcts = null;
+        }
+        if (this.background != null) {
+            this.background.shutdown();
+            this.background = null;
+        }
+        if (this.recorder != null) {
+            this.recorder.close();
+            this.recorder = null;
+        }
+    }
+
+    /**
+     * Record every frame from now on, starting at the next level; replace
+     * any recording under way.
+     *
+     * @param recorder - null to stop recording
+     */
+    public void setRecorder(FrameRecorder recorder) {
+        if (this.recorder != null && this.recorder != recorder) {
+            this.recorder.close();
+        }
+        this.recorder = recorder;
+        this.recordLevel = false;
+        this.recordLife = false;
+    }
+
+    /**
+     * @return the tree search, null unless the strategy is MCTS
+     */
+    public MctsPlanner getMcts() {
+        return this.mcts;
+    }
+
+    /**
+     * @return the background planner, null if async planning is off
+     */
+    public BackgroundPlanner getBackground() {
+        return this.background;
+    }
+
+    MazeGraph getGraph() {
+        return this.graph;
+    }
+
+    /**
+     * @return the timings of this level's decisions
+     */
+    public FrameMetrics getMetrics() {
+        return this.metrics;
     }
 
-    private boolean isPathsOverlap(List<Point> path1, List<Point> path2) {
-        HashSet<String> hash = new HashSet<String>();
-        for (Point point : path1) {
-            String x = new String(point.x + "," + point.y);
-            hash.add(x);
+    private void enter(int phase) {
+        if (FrameMetrics.ENABLED) {
+            this.metrics.enter(phase);
         }
-        for (Point point : path2) {
-            String x = new String(point.x + "," + point.y);
-            if (hash.contains(x)) {
-                return true;
+    }
+
+    /**
+     * @return breadth first searches run by the planner so far
+     */
+    private long searches() {
+        return this.graph.getSearch().getSearches() + this.threats.getSearch().getSearches();
+    }
+
+    /**
+     * @return tiles expanded by the planner's searches so far
+     */
+    private long expanded() {
+        return this.graph.getSearch().getTotalExpanded() + this.threats.getSearch().getTotalExpanded();
+    }
+
+    /**
+     * @return Pacman's current direction if he can keep going that way,
+     * otherwise the first direction open to him
+     */
+    private MoveDir keepDirection() {
+        MoveDir pacDir = this.pac.getDir();
+        for (MoveDir possibleDir : this.pac.getPossibleDirs()) {
+            if (possibleDir == pacDir) {
+                return pacDir;
             }
         }
-        return false;
+        return this.pac.getPossibleDirs().get(0);
     }
 
     /**
      * @return the pac
      */
-    public Pac getPac() {
+    public PacView getPac() {
         return this.pac;
     }
 
-    public double getGhostSpeed(int level) {
+    /**
+     * @param level
+     * @return the ghosts' speed in the game on the level, in tiles per second
+     */
+    public static double getGhostSpeed(int level) {
         if (level >= ghostSpeed.length) {
             return ghostSpeed[ghostSpeed.length - 1];
         } else {
@@ -0,0 +1,25 @@
+package Player;
+
+import com.orbischallenge.pacman.api.common.*;
+import java.awt.Point;
+import java.util.List;
+
+/**
+ * The part of the game's Pac the player reads. Implemented by PacAdapter
+ * for the real game and by SimPac for headless runs.
+ */
+public interface PacView {
+
+    Point getTile();
+
+    int getTileX();
+
+    int getTileY();
+
+    MoveDir getDir();
+
+    /**
+     * @return the directions Pacman can move in from where he is
+     */
+    List<MoveDir> getPossibleDirs();
+}
@@ -0,0 +1,323 @@
+package Player;
+
+import java.util.Arrays;
+
+/**
+ * Tuning values of PacPlayer. The defaults are the best the tournament has
+ * found: the player's original values, with plan reuse, the trap check, the
+ * hunt planner, the dot tour, the policy table and ghost prediction on, and
+ * the corners off. The tournament runner sweeps them by name.
+ */
+public class PlayerConfig {
+
+    /**
+     * Names of the values that can be set with set(name, value), in the
+     * order toCsv writes them
+     */
+    public static final String[] NAMES = {"pacSpeed", "safetyMargin",
+        "chaseDepth", "chaseFrames", "targetDistance", "dangerFrames",
+        "ghostSpeedScale", "timeBudget", "dotDepth", "planReuse",
+        "asyncPlanning", "strategy", "mctsThreads", "trapCheck",
+        "huntPlanner", "dotTour", "corners", "policyRange", "predictFrames"};
+    /**
+     * Values of strategy: the greedy planner, or Monte Carlo tree search
+     */
+    public static final int GREEDY = 0;
+    public static final int MCTS = 1;
+    // Tiles per second Pacman and the ghosts are assumed to move at
+    private double pacSpeed = PacPlayer.pacSpeed;
+    private double[] ghostSpeed = PacPlayer.ghostSpeed.clone();
+    private double ghostSpeedScale = 1;
+    // How far ahead of the ghosts Pacman must stay, in seconds
+    private double safetyMargin = 0.5;
+    // Furthest a frightened ghost may be for Pacman to chase it
+    private int chaseDepth = 4;
+    // Frames a frightened ghost must have left for Pacman to chase it
+    private int chaseFrames = 5;
+    // Pacman keeps after the ghost he is chasing while it's this close
+    private int targetDistance = 5;
+    // A frightened ghost this close to recovering is dangerous again
+    private int dangerFrames = 5;
+    // Time allowed per decision, in nanoseconds
+    private long timeBudget = 5000000L;
+    // First search depth for dots, doubled until a dot is found
+    private int dotDepth = 8;
+    // Keep following the last route while it stays valid, 1 on, 0 off
+    private boolean planReuse = true;
+    // Plan the next frame ahead on a background thread, 1 on, 0 off
+    private boolean asyncPlanning = false;
+    // How decisions are made, GREEDY or MCTS
+    private int strategy = GREEDY;
+    // Threads searching the tree under MCTS, 0 for one per core
+    private int mctsThreads = 0;
+    // Only go for dots Pacman can get away from again, 1 on, 0 off
+    private boolean trapCheck = true;
+    // Chase frightened ghosts in the order that catches the most in time,
+    // 1 on, 0 for the nearest ghost close by
+    private boolean huntPlanner = true;
+    // Clear the dots segment by segment in an optimized tour, 1 on, 0 for
+    // the nearest dot every frame
+    private boolean dotTour = true;
+    // With no safe dot, head for a corner of the maze before taking the
+    // safest way out, 1 on, 0 off
+    private boolean corners = false;
+    // Ask the offline policy table how to get away from a lone dangerous
+    // ghost this many steps away or nearer, 0 off
+    private int policyRange = 3;
+    // Frames ahead to play the ghosts' own rules forward, letting Pacman
+    // through where no ghost is going to be; 0 off
+    private int predictFrames = 30;
+
+    public PlayerConfig() {
+    }
+
+    public PlayerConfig(PlayerConfig other) {
+        this.pacSpeed = other.pacSpeed;
+        this.ghostSpeed = other.ghostSpeed.clone();
+        this.ghostSpeedScale = other.ghostSpeedScale;
+        this.safetyMargin = other.safetyMargin;
+        this.chaseDepth = other.chaseDepth;
+        this.chaseFrames = other.chaseFrames;
+        this.targetDistance = other.targetDistance;
+        this.dangerFrames = other.dangerFrames;
+        this.timeBudget = other.timeBudget;
+        this.dotDepth = other.dotDepth;
+        this.planReuse = other.planReuse;
+        this.asyncPlanning = other.asyncPlanning;
+        this.strategy = other.strategy;
+        this.mctsThreads = other.mctsThreads;
+        this.trapCheck = other.trapCheck;
+        this.huntPlanner = other.huntPlanner;
+        this.dotTour = other.dotTour;
+        this.corners = other.corners;
+        this.policyRange = other.policyRange;
+        this.predictFrames = other.predictFrames;
+    }
+
+    /**
+     * Set a value by name.
+     *
+     * @param name - one of NAMES
+     * @param value
+     */
+    public void set(String name, double value) {
+        switch (name) {
+            case "pacSpeed":
+                pacSpeed = value;
+                break;
+            case "safetyMargin":
+                safetyMargin = value;
+                break;
+            case "chaseDepth":
+                chaseDepth = (int) value;
+                break;
+            case "chaseFrames":
+                chaseFrames = (int) value;
+                break;
+            case "targetDistance":
+                targetDistance = (int) value;
+                break;
+            case "dangerFrames":
+                dangerFrames = (int) value;
+                break;
+            case "ghostSpeedScale":
+                ghostSpeedScale = value;
+                break;
+            case "timeBudget":
+                timeBudget = (long) value;
+                break;
+            case "dotDepth":
+                dotDepth = (int) value;
+                break;
+            case "planReuse":
+                planReuse = value != 0;
+                break;
+            case "asyncPlanning":
+                asyncPlanning = value != 0;
+                break;
+            case "strategy":
+                strategy = (int) value;
+                break;
+            case "mctsThreads":
+                mctsThreads = (int) value;
+                break;
+            case "trapCheck":
+                trapCheck = value != 0;
+                break;
+            case "huntPlanner":
+                huntPlanner = value != 0;
+                break;
+            case "dotTour":
+                dotTour = value != 0;
+                break;
+            case "corners":
+                corners = value != 0;
+                break;
+            case "policyRange":
+                policyRange = (int) value;
+                break;
+            case "predictFrames":
+                predictFrames = (int) value;
+                break;
+            default:
+                throw new IllegalArgumentException("unknown player setting " + name);
+        }
+    }
+
+    /**
+     * @param name - one of NAMES
+     * @return the value
+     */
+    public double get(String name) {
+        switch (name) {
+            case "pacSpeed":
+                return pacSpeed;
+            case "safetyMargin":
+                return safetyMargin;
+            case "chaseDepth":
+                return chaseDepth;
+            case "chaseFrames":
+                return chaseFrames;
+            case "targetDistance":
+                return targetDistance;
+            case "dangerFrames":
+                return dangerFrames;
+            case "ghostSpeedScale":
+                return ghostSpeedScale;
+            case "timeBudget":
+                return timeBudget;
+            case "dotDepth":
+                return dotDepth;
+            case "planReuse":
+                return planReuse ? 1 : 0;
+            case "asyncPlanning":
+                return asyncPlanning ? 1 : 0;
+            case "strategy":
+                return strategy;
+            case "mctsThreads":
+                return mctsThreads;
+            case "trapCheck":
+                return trapCheck ? 1 : 0;
+            case "huntPlanner":
+                return huntPlanner ? 1 : 0;
+            case "dotTour":
+                return dotTour ? 1 : 0;
+            case "corners":
+                return corners ? 1 : 0;
+            case "policyRange":
+                return policyRange;
+            case "predictFrames":
+                return predictFrames;
+            default:
+                throw new IllegalArgumentException("unknown player setting " + name);
+        }
+    }
+
+    public double getPacSpeed() {
+        return pacSpeed;
+    }
+
+    /**
+     * @param level - starting at 1
+     * @return the speed the ghosts are assumed to move at on the level
+     */
+    public double getGhostSpeed(int level) {
+        return ghostSpeed[Math.min(level, ghostSpeed.length - 1)] * ghostSpeedScale;
+    }
+
+    /**
+     * @param speeds - ghost speed per level, index 0 unused
+     */
+    public void setGhostSpeeds(double[] speeds) {
+        this.ghostSpeed = speeds.clone();
+    }
+
+    public double getSafetyMargin() {
+        return safetyMargin;
+    }
+
+    public int getChaseDepth() {
+        return chaseDepth;
+    }
+
+    public int getChaseFrames() {
+        return chaseFrames;
+    }
+
+    public int getTargetDistance() {
+        return targetDistance;
+    }
+
+    public int getDangerFrames() {
+        return dangerFrames;
+    }
+
+    public long getTimeBudget() {
+        return timeBudget;
+    }
+
+    public int getDotDepth() {
+        return dotDepth;
+    }
+
+    public boolean isPlanReuse() {
+        return planReuse;
+    }
+
+    public boolean isAsyncPlanning() {
+        return asyncPlanning;
+    }
+
+    public int getStrategy() {
+        return strategy;
+    }
+
+    public int getMctsThreads() {
+        return mctsThreads;
+    }
+
+    public boolean isTrapCheck() {
+        return trapCheck;
+    }
+
+    public boolean isHuntPlanner() {
+        return huntPlanner;
+    }
+
+    public boolean isDotTour() {
+        return dotTour;
+    }
+
+    public boolean isCorners() {
+        return corners;
+    }
+
+    public int getPolicyRange() {
+        return policyRange;
+    }
+
+    public int getPredictFrames() {
+        return predictFrames;
+    }
+
+    /**
+     * @return the values in the order of NAMES, comma separated
+     */
+    public String toCsv() {
+        StringBuilder csv = new StringBuilder();
+        for (String name : NAMES) {
+            if (csv.length() > 0) {
+                csv.append(',');
+            }
+            double value = get(name);
+            csv.append(value == Math.rint(value) ? Long.toString((long) value)
+                    : Double.toString(value));
+        }
+        return csv.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "PlayerConfig[" + toCsv() + ", ghostSpeed " + Arrays.toString(ghostSpeed) + "]";
+    }
+}
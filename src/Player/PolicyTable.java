@@ -0,0 +1,434 @@
+package Player;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The best moves against one ghost, solved offline. A state is Pacman's
+ * tile, the ghost's tile and the ghost's heading, or ANY when it isn't known.
+ * Each step Pacman moves to a neighbour tile, then the ghost does, never
+ * turning back unless it is in a dead end; Pacman is caught if they meet or
+ * pass each other. The ghost is taken to move as badly for Pacman as it can.
+ *
+ * Value iteration finds, for every state, how many steps Pacman can hold out
+ * for, up to a horizon, and the table keeps the moves that hold out
+ * longest: four bits per state, two states a byte. Where every move holds
+ * out to the horizon the table has no opinion, and the player searches as
+ * usual; where some moves get Pacman caught sooner, it tells him which to
+ * avoid with a single lookup.
+ *
+ * Every sweep of the iteration is shared out between the threads a share of
+ * Pacman's tiles each. Tables are written by main and read through
+ * TableCache.loadPolicy, memory-mapped, so the moves stay off the heap.
+ * Mazes with more walkable tiles than MAX_TILES get no table.
+ *
+ * A PolicyTable never changes after it is built and can be shared freely.
+ */
+public class PolicyTable {
+
+    /**
+     * Heading of a ghost that hasn't been seen moving
+     */
+    public static final int ANY = TileGrid.DIRS;
+    public static final int HEADINGS = TileGrid.DIRS + 1;
+    /**
+     * Most walkable tiles a maze can have for a table
+     */
+    public static final int MAX_TILES = 1024;
+    /**
+     * Format version, to be bumped whenever the file layout changes
+     */
+    public static final int VERSION = 1;
+    private static final int MAGIC = 0x50504f4c;
+    private final TileGrid grid;
+    // Tile id -> slot in the table, -1 if the tile is not walkable
+    private final int[] slotOf;
+    private final int tiles;
+    private final int horizon;
+    // Best moves of state (pac * tiles + ghost) * HEADINGS + heading, in
+    // the low half of its byte for even states and the high half for odd
+    private final ByteBuffer moves;
+
+    private PolicyTable(TileGrid grid, int[] slotOf, int tiles, int horizon, ByteBuffer moves) {
+        this.grid = grid;
+        this.slotOf = slotOf;
+        this.tiles = tiles;
+        this.horizon = horizon;
+        this.moves = moves;
+    }
+
+    /**
+     * @param grid
+     * @return true if the maze is small enough for a table
+     */
+    public static boolean fits(TileGrid grid) {
+        return slotsOf(grid).length - 1 <= MAX_TILES;
+    }
+
+    /**
+     * Solve a maze by value iteration.
+     *
+     * @param grid
+     * @param horizon - the most steps looked ahead, at most 127
+     * @param threads - threads sharing every sweep, 0 for one per core
+     * @return the table
+     */
+    public static PolicyTable solve(TileGrid grid, int horizon, int threads) {
+        if (horizon < 1 || horizon > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("horizon must be 1 to 127, got " + horizon);
+        }
+        int[] slots = slotsOf(grid);
+        int tiles = slots[slots.length - 1];
+        if (tiles > MAX_TILES) {
+            throw new IllegalArgumentException(tiles + " walkable tiles, at most " + MAX_TILES);
+        }
+        int[] slotOf = Arrays.copyOf(slots, slots.length - 1);
+        Solver solver = new Solver(grid, slotOf, tiles, horizon);
+        int count = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        ForkJoinPool pool = count > 1 ? new ForkJoinPool(count) : null;
+        try {
+            // A few shares per thread, as Pacman's tiles differ in moves
+            List<Callable<Void>> tasks = solver.tasks(Math.min(tiles, count * 4));
+            for (int sweep = 0; sweep < horizon; sweep++) {
+                solver.changed = false;
+                if (pool != null) {
+                    pool.invokeAll(tasks);
+                } else {
+                    for (Callable<Void> task : tasks) {
+                        task.call();
+                    }
+                }
+                solver.swap();
+                if (!solver.changed) {
+                    break;
+                }
+            }
+            solver.best = true;
+            if (pool != null) {
+                pool.invokeAll(tasks);
+            } else {
+                for (Callable<Void> task : tasks) {
+                    task.call();
+                }
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+        return new PolicyTable(grid, slotOf, tiles, horizon, ByteBuffer.wrap(solver.pack()));
+    }
+
+    /**
+     * The value iteration: the steps Pacman holds out for from every state,
+     * after as many sweeps as have been run, in value, and the next sweep's
+     * in next. The last pass leaves the best moves in next instead.
+     */
+    private static class Solver {
+
+        private final int tiles;
+        private final int horizon;
+        // Slot reached from every slot in every direction, -1 for none
+        private final int[] links;
+        private byte[] value;
+        private byte[] next;
+        private volatile boolean changed;
+        // On the last pass, keep the best moves rather than the values
+        private boolean best;
+
+        Solver(TileGrid grid, int[] slotOf, int tiles, int horizon) {
+            this.tiles = tiles;
+            this.horizon = horizon;
+            this.links = new int[tiles * TileGrid.DIRS];
+            int[] tileLinks = EscapeIndex.links(grid);
+            for (int tile = 0; tile < slotOf.length; tile++) {
+                if (slotOf[tile] < 0) {
+                    continue;
+                }
+                for (int d = 0; d < TileGrid.DIRS; d++) {
+                    int to = tileLinks[tile * TileGrid.DIRS + d];
+                    links[slotOf[tile] * TileGrid.DIRS + d] = to < 0 ? -1 : slotOf[to];
+                }
+            }
+            int states = tiles * tiles * HEADINGS;
+            this.value = new byte[states];
+            this.next = new byte[states];
+        }
+
+        List<Callable<Void>> tasks(final int shares) {
+            List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+            for (int s = 0; s < shares; s++) {
+                final int share = s;
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        boolean any = false;
+                        for (int pac = share; pac < tiles; pac += shares) {
+                            any |= sweep(pac);
+                        }
+                        if (any) {
+                            changed = true;
+                        }
+                        return null;
+                    }
+                });
+            }
+            return tasks;
+        }
+
+        void swap() {
+            byte[] last = value;
+            value = next;
+            next = last;
+        }
+
+        /**
+         * @return the best moves of the last pass, two states a byte
+         */
+        byte[] pack() {
+            byte[] moves = new byte[(next.length + 1) / 2];
+            for (int state = 0; state < next.length; state++) {
+                moves[state >>> 1] |= (byte) (next[state] << ((state & 1) << 2));
+            }
+            return moves;
+        }
+
+        /**
+         * One sweep over the states with Pacman on a tile.
+         *
+         * @return true if any value changed
+         */
+        private boolean sweep(int pac) {
+            boolean any = false;
+            for (int ghost = 0; ghost < tiles; ghost++) {
+                for (int heading = 0; heading < HEADINGS; heading++) {
+                    int state = (pac * tiles + ghost) * HEADINGS + heading;
+                    int held = 0;
+                    int bestMoves = 0;
+                    for (int d = 0; d < TileGrid.DIRS && pac != ghost; d++) {
+                        int to = links[pac * TileGrid.DIRS + d];
+                        if (to < 0) {
+                            continue;
+                        }
+                        int v = to == ghost ? 0 : ghostMove(to, ghost, heading);
+                        if (v > held) {
+                            held = v;
+                            bestMoves = 0;
+                        }
+                        if (v == held) {
+                            bestMoves |= 1 << d;
+                        }
+                    }
+                    if (best) {
+                        next[state] = (byte) bestMoves;
+                    } else {
+                        any |= held != value[state];
+                        next[state] = (byte) held;
+                    }
+                }
+            }
+            return any;
+        }
+
+        /**
+         * @return the steps Pacman holds out for once he is on tile pac, with
+         * the ghost making the move worst for him
+         */
+        private int ghostMove(int pac, int ghost, int heading) {
+            int worst = horizon;
+            int back = heading == ANY ? -1 : TileGrid.opposite(heading);
+            boolean moved = false;
+            for (int pass = 0; pass < 2 && !moved; pass++) {
+                // Turning back only if there is no other way
+                for (int d = 0; d < TileGrid.DIRS; d++) {
+                    int to = links[ghost * TileGrid.DIRS + d];
+                    if (to < 0 || (d == back && pass == 0)) {
+                        continue;
+                    }
+                    moved = true;
+                    int v = to == pac ? 0 : Math.min(horizon, 1 + value[(pac * tiles + to) * HEADINGS + d]);
+                    worst = Math.min(worst, v);
+                }
+            }
+            return moved ? worst : Math.min(horizon, 1 + value[(pac * tiles + ghost) * HEADINGS + heading]);
+        }
+    }
+
+    /**
+     * @return tile id -> slot, -1 for tiles that are not walkable, followed
+     * by the number of slots
+     */
+    private static int[] slotsOf(TileGrid grid) {
+        int[] slotOf = new int[grid.size() + 1];
+        int count = 0;
+        for (int tile = 0; tile < grid.size(); tile++) {
+            slotOf[tile] = grid.isWalkable(tile) && !grid.isTeleport(tile) ? count++ : -1;
+        }
+        slotOf[grid.size()] = count;
+        return slotOf;
+    }
+
+    /**
+     * @param pacTile
+     * @param ghostTile
+     * @param heading - the ghost's direction index, or ANY
+     * @return the moves that hold Pacman out longest, a bit per direction
+     * index; -1 if either tile is not in the table
+     */
+    public int moves(int pacTile, int ghostTile, int heading) {
+        if (pacTile < 0 || ghostTile < 0 || pacTile >= slotOf.length || ghostTile >= slotOf.length) {
+            return -1;
+        }
+        int pac = slotOf[pacTile];
+        int ghost = slotOf[ghostTile];
+        if (pac < 0 || ghost < 0) {
+            return -1;
+        }
+        int state = (pac * tiles + ghost) * HEADINGS + heading;
+        return (moves.get(state >>> 1) >>> ((state & 1) << 2)) & 0xf;
+    }
+
+    public int getHorizon() {
+        return horizon;
+    }
+
+    public TileGrid getGrid() {
+        return grid;
+    }
+
+    /**
+     * Write the table to a temporary file and move it into place, so no one
+     * reads a half written file.
+     *
+     * @param file
+     * @param fingerprint - of the maze, see TableCache
+     * @throws IOException
+     */
+    public void write(File file, byte[] fingerprint) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create " + dir);
+        }
+        File tmp = File.createTempFile("policy", ".tmp", dir);
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(grid.getWidth());
+                out.writeInt(grid.getHeight());
+                out.writeInt(fingerprint.length);
+                out.write(fingerprint);
+                out.writeInt(tiles);
+                out.writeInt(horizon);
+                byte[] bytes = new byte[moves.capacity()];
+                moves.duplicate().get(bytes);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+                out.writeInt(MAGIC);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * @param file - written by write
+     * @param grid - the maze it must be for
+     * @param fingerprint - of the maze, see TableCache
+     * @return the table, mapped from the file
+     * @throws IOException if the file is not a table of this maze
+     */
+    public static PolicyTable read(File file, TileGrid grid, byte[] fingerprint)
+            throws IOException {
+        ByteBuffer in;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            // The mapping stays valid after the file is closed
+            in = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        }
+        if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+            throw new IOException("not a policy file of version " + VERSION);
+        }
+        if (in.getInt() != grid.getWidth() || in.getInt() != grid.getHeight()
+                || in.getInt() != fingerprint.length) {
+            throw new IOException("policy file is for another maze");
+        }
+        byte[] stored = new byte[fingerprint.length];
+        in.get(stored);
+        if (!Arrays.equals(stored, fingerprint)) {
+            throw new IOException("policy file is for another maze");
+        }
+        int[] slots = slotsOf(grid);
+        int tiles = in.getInt();
+        int horizon = in.getInt();
+        int length = in.getInt();
+        if (tiles != slots[slots.length - 1]
+                || length != (tiles * tiles * HEADINGS + 1) / 2 || length > in.remaining()) {
+            throw new IOException("policy file is truncated");
+        }
+        ByteBuffer moves = in.slice();
+        moves.limit(length);
+        in.position(in.position() + length);
+        if (in.getInt() != MAGIC || in.hasRemaining()) {
+            throw new IOException("policy file is truncated");
+        }
+        return new PolicyTable(grid, Arrays.copyOf(slots, slots.length - 1), tiles, horizon,
+                moves.slice());
+    }
+
+    /**
+     * Solve the classic maze and write its table where TableCache.loadPolicy
+     * looks for it.
+     *
+     * Arguments are name=value pairs: horizon (default 32) and threads (all
+     * cores).
+     *
+     * @param args
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        int horizon = 32;
+        int threads = 0;
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("expected name=value, got " + arg);
+            }
+            String value = arg.substring(eq + 1);
+            switch (arg.substring(0, eq)) {
+                case "horizon":
+                    horizon = Integer.parseInt(value);
+                    break;
+                case "threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown setting " + arg);
+            }
+        }
+        TileGrid grid = new SimMaze(SimMaze.CLASSIC).getGrid();
+        long start = System.nanoTime();
+        PolicyTable table = solve(grid, horizon, threads);
+        long nanos = System.nanoTime() - start;
+        File file = TableCache.getDefault().writePolicy(table);
+        System.out.println("Solved " + table.tiles + " tiles to horizon " + horizon
+                + " in " + nanos / 1000000 + " ms, written to " + file
+                + " (" + file.length() + " bytes)");
+    }
+}
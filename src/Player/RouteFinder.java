@@ -0,0 +1,471 @@
+package Player;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A* and Yen's k shortest loopless paths over a JunctionGraph. Start and
+ * goal tiles don't have to be nodes: for every query they are linked into
+ * the graph with a few temporary edges. Node and edge scratch arrays are
+ * reused between queries.
+ *
+ * A RouteFinder holds scratch state and must not be shared between threads.
+ */
+public class RouteFinder {
+
+    // Temporary edges: from the start out to its nodes, and from the goal's
+    // nodes in to the goal
+    private static final int MAX_VIRTUAL = 2 * TileGrid.DIRS;
+    private final JunctionGraph graph;
+    private final TileGrid grid;
+    private final int base;
+    private final int source;
+    private final int target;
+    private int startTile;
+    private int goalTile;
+    private int virtualCount;
+    private final int[] virtualFrom = new int[MAX_VIRTUAL];
+    private final int[] virtualTo = new int[MAX_VIRTUAL];
+    private final int[][] virtualTiles;
+    private final int[] virtualLength = new int[MAX_VIRTUAL];
+    // Real edges along the start's and goal's corridors, cut while the
+    // temporary edges stand in for them
+    private final int[] cutEdge;
+    private int query;
+    // Stamps for checking that a path visits no tile twice
+    private final int[] tileStamp;
+    private int tileGeneration;
+    // Search scratch, indexed by node (graph nodes, then source and target)
+    private final int[] cost;
+    private final int[] prevEdge;
+    private final int[] nodeStamp;
+    private final int[] bannedNode;
+    private final int[] bannedEdge;
+    private int generation;
+    private int banGeneration;
+    // Binary heap of (priority << 32 | node)
+    private long[] heap;
+    private int heapSize;
+    private final int[] buffer;
+
+    public RouteFinder(JunctionGraph graph) {
+        this.graph = graph;
+        this.grid = graph.getGrid();
+        this.base = graph.nodeCount();
+        this.source = base;
+        this.target = base + 1;
+        this.virtualTiles = new int[MAX_VIRTUAL][grid.size()];
+        this.cost = new int[base + 2];
+        this.prevEdge = new int[base + 2];
+        this.nodeStamp = new int[base + 2];
+        this.bannedNode = new int[base + 2];
+        this.bannedEdge = new int[graph.edgeCount() + MAX_VIRTUAL];
+        this.cutEdge = new int[graph.edgeCount()];
+        this.tileStamp = new int[grid.size()];
+        this.heap = new long[16];
+        this.buffer = new int[grid.size()];
+    }
+
+    /**
+     * Find a shortest path with A*.
+     *
+     * @param from - start tile id
+     * @param to - goal tile id
+     * @param out - receives the tiles from start (exclusive) to goal
+     * (inclusive), must hold grid.size() tiles
+     * @return the number of tiles in the path, -1 if there is none
+     */
+    public int shortestRoute(int from, int to, int[] out) {
+        if (from == to) {
+            return 0;
+        }
+        int s = prepare(from, to);
+        banGeneration++;
+        if (search(s, nodeOfGoal()) < 0) {
+            return -1;
+        }
+        int[] edges = collectEdges(s, nodeOfGoal());
+        return writeTiles(edges, edges.length, out);
+    }
+
+    /**
+     * Find up to k shortest loopless paths, shortest first, with Yen's
+     * algorithm.
+     *
+     * @param from - start tile id
+     * @param to - goal tile id
+     * @param k - the most paths to return
+     * @param nodeLimit - paths through more nodes than this are dropped as
+     * they are found, so they don't take the place of ones within the limit
+     * @return the paths as tile ids, from start (exclusive) to goal
+     * (inclusive); each visits a tile at most once and ends the first time
+     * it reaches the goal
+     */
+    public List<int[]> kShortestRoutes(int from, int to, int k, int nodeLimit) {
+        List<int[]> routes = new ArrayList<int[]>();
+        if (from == to || k <= 0) {
+            return routes;
+        }
+        int s = prepare(from, to);
+        int t = nodeOfGoal();
+        banGeneration++;
+        if (search(s, t) < 0) {
+            return routes;
+        }
+        List<int[]> found = new ArrayList<int[]>();
+        List<int[]> candidates = new ArrayList<int[]>();
+        List<Integer> candidateCosts = new ArrayList<Integer>();
+        // The shortest path is the root of every other, even if it goes
+        // through too many nodes to be returned itself
+        found.add(collectEdges(s, t));
+        int accepted = usable(found.get(0), nodeLimit) ? 1 : 0;
+        while (accepted < k) {
+            int[] prev = found.get(found.size() - 1);
+            for (int i = 0; i < prev.length; i++) {
+                int spur = i == 0 ? s : edgeTo(prev[i - 1]);
+                banGeneration++;
+                // Don't repeat the next edge of any path sharing this root
+                for (int[] path : found) {
+                    if (path.length > i && sameRoot(path, prev, i)) {
+                        bannedEdge[path[i]] = banGeneration;
+                    }
+                }
+                // Nor go back through the root
+                int rootCost = 0;
+                for (int j = 0; j < i; j++) {
+                    bannedNode[edgeFrom(prev[j])] = banGeneration;
+                    rootCost += edgeLength(prev[j]);
+                }
+                if (search(spur, t) < 0) {
+                    continue;
+                }
+                int[] spurEdges = collectEdges(spur, t);
+                int[] path = Arrays.copyOf(prev, i + spurEdges.length);
+                System.arraycopy(spurEdges, 0, path, i, spurEdges.length);
+                if (usable(path, nodeLimit) && !contains(found, path)
+                        && !contains(candidates, path)) {
+                    candidates.add(path);
+                    candidateCosts.add(rootCost + cost[t]);
+                }
+            }
+            if (candidates.isEmpty()) {
+                break;
+            }
+            int best = 0;
+            for (int c = 1; c < candidates.size(); c++) {
+                if (candidateCosts.get(c) < candidateCosts.get(best)) {
+                    best = c;
+                }
+            }
+            found.add(candidates.remove(best));
+            candidateCosts.remove(best);
+            accepted++;
+        }
+        for (int[] path : found) {
+            if (usable(path, nodeLimit)) {
+                int length = writeTiles(path, path.length, buffer);
+                routes.add(Arrays.copyOf(buffer, length));
+            }
+        }
+        return routes;
+    }
+
+    /**
+     * @param path - edges
+     * @return true if the path goes through at most nodeLimit nodes; the
+     * start and goal are not counted
+     */
+    private static boolean withinLimit(int[] path, int nodeLimit) {
+        return path.length - 1 <= nodeLimit;
+    }
+
+    /**
+     * @param path - edges
+     * @return true if the path is within the node limit, never visits the
+     * start or any tile twice, and only reaches the goal at its end
+     */
+    private boolean usable(int[] path, int nodeLimit) {
+        if (!withinLimit(path, nodeLimit)) {
+            return false;
+        }
+        int length = writeTiles(path, path.length, buffer);
+        tileGeneration++;
+        tileStamp[startTile] = tileGeneration;
+        for (int i = 0; i < length; i++) {
+            if (tileStamp[buffer[i]] == tileGeneration) {
+                return false;
+            }
+            tileStamp[buffer[i]] = tileGeneration;
+        }
+        return buffer[length - 1] == goalTile;
+    }
+
+    private static boolean sameRoot(int[] a, int[] b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean contains(List<int[]> paths, int[] path) {
+        for (int[] other : paths) {
+            if (Arrays.equals(other, path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Link the start and goal tiles into the graph. A start or goal in the
+     * middle of a corridor cuts the corridor's real edges, so no path can
+     * run through it instead of ending there.
+     *
+     * @return the node to search from
+     */
+    private int prepare(int from, int to) {
+        this.startTile = from;
+        this.goalTile = to;
+        this.virtualCount = 0;
+        query++;
+        int s = graph.nodeOf(from) >= 0 ? graph.nodeOf(from) : source;
+        int t = graph.nodeOf(to) >= 0 ? graph.nodeOf(to) : target;
+        if (s == source) {
+            for (int d = 0; d < TileGrid.DIRS; d++) {
+                int steps = grid.walkToNode(from, d, buffer);
+                if (steps == 0) {
+                    continue;
+                }
+                cutCorridor(from, buffer, steps);
+                int goalAt = indexOf(buffer, steps, to);
+                if (goalAt >= 0) {
+                    // The goal is on the way out of the start
+                    addVirtual(source, t, buffer, goalAt + 1);
+                } else if (graph.nodeOf(buffer[steps - 1]) >= 0) {
+                    addVirtual(source, graph.nodeOf(buffer[steps - 1]), buffer, steps);
+                }
+            }
+        }
+        if (t == target) {
+            for (int d = 0; d < TileGrid.DIRS; d++) {
+                int steps = grid.walkToNode(to, d, buffer);
+                cutCorridor(to, buffer, steps);
+                // Coming in through the start would visit it twice
+                if (steps == 0 || graph.nodeOf(buffer[steps - 1]) < 0
+                        || (s == source && indexOf(buffer, steps, from) >= 0)) {
+                    continue;
+                }
+                // Walk back from the node to the goal
+                int[] tiles = virtualTiles[virtualCount];
+                for (int i = 0; i < steps - 1; i++) {
+                    tiles[i] = buffer[steps - 2 - i];
+                }
+                tiles[steps - 1] = to;
+                virtualFrom[virtualCount] = graph.nodeOf(buffer[steps - 1]);
+                virtualTo[virtualCount] = target;
+                virtualLength[virtualCount] = steps;
+                virtualCount++;
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Cut the real edge that runs back from the end of a walk through the
+     * tile it started from.
+     *
+     * @param tile - the tile walked from
+     * @param walk - the tiles of the walk
+     * @param steps - the length of the walk
+     */
+    private void cutCorridor(int tile, int[] walk, int steps) {
+        if (steps == 0 || graph.nodeOf(walk[steps - 1]) < 0) {
+            return;
+        }
+        int node = graph.nodeOf(walk[steps - 1]);
+        int first = steps > 1 ? walk[steps - 2] : tile;
+        for (int e = graph.firstEdge(node); e < graph.endEdge(node); e++) {
+            if (graph.edgeTile(e, 0) == first) {
+                cutEdge[e] = query;
+            }
+        }
+    }
+
+    private int nodeOfGoal() {
+        return graph.nodeOf(goalTile) >= 0 ? graph.nodeOf(goalTile) : target;
+    }
+
+    private static int indexOf(int[] tiles, int length, int tile) {
+        for (int i = 0; i < length; i++) {
+            if (tiles[i] == tile) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void addVirtual(int from, int to, int[] tiles, int length) {
+        virtualFrom[virtualCount] = from;
+        virtualTo[virtualCount] = to;
+        virtualLength[virtualCount] = length;
+        System.arraycopy(tiles, 0, virtualTiles[virtualCount], 0, length);
+        virtualCount++;
+    }
+
+    private int edgeFrom(int edge) {
+        return edge < graph.edgeCount() ? graph.edgeFrom(edge)
+                : virtualFrom[edge - graph.edgeCount()];
+    }
+
+    private int edgeTo(int edge) {
+        return edge < graph.edgeCount() ? graph.edgeTo(edge)
+                : virtualTo[edge - graph.edgeCount()];
+    }
+
+    private int edgeLength(int edge) {
+        return edge < graph.edgeCount() ? graph.edgeLength(edge)
+                : virtualLength[edge - graph.edgeCount()];
+    }
+
+    private int edgeTile(int edge, int i) {
+        return edge < graph.edgeCount() ? graph.edgeTile(edge, i)
+                : virtualTiles[edge - graph.edgeCount()][i];
+    }
+
+    private int tileOf(int node) {
+        if (node == source) {
+            return startTile;
+        }
+        if (node == target) {
+            return goalTile;
+        }
+        return graph.nodeTile(node);
+    }
+
+    /**
+     * Manhattan distance to the goal, never more than the real distance.
+     */
+    private int heuristic(int node) {
+        int tile = tileOf(node);
+        return Math.abs(grid.xOf(tile) - grid.xOf(goalTile))
+                + Math.abs(grid.yOf(tile) - grid.yOf(goalTile));
+    }
+
+    /**
+     * A* from one node to another, avoiding banned nodes and edges.
+     *
+     * @return the cost of the path, -1 if there is none
+     */
+    private int search(int from, int to) {
+        generation++;
+        heapSize = 0;
+        nodeStamp[from] = generation;
+        cost[from] = 0;
+        prevEdge[from] = -1;
+        push(heuristic(from), from);
+        while (heapSize > 0) {
+            long top = pop();
+            int node = (int) top;
+            int f = (int) (top >>> 32);
+            if (f > cost[node] + heuristic(node)) {
+                continue; // stale entry
+            }
+            if (node == to) {
+                return cost[node];
+            }
+            if (node < base) {
+                for (int e = graph.firstEdge(node); e < graph.endEdge(node); e++) {
+                    relax(node, e);
+                }
+            }
+            for (int v = 0; v < virtualCount; v++) {
+                if (virtualFrom[v] == node) {
+                    relax(node, graph.edgeCount() + v);
+                }
+            }
+        }
+        return -1;
+    }
+
+    private void relax(int node, int edge) {
+        int next = edgeTo(edge);
+        if (bannedEdge[edge] == banGeneration || bannedNode[next] == banGeneration
+                || (edge < graph.edgeCount() && cutEdge[edge] == query)) {
+            return;
+        }
+        int c = cost[node] + edgeLength(edge);
+        if (nodeStamp[next] != generation || c < cost[next]) {
+            nodeStamp[next] = generation;
+            cost[next] = c;
+            prevEdge[next] = edge;
+            push(c + heuristic(next), next);
+        }
+    }
+
+    /**
+     * @return the edges of the last search's path, in order
+     */
+    private int[] collectEdges(int from, int to) {
+        int count = 0;
+        for (int node = to; node != from; node = edgeFrom(prevEdge[node])) {
+            count++;
+        }
+        int[] edges = new int[count];
+        for (int node = to; node != from; node = edgeFrom(prevEdge[node])) {
+            edges[--count] = prevEdge[node];
+        }
+        return edges;
+    }
+
+    private int writeTiles(int[] edges, int count, int[] out) {
+        int length = 0;
+        for (int i = 0; i < count; i++) {
+            for (int j = 0; j < edgeLength(edges[i]); j++) {
+                out[length++] = edgeTile(edges[i], j);
+            }
+        }
+        return length;
+    }
+
+    private void push(int priority, int node) {
+        if (heapSize == heap.length) {
+            heap = Arrays.copyOf(heap, heap.length * 2);
+        }
+        long entry = ((long) priority << 32) | node;
+        int i = heapSize++;
+        while (i > 0) {
+            int parent = (i - 1) >> 1;
+            if (heap[parent] <= entry) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = entry;
+    }
+
+    private long pop() {
+        long top = heap[0];
+        long last = heap[--heapSize];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && heap[child + 1] < heap[child]) {
+                child++;
+            }
+            if (heap[child] >= last) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = last;
+        return top;
+    }
+}
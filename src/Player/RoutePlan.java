@@ -0,0 +1,124 @@
+package Player;
+
+/**
+ * The route Pacman is following, as tile ids with a cursor on the next tile
+ * to enter. The planner keeps it between frames and only plans again when
+ * the route stops being valid, so most frames cost a walk along the rest of
+ * the route instead of a search.
+ */
+public class RoutePlan {
+
+    /**
+     * Kinds of route, for telling what the planner was doing
+     */
+    public static final int NONE = 0;
+    public static final int DOT = 1;
+    public static final int CORNER = 2;
+    private final TileGrid grid;
+    private final int[] tiles;
+    private int length;
+    private int cursor;
+    // The tile the route started from, where Pacman is until he enters
+    // the first tile
+    private int start = -1;
+    private int kind = NONE;
+
+    /**
+     * @param grid
+     */
+    public RoutePlan(TileGrid grid) {
+        this.grid = grid;
+        this.tiles = new int[grid.size()];
+    }
+
+    /**
+     * Follow a new route.
+     *
+     * @param start - the tile Pacman is on
+     * @param path - tile ids from start (exclusive) to the goal (inclusive)
+     * @param length - number of tiles in the path
+     * @param kind - DOT or CORNER
+     */
+    public void set(int start, int[] path, int length, int kind) {
+        System.arraycopy(path, 0, this.tiles, 0, length);
+        this.length = length;
+        this.cursor = 0;
+        this.start = start;
+        this.kind = length > 0 ? kind : NONE;
+    }
+
+    /**
+     * Drop the route, so the next frame plans again.
+     */
+    public void clear() {
+        this.length = 0;
+        this.cursor = 0;
+        this.start = -1;
+        this.kind = NONE;
+    }
+
+    /**
+     * Move the cursor along with Pacman.
+     *
+     * @param pacTile - the tile Pacman is on now
+     * @return true if Pacman is still on the route with tiles left to go;
+     * the route is cleared otherwise
+     */
+    public boolean follow(int pacTile) {
+        if (kind == NONE) {
+            return false;
+        }
+        if (cursor < length && tiles[cursor] == pacTile) {
+            cursor++;
+        } else if (pacTile != current()) {
+            clear();
+            return false;
+        }
+        if (cursor >= length) {
+            clear();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the tile Pacman should be on
+     */
+    private int current() {
+        return cursor == 0 ? start : tiles[cursor - 1];
+    }
+
+    /**
+     * @return direction index from the current tile to the next one
+     */
+    public int nextDir() {
+        return grid.dirBetween(current(), tiles[cursor]);
+    }
+
+    /**
+     * @return the tile ids of the route; the tiles still ahead run from
+     * getCursor() to getLength() - 1
+     */
+    public int[] getTiles() {
+        return tiles;
+    }
+
+    public int getCursor() {
+        return cursor;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return the last tile of the route, -1 if there is none
+     */
+    public int getGoal() {
+        return kind == NONE ? -1 : tiles[length - 1];
+    }
+
+    public int getKind() {
+        return kind;
+    }
+}
@@ -0,0 +1,491 @@
+package Player;
+
+import java.util.Arrays;
+
+/**
+ * The order to clear the corridor segments that still hold dots in. Picking
+ * the nearest dot every frame leaves stray dots behind that Pacman has to
+ * come back for; the tour instead plans all of them, one stop per segment of
+ * the CorridorMap, as an open path from Pacman's tile. Going from one
+ * segment to another costs the steps between their nearest ends, by the
+ * DistanceTable.
+ *
+ * The tour is built by nearest neighbour and then improved with 2-opt moves
+ * (turn a stretch of the tour round) and Or-opt moves (move a run of up to
+ * three stops elsewhere), a few at a time under a deadline, picking up where
+ * the last call stopped. Only the first stops are improved: the ghosts send
+ * Pacman elsewhere long before a whole tour is done, and tours optimized to
+ * the end played worse than ones that are only good near the front. The
+ * first few stops are tried against every other stop, the rest only against
+ * the segments nearest to them, found by searching out over the tiles. Once
+ * a full pass finds nothing to improve the tour is settled, until it
+ * changes. The tour is kept up to date rather than built again: a cleared
+ * segment is dropped and its neighbours joined, and a segment with dots the
+ * tour lacks is put in where it costs least.
+ *
+ * A SegmentTour holds scratch state and must not be shared between threads.
+ */
+public class SegmentTour {
+
+    // The longest run of stops an Or-opt move takes
+    private static final int MAX_RUN = 3;
+    // Near segments of every segment a move may join it to
+    private static final int NEAR = 8;
+    // Stops at the front of the tour, which Pacman heads for next, are
+    // tried against every other
+    private static final int FRONT = 8;
+    // Longest tour that is tried so, as every try looks up distances
+    private static final int FULL_SCAN = 512;
+    // Only the stops this near the front are improved
+    private static final int HORIZON = 16;
+    private final CorridorMap corridors;
+    private final TileGrid grid;
+    private final MazeDistances distances;
+    // Segments in the order to visit them, and where each one is in it, -1
+    // if it is not
+    private final int[] order;
+    private final int[] position;
+    // The NEAR closest segments of segment s at near[s * NEAR ..], closest
+    // first
+    private final int[] near;
+    private int size;
+    private int pacTile = -1;
+    private int pacSegment = -1;
+    // The improvement pass goes on from here on the next call
+    private int cursor;
+    private final int[] runBuffer = new int[MAX_RUN];
+    private boolean improvedThisPass;
+    private boolean settled;
+    // Scratch of the breadth first searches over tiles
+    private final int[] seen;
+    private final int[] queue;
+    private final int[] taken;
+    private final int[] hit;
+    private int stamp;
+    private long moves;
+    private long rebuilds;
+
+    /**
+     * @param corridors - segments of the maze
+     * @param distances - the maze's distances
+     */
+    public SegmentTour(CorridorMap corridors, MazeDistances distances) {
+        this.corridors = corridors;
+        this.distances = distances;
+        this.order = new int[corridors.size()];
+        this.position = new int[corridors.size()];
+        Arrays.fill(position, -1);
+        this.grid = corridors.getGrid();
+        this.seen = new int[grid.size()];
+        this.queue = new int[grid.size()];
+        this.taken = new int[corridors.size()];
+        this.hit = new int[corridors.size()];
+        this.near = new int[corridors.size() * NEAR];
+        int[] found = new int[NEAR];
+        for (int a = 0; a < corridors.size(); a++) {
+            int count = nearest(a, -1, found, NEAR);
+            for (int k = 0; k < NEAR; k++) {
+                near[a * NEAR + k] = k < count ? found[k] : a;
+            }
+        }
+    }
+
+    /**
+     * Breadth first search out from the ends of a segment for the segments
+     * nearest to it, by cost: each is taken when the search gets to one of
+     * its ends.
+     *
+     * @param from - a segment, -1 for Pacman's tile
+     * @param placed - only take segments at this position of the tour or
+     * later, -1 for any segment
+     * @param out - receives the segments, nearest first
+     * @param max - the most segments wanted
+     * @return the number of segments found
+     */
+    private int nearest(int from, int placed, int[] out, int max) {
+        stamp++;
+        int tail = 0;
+        if (from < 0) {
+            queue[tail++] = pacTile;
+            seen[pacTile] = stamp;
+        } else {
+            queue[tail++] = first(from);
+            seen[first(from)] = stamp;
+            if (seen[last(from)] != stamp) {
+                queue[tail++] = last(from);
+                seen[last(from)] = stamp;
+            }
+        }
+        int count = 0;
+        // A ring of tiles at a time, the segments got to in it taken by id
+        for (int head = 0; head < tail && count < max;) {
+            int ring = tail;
+            int hits = 0;
+            for (; head < ring; head++) {
+                int tile = queue[head];
+                int s = corridors.segmentOf(tile);
+                // Pacman is in his own segment wherever he is in it
+                boolean end = tile == first(s) || tile == last(s) || (from < 0 && s == pacSegment);
+                if (s != from && end && taken[s] != stamp && (placed < 0 || position[s] >= placed)) {
+                    taken[s] = stamp;
+                    hit[hits++] = s;
+                }
+                for (int d = 0; d < TileGrid.DIRS; d++) {
+                    int next = grid.neighbour(tile, d);
+                    if (next >= 0 && seen[next] != stamp) {
+                        seen[next] = stamp;
+                        queue[tail++] = next;
+                    }
+                }
+            }
+            Arrays.sort(hit, 0, hits);
+            for (int i = 0; i < hits && count < max; i++) {
+                out[count++] = hit[i];
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Build the tour from scratch by nearest neighbour, looking among the
+     * near segments of the last stop first and searching out from it if none
+     * of them is left.
+     *
+     * @param dots - the dots left
+     * @param pacTile - where Pacman is
+     */
+    public void rebuild(DotIndex dots, int pacTile) {
+        rebuilds++;
+        this.pacTile = pacTile;
+        this.pacSegment = corridors.segmentOf(pacTile);
+        size = 0;
+        for (int s = 0; s < corridors.size(); s++) {
+            position[s] = -1;
+            if (dots.dotsInSegment(s) > 0) {
+                position[s] = size;
+                order[size++] = s;
+            }
+        }
+        // Stops at i and after are still to be placed
+        for (int i = 0; i < size; i++) {
+            int from = i == 0 ? -1 : order[i - 1];
+            int best = -1;
+            for (int c = 0; from >= 0 && c < NEAR && best < 0; c++) {
+                int j = position[near[from * NEAR + c]];
+                if (j >= i) {
+                    best = j;
+                }
+            }
+            if (best < 0) {
+                best = nearest(from, i, runBuffer, 1) > 0 ? position[runBuffer[0]] : i;
+            }
+            int s = order[best];
+            order[best] = order[i];
+            order[i] = s;
+            position[order[best]] = best;
+            position[s] = i;
+        }
+        restart();
+    }
+
+    /**
+     * Bring the tour up to date with the dots and Pacman's tile: drop the
+     * segments that were cleared and put in the ones that gained dots.
+     *
+     * @param dots - the dots left
+     * @param pacTile - where Pacman is
+     */
+    public void update(DotIndex dots, int pacTile) {
+        this.pacTile = pacTile;
+        int segment = corridors.segmentOf(pacTile);
+        if (segment != pacSegment) {
+            // The first leg of the tour changed
+            pacSegment = segment;
+            settled = false;
+        }
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            int s = order[i];
+            if (dots.dotsInSegment(s) > 0) {
+                order[kept] = s;
+                position[s] = kept++;
+            } else {
+                position[s] = -1;
+            }
+        }
+        if (kept != size) {
+            size = kept;
+            restart();
+        }
+        if (dots.remaining() == 0) {
+            return;
+        }
+        for (int s = 0; s < corridors.size(); s++) {
+            if (position[s] < 0 && dots.dotsInSegment(s) > 0) {
+                insert(s);
+            }
+        }
+    }
+
+    /**
+     * Put a segment in where it makes the tour shortest.
+     */
+    private void insert(int s) {
+        int best = size;
+        int bestDelta = Integer.MAX_VALUE;
+        for (int i = 0; i <= size; i++) {
+            int prev = i == 0 ? -1 : order[i - 1];
+            int next = i == size ? -1 : order[i];
+            int delta = cost(prev, s) + endCost(s, next) - endCost(prev, next);
+            if (delta < bestDelta) {
+                best = i;
+                bestDelta = delta;
+            }
+        }
+        System.arraycopy(order, best, order, best + 1, size - best);
+        order[best] = s;
+        size++;
+        reindex(best, size);
+        restart();
+    }
+
+    /**
+     * Improve the tour until it is settled or the deadline passes.
+     *
+     * @param deadline - System.nanoTime() to stop at
+     * @return true if the tour is settled
+     */
+    public boolean improve(long deadline) {
+        while (!settled) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            if (cursor >= Math.min(size, HORIZON)) {
+                if (!improvedThisPass) {
+                    settled = true;
+                    break;
+                }
+                cursor = 0;
+                improvedThisPass = false;
+            }
+            if (twoOpt(cursor) || orOpt(cursor)) {
+                moves++;
+                improvedThisPass = true;
+            }
+            cursor++;
+        }
+        return true;
+    }
+
+    /**
+     * Turn round the best stretch of the tour starting at i, if any makes
+     * it shorter.
+     */
+    private boolean twoOpt(int i) {
+        int prev = i == 0 ? -1 : order[i - 1];
+        int first = order[i];
+        int bestJ = -1;
+        int bestDelta = 0;
+        // The new leg from prev goes to one of its near segments; from
+        // Pacman, whose near segments aren't known, it may go anywhere
+        boolean all = i < FRONT && size <= FULL_SCAN;
+        if (prev < 0 && !all) {
+            // Pacman's tile has no near segments
+            return false;
+        }
+        for (int c = 0; c < (all ? size : NEAR); c++) {
+            int j = all ? c : position[near[prev * NEAR + c]];
+            if (j <= i) {
+                continue;
+            }
+            int next = j + 1 == size ? -1 : order[j + 1];
+            int delta = cost(prev, order[j]) + endCost(first, next)
+                    - cost(prev, first) - endCost(order[j], next);
+            if (delta < bestDelta) {
+                bestJ = j;
+                bestDelta = delta;
+            }
+        }
+        if (bestJ < 0) {
+            return false;
+        }
+        for (int a = i, b = bestJ; a < b; a++, b--) {
+            int s = order[a];
+            order[a] = order[b];
+            order[b] = s;
+        }
+        reindex(i, bestJ + 1);
+        return true;
+    }
+
+    /**
+     * Move the run of stops starting at i to where it makes the tour
+     * shortest, if anywhere does.
+     */
+    private boolean orOpt(int i) {
+        for (int run = 1; run <= MAX_RUN && i + run <= size; run++) {
+            int last = i + run - 1;
+            int prev = i == 0 ? -1 : order[i - 1];
+            int next = last + 1 == size ? -1 : order[last + 1];
+            int gain = cost(prev, order[i]) + endCost(order[last], next) - endCost(prev, next);
+            // Put the run between order[k - 1] and order[k], outside of it:
+            // first, last, or next to a segment near one of its ends
+            int bestK = -1;
+            int bestDelta = 0;
+            boolean all = i < FRONT && size <= FULL_SCAN;
+            for (int c = -2; c < (all ? size - 1 : 2 * NEAR); c++) {
+                int k;
+                if (all) {
+                    k = c + 2;
+                } else if (c == -2) {
+                    k = 0;
+                } else if (c == -1) {
+                    k = size;
+                } else if (c < NEAR) {
+                    int after = position[near[order[i] * NEAR + c]];
+                    k = after < 0 ? -1 : after + 1;
+                } else {
+                    k = position[near[order[last] * NEAR + c - NEAR]];
+                }
+                if (k < 0 || (k >= i && k <= last + 1)) {
+                    continue;
+                }
+                int before = k == 0 ? -1 : order[k - 1];
+                int after = k == size ? -1 : order[k];
+                int delta = cost(before, order[i]) + endCost(order[last], after)
+                        - endCost(before, after) - gain;
+                if (delta < bestDelta) {
+                    bestK = k;
+                    bestDelta = delta;
+                }
+            }
+            if (bestK >= 0) {
+                move(i, run, bestK);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Move run stops starting at i to just before position k.
+     */
+    private void move(int i, int run, int k) {
+        int[] moved = runBuffer;
+        System.arraycopy(order, i, moved, 0, run);
+        if (k < i) {
+            System.arraycopy(order, k, order, k + run, i - k);
+            System.arraycopy(moved, 0, order, k, run);
+            reindex(k, i + run);
+        } else {
+            System.arraycopy(order, i + run, order, i, k - i - run);
+            System.arraycopy(moved, 0, order, k - run, run);
+            reindex(i, k);
+        }
+    }
+
+    private void reindex(int from, int to) {
+        for (int i = from; i < to; i++) {
+            position[order[i]] = i;
+        }
+    }
+
+    private void restart() {
+        cursor = 0;
+        improvedThisPass = false;
+        settled = false;
+    }
+
+    /**
+     * @param from - a segment, -1 for Pacman's tile
+     * @param to - a segment
+     * @return the steps from one to the other, between their nearest ends
+     */
+    private int cost(int from, int to) {
+        if (from < 0) {
+            if (to == pacSegment) {
+                return 0;
+            }
+            return Math.min(distances.distance(pacTile, first(to)),
+                    distances.distance(pacTile, last(to)));
+        }
+        int a = first(from);
+        int b = last(from);
+        int c = first(to);
+        int d = last(to);
+        return Math.min(Math.min(distances.distance(a, c), distances.distance(a, d)),
+                Math.min(distances.distance(b, c), distances.distance(b, d)));
+    }
+
+    /**
+     * cost, where to may be -1 for the end of the tour, which costs nothing
+     * to get to
+     */
+    private int endCost(int from, int to) {
+        return to < 0 ? 0 : cost(from, to);
+    }
+
+    private int first(int segment) {
+        return corridors.tile(segment, 0);
+    }
+
+    private int last(int segment) {
+        return corridors.tile(segment, corridors.length(segment) - 1);
+    }
+
+    /**
+     * @return the segment to clear next, -1 if there are no dots left
+     */
+    public int next() {
+        return size > 0 ? order[0] : -1;
+    }
+
+    /**
+     * @param segment
+     * @return true if the segment is the one to clear next
+     */
+    public boolean isNext(int segment) {
+        return size > 0 && order[0] == segment;
+    }
+
+    /**
+     * @return the number of segments in the tour
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param i - position in the tour
+     * @return the i-th segment to clear
+     */
+    public int get(int i) {
+        return order[i];
+    }
+
+    /**
+     * @return the steps of the whole tour from Pacman's tile
+     */
+    public int length() {
+        int total = 0;
+        for (int i = 0; i < size; i++) {
+            total += cost(i == 0 ? -1 : order[i - 1], order[i]);
+        }
+        return total;
+    }
+
+    public boolean isSettled() {
+        return settled;
+    }
+
+    /**
+     * @return improving moves made so far
+     */
+    public long getMoves() {
+        return moves;
+    }
+
+    public long getRebuilds() {
+        return rebuilds;
+    }
+}
@@ -0,0 +1,330 @@
+package Player;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Many games served side by side in one JVM, a stand-in for a match server
+ * talking to many players at once. Every session is a Simulator and a
+ * PacPlayer of its own on the layout's MazeTables, which all sessions share,
+ * so a session costs only its dots and search scratch.
+ *
+ * Sessions are played a frame at a time on a fixed number of threads: each
+ * frame is a task, and a session schedules its next frame when the last one
+ * is done, so any number of sessions take turns fairly and a session is only
+ * ever on one thread at a time. Frames are due at a fixed rate, like the
+ * game's, or back to back when the rate is 0.
+ *
+ * Each session keeps its own latency histograms: the time a frame took to
+ * play, most of it the player deciding, and its lag, from when it was due to
+ * when it was done, which adds the wait for a thread.
+ */
+public class SessionHost {
+
+    private final String[] layout;
+    private final MazeTables tables;
+    private final ScheduledThreadPoolExecutor pool;
+    private final long framePeriod;
+    private int maxFrames = GhostRules.FPS * 60 * 10;
+    private final List<Session> sessions = new ArrayList<Session>();
+
+    /**
+     * @param layout - see SimMaze
+     * @param threads - the most frames played at once
+     * @param fps - frames per second each session is due at, 0 for as fast
+     * as the threads go
+     */
+    public SessionHost(String[] layout, int threads, int fps) {
+        this.layout = layout;
+        this.tables = Simulator.tablesFor(layout);
+        this.pool = new ScheduledThreadPoolExecutor(threads);
+        this.framePeriod = fps > 0 ? 1000000000L / fps : 0;
+    }
+
+    /**
+     * @param frames - sessions still running after this many frames are
+     * ended
+     */
+    public void setMaxFrames(int frames) {
+        this.maxFrames = frames;
+    }
+
+    /**
+     * Start a new session; its first frame is due at once.
+     *
+     * @param config - the player's settings
+     * @param seed - for the frightened ghosts
+     * @return the session
+     */
+    public synchronized Session open(PlayerConfig config, long seed) {
+        Simulator simulator = new Simulator(layout, tables, seed);
+        simulator.setMaxFrames(maxFrames);
+        Session session = new Session(sessions.size(), simulator, new PacPlayer(config));
+        sessions.add(session);
+        session.schedule(System.nanoTime());
+        return session;
+    }
+
+    /**
+     * Wait for every session opened so far to end.
+     *
+     * @throws InterruptedException
+     */
+    public void awaitAll() throws InterruptedException {
+        List<Session> open;
+        synchronized (this) {
+            open = new ArrayList<Session>(sessions);
+        }
+        for (Session session : open) {
+            session.await();
+        }
+    }
+
+    public synchronized List<Session> getSessions() {
+        return new ArrayList<Session>(sessions);
+    }
+
+    public MazeTables getTables() {
+        return tables;
+    }
+
+    /**
+     * Stop taking frames; sessions still running are left where they are.
+     */
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * One game and its player. Its frames run one after another, each on
+     * whichever thread of the host is free.
+     */
+    public class Session implements Runnable {
+
+        private final int id;
+        private final Simulator simulator;
+        private final PacPlayer player;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final Latency frameTimes = new Latency();
+        private final Latency lags = new Latency();
+        private long due;
+        private boolean started;
+        private volatile SimResult result;
+        private volatile Throwable failure;
+
+        Session(int id, Simulator simulator, PacPlayer player) {
+            this.id = id;
+            this.simulator = simulator;
+            this.player = player;
+        }
+
+        private void schedule(long at) {
+            due = at;
+            pool.schedule(this, Math.max(0, at - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void run() {
+            boolean more;
+            long start = System.nanoTime();
+            try {
+                if (!started) {
+                    simulator.begin(player);
+                    started = true;
+                    more = true;
+                } else {
+                    more = simulator.frame(player);
+                }
+            } catch (RuntimeException | Error e) {
+                failure = e;
+                more = false;
+            }
+            long end = System.nanoTime();
+            frameTimes.record(end - start);
+            lags.record(end - due);
+            if (more) {
+                // Behind schedule, the next frame is due at once rather than
+                // bunching up to catch up
+                schedule(framePeriod == 0 ? end : Math.max(end, due + framePeriod));
+            } else {
+                result = simulator.result();
+                player.shutdown();
+                done.countDown();
+            }
+        }
+
+        /**
+         * Wait for the session to end.
+         *
+         * @throws InterruptedException
+         */
+        public void await() throws InterruptedException {
+            done.await();
+        }
+
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        /**
+         * @return the outcome, null until the session is done
+         */
+        public SimResult getResult() {
+            return result;
+        }
+
+        /**
+         * @return what ended the session early, null if nothing did
+         */
+        public Throwable getFailure() {
+            return failure;
+        }
+
+        /**
+         * @return the time each frame took to play
+         */
+        public Latency getFrameTimes() {
+            return frameTimes;
+        }
+
+        /**
+         * @return the time from each frame being due to it being played
+         */
+        public Latency getLags() {
+            return lags;
+        }
+
+        @Override
+        public String toString() {
+            return "session " + id + ": " + (result == null ? "running" : result)
+                    + ", frame " + frameTimes + ", lag " + lags
+                    + (failure == null ? "" : ", failed: " + failure);
+        }
+    }
+
+    /**
+     * A log-linear histogram of times in nanoseconds, as in FrameMetrics. Only
+     * a session's own frames record into it, one at a time; reads from other
+     * threads may be a frame behind.
+     */
+    public static class Latency {
+
+        private final long[] histogram = new long[FrameMetrics.BUCKETS];
+        private long count;
+        private long total;
+        private long max;
+
+        void record(long nanos) {
+            histogram[FrameMetrics.bucketOf(nanos)]++;
+            count++;
+            total += nanos;
+            max = Math.max(max, nanos);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMean() {
+            return count == 0 ? 0 : total / count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * @param q - between 0 and 1
+         * @return the time below which that fraction of the records fell, to
+         * within a quarter power of two
+         */
+        public long quantile(double q) {
+            long rank = (long) Math.ceil(q * count);
+            long seen = 0;
+            for (int b = 0; b < histogram.length; b++) {
+                seen += histogram[b];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(FrameMetrics.upperBound(b), max);
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("mean %.1fus, p50 %.1fus, p99 %.1fus, max %.1fus",
+                    getMean() / 1000.0, quantile(0.5) / 1000.0, quantile(0.99) / 1000.0,
+                    max / 1000.0);
+        }
+    }
+
+    /**
+     * Serve many games of the default player on the classic maze and print
+     * each session.
+     *
+     * Arguments are name=value pairs: sessions (default 64), threads (all
+     * cores), fps (0, back to back), frames (game length limit) and seed (1).
+     *
+     * @param args
+     * @throws InterruptedException
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int count = 64;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int fps = 0;
+        int frames = -1;
+        long seed = 1;
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("expected name=value, got " + arg);
+            }
+            String value = arg.substring(eq + 1);
+            switch (arg.substring(0, eq)) {
+                case "sessions":
+                    count = Integer.parseInt(value);
+                    break;
+                case "threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                case "fps":
+                    fps = Integer.parseInt(value);
+                    break;
+                case "frames":
+                    frames = Integer.parseInt(value);
+                    break;
+                case "seed":
+                    seed = Long.parseLong(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown setting " + arg);
+            }
+        }
+        SessionHost host = new SessionHost(SimMaze.CLASSIC, threads, fps);
+        if (frames > 0) {
+            host.setMaxFrames(frames);
+        }
+        long start = System.nanoTime();
+        PlayerConfig config = new PlayerConfig();
+        for (int i = 0; i < count; i++) {
+            host.open(config, seed + i);
+        }
+        host.awaitAll();
+        long nanos = System.nanoTime() - start;
+        host.shutdown();
+        long score = 0;
+        for (Session session : host.getSessions()) {
+            System.out.println(session);
+            score += session.getResult().getScore();
+        }
+        System.out.println(count + " sessions on " + threads + " threads in "
+                + nanos / 1000000 + " ms, mean score " + score / Math.max(1, count));
+    }
+}
@@ -0,0 +1,228 @@
+package Player;
+
+import com.orbischallenge.pacman.api.common.*;
+import java.awt.Point;
+import java.util.Random;
+
+/**
+ * A ghost in the headless simulator. Like in the arcade game a ghost never
+ * turns back on its own: at every tile it takes the open direction whose
+ * next tile is closest to its target, or a random one while frightened.
+ */
+public class SimGhost implements GhostView {
+
+    static final int IN_HOUSE = GhostRules.IN_HOUSE;
+    static final int ACTIVE = GhostRules.ACTIVE;
+    static final int FRIGHTENED = GhostRules.FRIGHTENED;
+    private final SimMaze maze;
+    private final TileGrid grid;
+    private final int number;
+    private int tile;
+    private int dir;
+    private int mode;
+    private int frightFrames;
+    // Frame of the life at which the ghost leaves the house
+    private int releaseFrame;
+    // Distance travelled towards the next tile, in 1/GameState.ONE tiles
+    private int progress;
+    private boolean reverse;
+
+    /**
+     * @param maze
+     * @param number - 0 to 3 for Blinky, Pinky, Inky and Clyde
+     */
+    public SimGhost(SimMaze maze, int number) {
+        this.maze = maze;
+        this.grid = maze.getGrid();
+        this.number = number;
+    }
+
+    /**
+     * Put the ghost back at its start: Blinky outside the house, the others
+     * inside until their release frame.
+     *
+     * @param releaseFrame
+     */
+    public void reset(int releaseFrame) {
+        this.releaseFrame = releaseFrame;
+        this.progress = 0;
+        this.frightFrames = 0;
+        this.reverse = false;
+        this.dir = TileGrid.indexOf(MoveDir.LEFT);
+        if (releaseFrame <= 0) {
+            tile = maze.getHouseExit();
+            mode = ACTIVE;
+        } else {
+            tile = maze.getHouseTile(number);
+            mode = IN_HOUSE;
+        }
+    }
+
+    /**
+     * Send the ghost back to the house after Pacman ate it.
+     *
+     * @param releaseFrame
+     */
+    public void eaten(int releaseFrame) {
+        this.releaseFrame = releaseFrame;
+        this.tile = maze.getHouseTile(number);
+        this.mode = IN_HOUSE;
+        this.frightFrames = 0;
+        this.progress = 0;
+    }
+
+    /**
+     * Frighten the ghost, which also makes it turn around.
+     *
+     * @param frames - how long the fright lasts
+     */
+    public void frighten(int frames) {
+        if (mode != IN_HOUSE && frames > 0) {
+            mode = FRIGHTENED;
+            frightFrames = frames;
+            reverse = true;
+        }
+    }
+
+    /**
+     * Turn around at the next tile, as ghosts do when their mode changes.
+     */
+    public void turnAround() {
+        if (mode == ACTIVE) {
+            reverse = true;
+        }
+    }
+
+    /**
+     * Advance the ghost by one frame.
+     *
+     * @param frame - frames since the life started
+     * @param targetX - the tile the ghost is heading for
+     * @param targetY
+     * @param tilesPerFrame
+     * @param random - for frightened ghosts
+     */
+    public void move(int frame, int targetX, int targetY, double tilesPerFrame,
+            Random random) {
+        if (mode == IN_HOUSE) {
+            if (frame >= releaseFrame) {
+                tile = maze.getHouseExit();
+                mode = ACTIVE;
+                progress = 0;
+            }
+            return;
+        }
+        if (mode == FRIGHTENED && --frightFrames <= 0) {
+            mode = ACTIVE;
+        }
+        progress += GameState.toStep(tilesPerFrame);
+        if (progress < GameState.ONE) {
+            return;
+        }
+        progress -= GameState.ONE;
+        if (reverse) {
+            reverse = false;
+            if (maze.isOpen(tile, TileGrid.opposite(dir), true)) {
+                dir = TileGrid.opposite(dir);
+                tile = maze.step(tile, dir);
+                return;
+            }
+        }
+        dir = choose(targetX, targetY, random);
+        if (dir >= 0) {
+            tile = maze.step(tile, dir);
+        }
+    }
+
+    private int choose(int targetX, int targetY, Random random) {
+        int back = TileGrid.opposite(dir);
+        int options = 0;
+        int best = -1;
+        long bestDistance = Long.MAX_VALUE;
+        for (int d : GhostRules.PREFERENCE) {
+            if (d == back || !maze.isOpen(tile, d, true)) {
+                continue;
+            }
+            options++;
+            if (mode == FRIGHTENED) {
+                // Reservoir sampling picks each option with equal chance
+                if (random.nextInt(options) == 0) {
+                    best = d;
+                }
+                continue;
+            }
+            int next = maze.step(tile, d);
+            long dx = grid.xOf(next) - targetX;
+            long dy = grid.yOf(next) - targetY;
+            if (dx * dx + dy * dy < bestDistance) {
+                best = d;
+                bestDistance = dx * dx + dy * dy;
+            }
+        }
+        if (best < 0 && maze.isOpen(tile, back, true)) {
+            // Dead end, the only way is back
+            best = back;
+        }
+        return best;
+    }
+
+    public int getNumber() {
+        return number;
+    }
+
+    public int getTileId() {
+        return tile;
+    }
+
+    public int getDirIndex() {
+        return dir;
+    }
+
+    public int getMode() {
+        return mode;
+    }
+
+    int getReleaseFrame() {
+        return releaseFrame;
+    }
+
+    /**
+     * @return the distance travelled towards the next tile, in
+     * 1/GameState.ONE tiles
+     */
+    int getProgress() {
+        return progress;
+    }
+
+    /**
+     * @return true if the ghost turns around at the next tile
+     */
+    boolean isReversing() {
+        return reverse;
+    }
+
+    @Override
+    public Point getTile() {
+        return grid.toPoint(tile);
+    }
+
+    @Override
+    public int getTileX() {
+        return grid.xOf(tile);
+    }
+
+    @Override
+    public int getTileY() {
+        return grid.yOf(tile);
+    }
+
+    @Override
+    public boolean isFrightened() {
+        return mode == FRIGHTENED;
+    }
+
+    @Override
+    public int framesTillRecover() {
+        return mode == FRIGHTENED ? frightFrames : 0;
+    }
+}
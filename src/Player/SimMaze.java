@@ -0,0 +1,345 @@
+package Player;
+
+import com.orbischallenge.pacman.api.common.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A maze for the headless simulator, built from a text layout:
+ *
+ * <pre>
+ * '#' wall       '.' dot         'o' power dot   ' ' empty
+ * '-' door       'T' teleport    'P' Pacman      'G' ghost house
+ * </pre>
+ *
+ * Ghosts leave the house from the tile above the door. The matrix is live:
+ * dots are cleared from it as they are eaten.
+ */
+public class SimMaze implements MazeView {
+
+    /**
+     * The classic layout, 23 tiles wide and 24 high.
+     */
+    public static final String[] CLASSIC = {
+        "#######################",
+        "#..........#..........#",
+        "#o###.####.#.####.###o#",
+        "#.....................#",
+        "#.###.#.#######.#.###.#",
+        "#.....#....#....#.....#",
+        "#####.####.#.####.#####",
+        "#####.#.........#.#####",
+        "#####.#.###-###.#.#####",
+        "T    ...#GGGGG#...    T",
+        "#####.#.#######.#.#####",
+        "#####.#.........#.#####",
+        "#####.#.#######.#.#####",
+        "#..........#..........#",
+        "#.###.####.#.####.###.#",
+        "#o..#......P......#..o#",
+        "###.#.#.#######.#.#.###",
+        "#.....#....#....#.....#",
+        "#.#######.###.#######.#",
+        "#.....................#",
+        "#.###.#.#######.#.###.#",
+        "#.....#....#....#.....#",
+        "#.....................#",
+        "#######################"
+    };
+    static final MazeItem EMPTY = GhostRules.EMPTY;
+    // Power dots are plain dots if the game has no item for them
+    static final MazeItem POWER = GhostRules.POWER != null ? GhostRules.POWER : MazeItem.DOT;
+    private final String[] layout;
+    private final MazeItem[][] matrix;
+    private final TileGrid grid;
+    private final int pacStart;
+    private final int houseExit;
+    private final int[] house;
+    private int dotsLeft;
+    // Directions Pacman may take from every tile
+    private final List<List<MoveDir>> pacDirs;
+
+    public SimMaze(String[] layout) {
+        this.layout = layout;
+        this.matrix = new MazeItem[layout.length][layout[0].length()];
+        reset();
+        this.grid = new TileGrid(matrix);
+        int pac = -1;
+        int door = -1;
+        List<Integer> houseTiles = new ArrayList<Integer>();
+        for (int y = 0; y < layout.length; y++) {
+            for (int x = 0; x < layout[y].length(); x++) {
+                char c = layout[y].charAt(x);
+                if (c == 'P') {
+                    pac = grid.tileAt(x, y);
+                } else if (c == 'G') {
+                    houseTiles.add(grid.tileAt(x, y));
+                } else if (c == '-' && door < 0) {
+                    door = grid.tileAt(x, y);
+                }
+            }
+        }
+        if (pac < 0 || door < 0 || houseTiles.isEmpty()) {
+            throw new IllegalArgumentException("layout needs a P, a door and a ghost house");
+        }
+        this.pacStart = pac;
+        this.houseExit = door - grid.getWidth();
+        this.house = new int[houseTiles.size()];
+        for (int i = 0; i < house.length; i++) {
+            house[i] = houseTiles.get(i);
+        }
+        this.pacDirs = new ArrayList<List<MoveDir>>(grid.size());
+        for (int tile = 0; tile < grid.size(); tile++) {
+            List<MoveDir> dirs = new ArrayList<MoveDir>(TileGrid.DIRS);
+            for (int d = 0; d < TileGrid.DIRS; d++) {
+                if (isOpen(tile, d, false)) {
+                    dirs.add(TileGrid.toMoveDir(d));
+                }
+            }
+            pacDirs.add(Collections.unmodifiableList(dirs));
+        }
+    }
+
+    /**
+     * Generate a random layout with the ghost house in the middle: a maze
+     * carved on a grid of cells, with some extra walls knocked out so there
+     * are loops to escape through.
+     *
+     * @param width - at least 15, rounded down to an odd number
+     * @param height - at least 11, rounded down to an odd number
+     * @param seed
+     * @return the layout
+     */
+    public static String[] generate(int width, int height, long seed) {
+        int w = (Math.max(15, width) - 1) | 1;
+        int h = (Math.max(11, height) - 1) | 1;
+        char[][] tiles = new char[h][w];
+        for (char[] row : tiles) {
+            Arrays.fill(row, '#');
+        }
+        // House walls on even rows and columns, so the ring around it is
+        // made of cells
+        int left = (w / 2 - 3) & ~1;
+        int right = left + 6;
+        int top = (h / 2 - 1) & ~1;
+        int bottom = top + 2;
+        Random random = new Random(seed);
+        // Carve from a corner cell with an explicit stack, skipping the
+        // cells inside the ring
+        boolean[][] seen = new boolean[h][w];
+        for (int y = top + 1; y < bottom; y += 2) {
+            for (int x = left + 1; x < right; x += 2) {
+                seen[y][x] = true;
+            }
+        }
+        int[] stack = new int[w * h];
+        int size = 0;
+        stack[size++] = 1 * w + 1;
+        seen[1][1] = true;
+        tiles[1][1] = '.';
+        int[] order = {0, 1, 2, 3};
+        while (size > 0) {
+            int cell = stack[size - 1];
+            int cx = cell % w;
+            int cy = cell / w;
+            for (int i = order.length - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int t = order[i];
+                order[i] = order[j];
+                order[j] = t;
+            }
+            boolean carved = false;
+            for (int d : order) {
+                int nx = cx + 2 * TileGrid.DX[d];
+                int ny = cy + 2 * TileGrid.DY[d];
+                if (nx > 0 && nx < w - 1 && ny > 0 && ny < h - 1 && !seen[ny][nx]) {
+                    seen[ny][nx] = true;
+                    tiles[cy + TileGrid.DY[d]][cx + TileGrid.DX[d]] = '.';
+                    tiles[ny][nx] = '.';
+                    stack[size++] = ny * w + nx;
+                    carved = true;
+                    break;
+                }
+            }
+            if (!carved) {
+                size--;
+            }
+        }
+        // Loops
+        for (int y = 1; y < h - 1; y++) {
+            for (int x = 1; x < w - 1; x++) {
+                boolean across = x % 2 == 0 && y % 2 == 1 && tiles[y][x - 1] == '.' && tiles[y][x + 1] == '.';
+                boolean down = x % 2 == 1 && y % 2 == 0 && tiles[y - 1][x] == '.' && tiles[y + 1][x] == '.';
+                if (tiles[y][x] == '#' && (across || down) && random.nextInt(4) == 0) {
+                    tiles[y][x] = '.';
+                }
+            }
+        }
+        // The open ring around the house, then the house itself
+        for (int x = left - 1; x <= right + 1; x++) {
+            tiles[top - 1][x] = '.';
+            tiles[bottom + 1][x] = '.';
+        }
+        for (int y = top - 1; y <= bottom + 1; y++) {
+            tiles[y][left - 1] = '.';
+            tiles[y][right + 1] = '.';
+        }
+        for (int y = top; y <= bottom; y++) {
+            for (int x = left; x <= right; x++) {
+                boolean wall = y == top || y == bottom || x == left || x == right;
+                tiles[y][x] = wall ? '#' : 'G';
+            }
+        }
+        tiles[top][(left + right) / 2] = '-';
+        tiles[bottom + 1][(left + right) / 2] = 'P';
+        tiles[1][1] = 'o';
+        tiles[1][w - 2] = 'o';
+        tiles[h - 2][1] = 'o';
+        tiles[h - 2][w - 2] = 'o';
+        String[] layout = new String[h];
+        for (int y = 0; y < h; y++) {
+            layout[y] = new String(tiles[y]);
+        }
+        return layout;
+    }
+
+    /**
+     * Put every dot back, for a new level.
+     */
+    public final void reset() {
+        dotsLeft = 0;
+        for (int y = 0; y < layout.length; y++) {
+            for (int x = 0; x < layout[y].length(); x++) {
+                matrix[y][x] = itemOf(layout[y].charAt(x));
+                if (matrix[y][x] == MazeItem.DOT || matrix[y][x] == POWER) {
+                    dotsLeft++;
+                }
+            }
+        }
+    }
+
+    private static MazeItem itemOf(char c) {
+        switch (c) {
+            case '#':
+                return MazeItem.WALL;
+            case '.':
+                return MazeItem.DOT;
+            case 'o':
+                return POWER;
+            case '-':
+                return MazeItem.DOOR;
+            case 'T':
+                return MazeItem.TELEPORT;
+            default:
+                return EMPTY;
+        }
+    }
+
+    /**
+     * @param tile
+     * @return the item on the tile
+     */
+    public MazeItem itemAt(int tile) {
+        return matrix[grid.yOf(tile)][grid.xOf(tile)];
+    }
+
+    /**
+     * Eat whatever is on the tile.
+     *
+     * @param tile
+     * @return the item that was eaten, EMPTY if there was nothing
+     */
+    public MazeItem eat(int tile) {
+        MazeItem item = itemAt(tile);
+        if (item != MazeItem.DOT && item != POWER) {
+            return EMPTY;
+        }
+        matrix[grid.yOf(tile)][grid.xOf(tile)] = EMPTY;
+        dotsLeft--;
+        return item;
+    }
+
+    /**
+     * @param tile
+     * @param d - direction index
+     * @param ghost - true for a ghost, which doesn't use the tunnel
+     * @return true if the tile can be left in that direction
+     */
+    public boolean isOpen(int tile, int d, boolean ghost) {
+        int next = step(tile, d);
+        if (next < 0) {
+            return false;
+        }
+        MazeItem item = itemAt(next);
+        return item != MazeItem.WALL && item != MazeItem.DOOR
+                && !(ghost && item == MazeItem.TELEPORT);
+    }
+
+    /**
+     * Like TileGrid.step, but walking off the maze from a teleport comes back
+     * in on the other side.
+     *
+     * @param tile
+     * @param d - direction index
+     * @return the next tile, -1 if it's off the maze
+     */
+    public int step(int tile, int d) {
+        int next = grid.step(tile, d);
+        if (next < 0 && grid.isTeleport(tile)) {
+            int x = (grid.xOf(tile) + TileGrid.DX[d] + grid.getWidth()) % grid.getWidth();
+            int y = (grid.yOf(tile) + TileGrid.DY[d] + grid.getHeight()) % grid.getHeight();
+            next = grid.tileAt(x, y);
+        }
+        return next;
+    }
+
+    /**
+     * @param tile
+     * @return the directions Pacman may take from the tile
+     */
+    public List<MoveDir> pacDirs(int tile) {
+        return pacDirs.get(tile);
+    }
+
+    @Override
+    public MazeItem[][] toMatrix() {
+        return matrix;
+    }
+
+    public TileGrid getGrid() {
+        return grid;
+    }
+
+    public String[] getLayout() {
+        return layout.clone();
+    }
+
+    public int getPacStart() {
+        return pacStart;
+    }
+
+    /**
+     * @return the tile above the door, where ghosts come out of the house
+     */
+    public int getHouseExit() {
+        return houseExit;
+    }
+
+    /**
+     * @param i - ghost number
+     * @return a tile in the ghost house for the ghost to wait on
+     */
+    public int getHouseTile(int i) {
+        return house[(house.length / 2 + i) % house.length];
+    }
+
+    /**
+     * @return the number of dots and power dots left
+     */
+    public int getDotsLeft() {
+        return dotsLeft;
+    }
+}
@@ -0,0 +1,99 @@
+package Player;
+
+import com.orbischallenge.pacman.api.common.*;
+import java.awt.Point;
+import java.util.List;
+
+/**
+ * Pacman in the headless simulator. He moves a whole tile at a time, once
+ * enough frames have passed at his speed.
+ */
+public class SimPac implements PacView {
+
+    private final SimMaze maze;
+    private final TileGrid grid;
+    private int tile;
+    private int dir;
+    // Distance travelled towards the next tile, in 1/GameState.ONE tiles
+    private int progress;
+
+    public SimPac(SimMaze maze) {
+        this.maze = maze;
+        this.grid = maze.getGrid();
+    }
+
+    /**
+     * Put Pacman back on his starting tile, facing left.
+     */
+    public void reset() {
+        tile = maze.getPacStart();
+        dir = TileGrid.indexOf(MoveDir.LEFT);
+        progress = 0;
+    }
+
+    /**
+     * Advance Pacman by one frame.
+     *
+     * @param wanted - the direction the player asked for, -1 for none
+     * @param tilesPerFrame
+     * @return true if Pacman moved onto a new tile
+     */
+    public boolean move(int wanted, double tilesPerFrame) {
+        if (wanted >= 0 && maze.isOpen(tile, wanted, false)) {
+            dir = wanted;
+        }
+        if (!maze.isOpen(tile, dir, false)) {
+            // Up against a wall
+            progress = 0;
+            return false;
+        }
+        progress += GameState.toStep(tilesPerFrame);
+        if (progress < GameState.ONE) {
+            return false;
+        }
+        progress -= GameState.ONE;
+        tile = maze.step(tile, dir);
+        return true;
+    }
+
+    public int getTileId() {
+        return tile;
+    }
+
+    public int getDirIndex() {
+        return dir;
+    }
+
+    /**
+     * @return the distance travelled towards the next tile, in
+     * 1/GameState.ONE tiles
+     */
+    int getProgress() {
+        return progress;
+    }
+
+    @Override
+    public Point getTile() {
+        return grid.toPoint(tile);
+    }
+
+    @Override
+    public int getTileX() {
+        return grid.xOf(tile);
+    }
+
+    @Override
+    public int getTileY() {
+        return grid.yOf(tile);
+    }
+
+    @Override
+    public MoveDir getDir() {
+        return TileGrid.toMoveDir(dir);
+    }
+
+    @Override
+    public List<MoveDir> getPossibleDirs() {
+        return maze.pacDirs(tile);
+    }
+}
@@ -0,0 +1,78 @@
+package Player;
+
+/**
+ * Outcome of one simulated game.
+ */
+public class SimResult {
+
+    private final int score;
+    private final int level;
+    private final int frames;
+    private final int livesLost;
+    private final boolean timedOut;
+    private final long decideNanos;
+    private final long maxDecideNanos;
+
+    /**
+     * @param score
+     * @param level - the level the game ended on, starting at 1
+     * @param frames - frames played
+     * @param livesLost
+     * @param timedOut - true if the game hit the frame limit
+     * @param decideNanos - total time spent in the player
+     * @param maxDecideNanos - the slowest single decision
+     */
+    public SimResult(int score, int level, int frames, int livesLost,
+            boolean timedOut, long decideNanos, long maxDecideNanos) {
+        this.score = score;
+        this.level = level;
+        this.frames = frames;
+        this.livesLost = livesLost;
+        this.timedOut = timedOut;
+        this.decideNanos = decideNanos;
+        this.maxDecideNanos = maxDecideNanos;
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public int getFrames() {
+        return frames;
+    }
+
+    public int getLivesLost() {
+        return livesLost;
+    }
+
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    public long getDecideNanos() {
+        return decideNanos;
+    }
+
+    public long getMaxDecideNanos() {
+        return maxDecideNanos;
+    }
+
+    /**
+     * @return average time per decision, in nanoseconds
+     */
+    public long getMeanDecideNanos() {
+        return frames == 0 ? 0 : decideNanos / frames;
+    }
+
+    @Override
+    public String toString() {
+        return "score " + score + ", level " + level + ", " + frames + " frames, "
+                + livesLost + " lives lost" + (timedOut ? " (timed out)" : "")
+                + ", decide mean " + getMeanDecideNanos() / 1000 + "us max "
+                + maxDecideNanos / 1000 + "us";
+    }
+}
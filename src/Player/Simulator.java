@@ -0,0 +1,299 @@
+package Player;
+
+import com.orbischallenge.pacman.api.common.*;
+import java.util.Random;
+
+/**
+ * Headless game engine for evaluating PacPlayer offline. It plays whole
+ * games against stand-in mazes, ghosts and Pacman as fast as the player can
+ * decide, following the arcade rules closely enough to compare players:
+ * scatter and chase waves, the classic ghost targets, frightened ghosts that
+ * wander at random, and ghost speeds from PacPlayer.ghostSpeed.
+ *
+ * The game's own Maze, Ghost and Pac classes can't be created outside the
+ * game, so the player is driven through its view entry points (startLevel,
+ * startLife, decide) with SimMaze, SimGhost and SimPac behind them.
+ */
+public class Simulator {
+
+    private static final int LIVES = 3;
+    private final SimMaze maze;
+    private final TileGrid grid;
+    // Layout tables the player's MazeGraph is built on, every level
+    private final MazeTables tables;
+    private final SimPac pac;
+    private final SimGhost[] ghosts;
+    private final Random random;
+    private int maxFrames = GhostRules.FPS * 60 * 10;
+    private int score;
+    private int level;
+    private int lives;
+    // Frames since the life started, and into the scatter/chase waves
+    private int lifeFrame;
+    private int waveFrame;
+    private int ghostsEaten;
+    // Frames played this game, and the player's time on them
+    private int frames;
+    private long decideNanos;
+    private long maxDecideNanos;
+
+    /**
+     * @param layout - see SimMaze
+     * @param seed - for the frightened ghosts
+     */
+    public Simulator(String[] layout, long seed) {
+        this(layout, null, seed);
+    }
+
+    /**
+     * @param layout - see SimMaze
+     * @param tables - tables of the layout shared between games, null to
+     * build them
+     * @param seed - for the frightened ghosts
+     */
+    public Simulator(String[] layout, MazeTables tables, long seed) {
+        this.maze = new SimMaze(layout);
+        this.grid = maze.getGrid();
+        this.tables = tables != null ? tables : new MazeTables(grid);
+        this.pac = new SimPac(maze);
+        this.ghosts = new SimGhost[GhostRules.RELEASE.length];
+        for (int i = 0; i < ghosts.length; i++) {
+            ghosts[i] = new SimGhost(maze, i);
+        }
+        this.random = new Random(seed);
+    }
+
+    /**
+     * @param frames - games still running after this many frames are ended
+     */
+    public void setMaxFrames(int frames) {
+        this.maxFrames = frames;
+    }
+
+    public SimMaze getMaze() {
+        return maze;
+    }
+
+    /**
+     * @param layout - see SimMaze
+     * @return the tables of the layout, to share between simulators
+     */
+    public static MazeTables tablesFor(String[] layout) {
+        return new MazeTables(new SimMaze(layout).getGrid());
+    }
+
+    /**
+     * Play one game to the end.
+     *
+     * @param player
+     * @return the outcome
+     */
+    public SimResult play(PacPlayer player) {
+        begin(player);
+        while (frame(player)) {
+        }
+        return result();
+    }
+
+    /**
+     * @return the outcome of the game so far, or of the whole game once
+     * frame returned false
+     */
+    public SimResult result() {
+        return new SimResult(score, level, frames, LIVES - lives, lives > 0,
+                decideNanos, maxDecideNanos);
+    }
+
+    /**
+     * Set up a new game and tell the player about it.
+     *
+     * @param player
+     */
+    public void begin(PacPlayer player) {
+        score = 0;
+        level = 1;
+        lives = LIVES;
+        frames = 0;
+        decideNanos = 0;
+        maxDecideNanos = 0;
+        maze.reset();
+        resetLife();
+        player.startLevel(new MazeGraph(tables, maze.toMatrix()), ghosts, pac);
+        player.startLife(ghosts, pac);
+    }
+
+    /**
+     * Ask the player for a move and play one frame.
+     *
+     * @param player
+     * @return false once the game is over
+     */
+    public boolean frame(PacPlayer player) {
+        if (lives <= 0 || frames >= maxFrames) {
+            return false;
+        }
+        long start = System.nanoTime();
+        MoveDir dir = player.decide(maze, ghosts, score);
+        long took = System.nanoTime() - start;
+        decideNanos += took;
+        maxDecideNanos = Math.max(maxDecideNanos, took);
+        frames++;
+        step(dir == null ? -1 : TileGrid.indexOf(dir));
+        if (collide()) {
+            if (--lives > 0) {
+                resetLife();
+                player.startLife(ghosts, pac);
+            }
+        } else if (maze.getDotsLeft() == 0) {
+            level++;
+            maze.reset();
+            resetLife();
+            player.startLevel(new MazeGraph(tables, maze.toMatrix()), ghosts, pac);
+        }
+        return lives > 0 && frames < maxFrames;
+    }
+
+    public SimGhost[] getGhosts() {
+        return ghosts;
+    }
+
+    public SimPac getPac() {
+        return pac;
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * @return frames since the life started
+     */
+    int getLifeFrame() {
+        return lifeFrame;
+    }
+
+    /**
+     * @return frames into the scatter and chase waves
+     */
+    int getWaveFrame() {
+        return waveFrame;
+    }
+
+    /**
+     * @return ghosts eaten since the last power dot
+     */
+    int getGhostsEaten() {
+        return ghostsEaten;
+    }
+
+    private void resetLife() {
+        pac.reset();
+        for (int i = 0; i < ghosts.length; i++) {
+            ghosts[i].reset(GhostRules.RELEASE[i] * GhostRules.FPS);
+        }
+        lifeFrame = 0;
+        waveFrame = 0;
+    }
+
+    /**
+     * Advance the game by one frame.
+     *
+     * @param wanted - the direction the player asked for, -1 for none
+     */
+    private void step(int wanted) {
+        lifeFrame++;
+        boolean frightened = false;
+        for (SimGhost ghost : ghosts) {
+            frightened |= ghost.isFrightened();
+        }
+        if (!frightened) {
+            // The waves pause while any ghost is frightened
+            waveFrame++;
+            if (GhostRules.isWaveChange(waveFrame)) {
+                for (SimGhost ghost : ghosts) {
+                    ghost.turnAround();
+                }
+            }
+        }
+        if (pac.move(wanted, PacPlayer.pacSpeed / GhostRules.FPS)) {
+            MazeItem item = maze.eat(pac.getTileId());
+            if (item == MazeItem.DOT) {
+                score += GhostRules.DOT_POINTS;
+            } else if (item == SimMaze.POWER) {
+                score += GhostRules.POWER_POINTS;
+                ghostsEaten = 0;
+                for (SimGhost ghost : ghosts) {
+                    ghost.frighten(GhostRules.frightFrames(level));
+                }
+            }
+        }
+        if (collide()) {
+            return;
+        }
+        double speed = PacPlayer.getGhostSpeed(level) / GhostRules.FPS;
+        boolean scatter = GhostRules.isScatter(waveFrame);
+        for (SimGhost ghost : ghosts) {
+            int target = scatter ? GhostRules.scatterTarget(grid, ghost.getNumber())
+                    : GhostRules.chaseTarget(grid, ghost.getNumber(), ghost.getTileId(),
+                            pac.getTileId(), pac.getDirIndex(), ghosts[0].getTileId());
+            ghost.move(lifeFrame, grid.xOf(target), grid.yOf(target),
+                    ghost.isFrightened() ? speed / 2 : speed, random);
+        }
+    }
+
+    /**
+     * Check whether Pacman shares a tile with a ghost, and settle it: a
+     * frightened ghost is eaten, any other one kills Pacman.
+     *
+     * @return true if Pacman died
+     */
+    private boolean collide() {
+        for (SimGhost ghost : ghosts) {
+            if (ghost.getMode() == SimGhost.IN_HOUSE
+                    || ghost.getTileId() != pac.getTileId()) {
+                continue;
+            }
+            if (!ghost.isFrightened()) {
+                return true;
+            }
+            score += GhostRules.GHOST_POINTS << Math.min(ghostsEaten++, 3);
+            ghost.eaten(lifeFrame + GhostRules.EATEN_RELEASE * GhostRules.FPS);
+        }
+        return false;
+    }
+
+    /**
+     * Play games on the classic maze and print each result and the overall
+     * speed.
+     *
+     * @param args - number of games (default 10) and first seed (default 1)
+     */
+    public static void main(String[] args) {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        long frames = 0;
+        long score = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < games; i++) {
+            Simulator simulator = new Simulator(SimMaze.CLASSIC, seed + i);
+            PacPlayer player = new PacPlayer();
+            SimResult result;
+            try {
+                result = simulator.play(player);
+            } finally {
+                player.shutdown();
+            }
+            System.out.println("game " + (seed + i) + ": " + result);
+            frames += result.getFrames();
+            score += result.getScore();
+        }
+        long nanos = Math.max(1, System.nanoTime() - start);
+        System.out.println(games + " games, mean score " + score / Math.max(1, games)
+                + ", " + frames + " frames at " + frames * 1000000L / nanos
+                + " frames/ms");
+    }
+}
@@ -0,0 +1,284 @@
+package Player;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the MazeTables of every maze layout seen, in memory for this run and
+ * in a binary file per layout under a cache directory for later runs. Files
+ * are named by a hash of the layout and memory-mapped when read, so the
+ * distance table stays off the heap and a known layout loads in about the
+ * time it takes to map the file.
+ *
+ * A file is only used if its version, size and full layout fingerprint
+ * match; anything else, or any error reading it, falls back to building the
+ * tables and writing the file again. Mazes too large for a DistanceTable are
+ * only kept in memory, as their ClusterGraph is quick to build.
+ *
+ * The PolicyTable of a layout, solved offline by PolicyTable.main, sits next
+ * to its tables under the same hash. It is never solved here, as that takes
+ * far longer than a level may wait.
+ */
+public class TableCache {
+
+    /**
+     * Format version, to be bumped whenever a table's layout on disk changes
+     */
+    public static final int VERSION = 1;
+    private static final int MAGIC = 0x50414354;
+    private static TableCache defaultCache;
+    private final File dir;
+    private final Map<Long, MazeTables> loaded = new HashMap<Long, MazeTables>();
+    private final Map<Long, PolicyTable> policies = new HashMap<Long, PolicyTable>();
+    private int hits;
+    private int misses;
+
+    /**
+     * @param dir - where the table files go, created when needed
+     */
+    public TableCache(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * @return the cache in mazegraph under the pacman.cachedir system
+     * property, or the game's cachedir
+     */
+    public static synchronized TableCache getDefault() {
+        if (defaultCache == null) {
+            defaultCache = new TableCache(new File(
+                    System.getProperty("pacman.cachedir", "cachedir"), "mazegraph"));
+        }
+        return defaultCache;
+    }
+
+    /**
+     * @param grid
+     * @return the tables of the grid's layout, from memory, from the cache
+     * directory or freshly built
+     */
+    public synchronized MazeTables load(TileGrid grid) {
+        byte[] fingerprint = fingerprint(grid);
+        long hash = hash(grid, fingerprint);
+        MazeTables tables = loaded.get(hash);
+        if (tables != null && Arrays.equals(fingerprint, fingerprint(tables.getGrid()))) {
+            hits++;
+            return tables;
+        }
+        if (!DistanceTable.fits(grid)) {
+            misses++;
+            tables = new MazeTables(grid);
+            loaded.put(hash, tables);
+            return tables;
+        }
+        File file = new File(dir, "tables-" + Long.toHexString(hash) + ".bin");
+        if (file.isFile()) {
+            try {
+                tables = read(file, grid, fingerprint);
+                hits++;
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Table cache " + file + " not used: " + e);
+                tables = null;
+            }
+        }
+        if (tables == null) {
+            misses++;
+            tables = new MazeTables(grid);
+            write(file, tables, fingerprint);
+        }
+        loaded.put(hash, tables);
+        return tables;
+    }
+
+    /**
+     * @param grid
+     * @return the policy table of the grid's layout, from memory or the cache
+     * directory; null if none has been solved for it
+     */
+    public synchronized PolicyTable loadPolicy(TileGrid grid) {
+        byte[] fingerprint = fingerprint(grid);
+        long hash = hash(grid, fingerprint);
+        PolicyTable policy = policies.get(hash);
+        if (policy != null && Arrays.equals(fingerprint, fingerprint(policy.getGrid()))) {
+            return policy;
+        }
+        File file = policyFile(hash);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            policy = PolicyTable.read(file, grid, fingerprint);
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Policy " + file + " not used: " + e);
+            return null;
+        }
+        policies.put(hash, policy);
+        return policy;
+    }
+
+    /**
+     * Write a policy table where loadPolicy finds it.
+     *
+     * @param policy
+     * @return the file written
+     * @throws IOException
+     */
+    public synchronized File writePolicy(PolicyTable policy) throws IOException {
+        byte[] fingerprint = fingerprint(policy.getGrid());
+        long hash = hash(policy.getGrid(), fingerprint);
+        File file = policyFile(hash);
+        policy.write(file, fingerprint);
+        policies.put(hash, policy);
+        return file;
+    }
+
+    private File policyFile(long hash) {
+        return new File(dir, "policy-" + Long.toHexString(hash) + ".bin");
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    /**
+     * One byte per tile holding everything the tables are built from
+     */
+    private static byte[] fingerprint(TileGrid grid) {
+        byte[] flags = new byte[grid.size()];
+        for (int tile = 0; tile < grid.size(); tile++) {
+            flags[tile] = (byte) ((grid.isWalkable(tile) ? 1 : 0)
+                    | (grid.isTeleport(tile) ? 2 : 0)
+                    | (grid.isAccessible(tile) ? 4 : 0)
+                    | (grid.isIntersection(tile) ? 8 : 0)
+                    | (grid.isDeadEnd(tile) ? 16 : 0)
+                    | (grid.isCorner(tile) ? 32 : 0));
+        }
+        return flags;
+    }
+
+    /**
+     * 64 bit FNV-1a of the size and fingerprint
+     */
+    private static long hash(TileGrid grid, byte[] fingerprint) {
+        long hash = 0xcbf29ce484222325L;
+        hash = (hash ^ grid.getWidth()) * 0x100000001b3L;
+        hash = (hash ^ grid.getHeight()) * 0x100000001b3L;
+        for (byte b : fingerprint) {
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static MazeTables read(File file, TileGrid grid, byte[] fingerprint)
+            throws IOException {
+        MappedByteBuffer in;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            // The mapping stays valid after the file is closed
+            in = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        }
+        if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+            throw new IOException("not a table file of version " + VERSION);
+        }
+        if (in.getInt() != grid.getWidth() || in.getInt() != grid.getHeight()
+                || in.getInt() != fingerprint.length) {
+            throw new IOException("table file is for another maze");
+        }
+        byte[] stored = new byte[fingerprint.length];
+        in.get(stored);
+        if (!Arrays.equals(stored, fingerprint)) {
+            throw new IOException("table file is for another maze");
+        }
+        DistanceTable distances = new DistanceTable(grid, in);
+        CorridorMap corridors = new CorridorMap(grid, in);
+        JunctionGraph junctions = new JunctionGraph(grid, in);
+        if (in.getInt() != MAGIC || in.hasRemaining()) {
+            throw new IOException("table file is truncated");
+        }
+        return new MazeTables(grid, distances, corridors, junctions);
+    }
+
+    /**
+     * Write the tables to a temporary file and move it into place, so other
+     * runs never see a half written file. Failing to write only loses the
+     * cache.
+     */
+    private static void write(File file, MazeTables tables, byte[] fingerprint) {
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            return;
+        }
+        File tmp = null;
+        try {
+            tmp = File.createTempFile("tables", ".tmp", dir);
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+                TileGrid grid = tables.getGrid();
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(grid.getWidth());
+                out.writeInt(grid.getHeight());
+                out.writeInt(fingerprint.length);
+                out.write(fingerprint);
+                ((DistanceTable) tables.getDistances()).write(out);
+                tables.getCorridors().write(out);
+                tables.getJunctions().write(out);
+                out.writeInt(MAGIC);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            tmp = null;
+        } catch (IOException e) {
+            System.out.println("Table cache " + file + " not written: " + e);
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * @param in - positioned at an array written by writeInts; left after it
+     * @return the array
+     */
+    static int[] readInts(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0 || length > in.remaining() / 4) {
+            throw new IllegalArgumentException("bad array length " + length);
+        }
+        int[] values = new int[length];
+        IntBuffer ints = in.asIntBuffer();
+        ints.get(values);
+        in.position(in.position() + 4 * length);
+        return values;
+    }
+
+    /**
+     * @param out
+     * @param values - written with their length
+     * @throws IOException
+     */
+    static void writeInts(DataOutput out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "table cache " + dir + ": " + hits + " hits, " + misses + " misses";
+    }
+}
@@ -0,0 +1,234 @@
+package Player;
+
+import java.awt.Point;
+import java.util.List;
+
+/**
+ * Earliest time any dangerous ghost can arrive at each tile. The field is
+ * rebuilt once per frame with a single breadth first search seeded with all
+ * dangerous ghosts at once, after which checking a path against every ghost
+ * is one scan along the path.
+ *
+ * Times are in 1/TIME_SCALE of the unit the speeds are given in, so a ghost
+ * with speed s needs TIME_SCALE / s per tile.
+ */
+public class ThreatField implements TileGate {
+
+    public static final int TIME_SCALE = 1000;
+    /**
+     * Arrival time of tiles no dangerous ghost can reach
+     */
+    public static final int NEVER = Integer.MAX_VALUE;
+    private final TileGrid grid;
+    private final TileSearch search;
+    private int ghostStepTime = TIME_SCALE;
+    private int ghosts;
+    // Tiles of the dangerous ghosts
+    private int[] ghostTiles = new int[4];
+    // Time Pacman needs per tile, and how far ahead of the ghosts he must be
+    private final int pacStepTime;
+    private final int slack;
+    // Frightened ghosts this close to recovering count as dangerous
+    private final int dangerFrames;
+
+    /**
+     * @param grid
+     * @param pacSpeed - tiles per time unit of Pacman
+     * @param margin - extra time, in time units, Pacman must be ahead by
+     */
+    public ThreatField(TileGrid grid, double pacSpeed, double margin) {
+        this(grid, pacSpeed, margin, 5);
+    }
+
+    /**
+     * @param grid
+     * @param pacSpeed - tiles per time unit of Pacman
+     * @param margin - extra time, in time units, Pacman must be ahead by
+     * @param dangerFrames - frightened ghosts recovering in fewer frames than
+     * this are dangerous
+     */
+    public ThreatField(TileGrid grid, double pacSpeed, double margin, int dangerFrames) {
+        this.grid = grid;
+        this.search = new TileSearch(grid);
+        this.pacStepTime = (int) Math.round(TIME_SCALE / pacSpeed);
+        this.slack = (int) Math.round(margin * TIME_SCALE);
+        this.dangerFrames = dangerFrames;
+    }
+
+    /**
+     * @param ghost
+     * @return true if the ghost can kill Pacman, i.e. it isn't frightened or
+     * is about to recover
+     */
+    public boolean isDangerous(GhostView ghost) {
+        return !ghost.isFrightened() || ghost.framesTillRecover() < dangerFrames;
+    }
+
+    /**
+     * Rebuild the field from the dangerous ghosts.
+     *
+     * @param ghosts - all ghosts; the ones that are not dangerous are skipped
+     * @param ghostSpeed - tiles per time unit of the ghosts
+     */
+    public void update(GhostView[] ghosts, double ghostSpeed) {
+        track(ghosts, ghostSpeed);
+        search.reset();
+        for (int i = 0; i < this.ghosts; i++) {
+            search.addSource(ghostTiles[i]);
+        }
+        search.run(-1, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Note where the dangerous ghosts are without building the field, which
+     * is enough for isSafe on a route. The field itself keeps the arrival
+     * times of the last update.
+     *
+     * @param ghosts - all ghosts; the ones that are not dangerous are skipped
+     * @param ghostSpeed - tiles per time unit of the ghosts
+     */
+    public void track(GhostView[] ghosts, double ghostSpeed) {
+        if (ghostTiles.length < ghosts.length) {
+            ghostTiles = new int[ghosts.length];
+        }
+        this.ghosts = 0;
+        for (GhostView ghost : ghosts) {
+            if (isDangerous(ghost)) {
+                ghostTiles[this.ghosts++] = grid.tileAt(ghost.getTileX(), ghost.getTileY());
+            }
+        }
+        this.ghostStepTime = (int) Math.round(TIME_SCALE / ghostSpeed);
+    }
+
+    /**
+     * @param tile
+     * @return the earliest time a dangerous ghost can be on the tile, NEVER
+     * if none can get there
+     */
+    public int arrival(int tile) {
+        int depth = search.depthOf(tile);
+        return depth < 0 ? NEVER : depth * ghostStepTime;
+    }
+
+    /**
+     * The tiles Pacman can get to before the dangerous ghosts of the last
+     * track or update, by bitboard flood fill; the same tiles a search gated
+     * by this field visits, without the search.
+     *
+     * @param bits - the maze's bitboard
+     * @param pacTile
+     * @param maxSteps - the furthest Pacman may go
+     * @param goals - tiles to stop the fill at, null for none
+     * @param out - receives the tiles
+     * @return the steps the region took to fill
+     */
+    public int safeRegion(BitBoard bits, int pacTile, int maxSteps, long[] goals, long[] out) {
+        return bits.safeRegion(pacTile, ghostTiles, ghosts, pacStepTime, ghostStepTime,
+                slack, maxSteps, goals, out);
+    }
+
+    public TileSearch getSearch() {
+        return search;
+    }
+
+    /**
+     * @return the number of dangerous ghosts in the field
+     */
+    public int getGhosts() {
+        return ghosts;
+    }
+
+    /**
+     * Pacman may enter a tile if he gets there before any dangerous ghost,
+     * with the margin to spare.
+     *
+     * @param tile
+     * @param depth - steps Pacman needs to get to the tile
+     * @return true if the tile is safe at that time
+     */
+    @Override
+    public boolean allows(int tile, int depth) {
+        int arrival = arrival(tile);
+        return arrival == NEVER || arrival >= depth * pacStepTime + slack;
+    }
+
+    /**
+     * The same as allows without the margin, for tiles further ahead where
+     * the margin has been paid already.
+     *
+     * @param tile
+     * @param depth - steps Pacman needs to get to the tile
+     * @return true if Pacman gets there no later than any dangerous ghost
+     */
+    public boolean isAhead(int tile, int depth) {
+        int arrival = arrival(tile);
+        return arrival == NEVER || arrival >= depth * pacStepTime;
+    }
+
+    /**
+     * Check that Pacman gets to every tile of the path before any dangerous
+     * ghost does.
+     *
+     * @param path - tiles from Pacman (exclusive) to the goal (inclusive)
+     * @return true if no dangerous ghost can cut the path
+     */
+    public boolean isSafe(List<Point> path) {
+        for (int i = 0; i < path.size(); i++) {
+            Point p = path.get(i);
+            if (!allows(grid.tileAt(p.x, p.y), i + 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The same check as allows on every tile of a route, but against the
+     * ghosts of the last track or update by table lookups, so it costs the
+     * route's length times the number of ghosts and no search.
+     *
+     * @param route - tile ids
+     * @param from - the first tile still ahead of Pacman
+     * @param to - the end of the route (exclusive)
+     * @param distances - the maze's distances, whose walkable tiles are the
+     * ones the field searches
+     * @return true if no dangerous ghost can cut the rest of the route
+     */
+    public boolean isSafe(int[] route, int from, int to, MazeDistances distances) {
+        for (int g = 0; g < ghosts; g++) {
+            int ghost = ghostTiles[g];
+            for (int i = from; i < to; i++) {
+                int steps = ghostSteps(ghost, route[i], distances);
+                if (steps != DistanceTable.UNREACHABLE
+                        && steps * ghostStepTime < (i - from + 1) * pacStepTime + slack) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return steps from a ghost to a tile, also for a ghost on a tile the
+     * table doesn't cover, such as the door
+     */
+    private int ghostSteps(int ghost, int tile, MazeDistances distances) {
+        if (ghost < 0) {
+            return DistanceTable.UNREACHABLE;
+        }
+        if (distances.contains(ghost)) {
+            return distances.distance(ghost, tile);
+        }
+        if (ghost == tile) {
+            return 0;
+        }
+        int best = DistanceTable.UNREACHABLE;
+        for (int d = 0; d < TileGrid.DIRS; d++) {
+            int next = grid.neighbour(ghost, d);
+            if (next >= 0) {
+                best = Math.min(best, distances.distance(next, tile) + 1);
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,13 @@
+package Player;
+
+/**
+ * A set of tiles, used as the goals of a target search.
+ */
+public interface TileFilter {
+
+    /**
+     * @param tile - a tile id
+     * @return true if the tile is in the set
+     */
+    boolean accept(int tile);
+}
@@ -0,0 +1,14 @@
+package Player;
+
+/**
+ * Decides which tiles a search may step on, and when.
+ */
+public interface TileGate {
+
+    /**
+     * @param tile - a tile id
+     * @param depth - number of steps it takes to get to the tile
+     * @return true if the search may enter the tile at that depth
+     */
+    boolean allows(int tile, int depth);
+}
@@ -0,0 +1,333 @@
+package Player;
+
+import com.orbischallenge.pacman.api.common.*;
+import com.orbischallenge.pacman.api.java.*;
+import java.awt.Point;
+import java.util.Arrays;
+
+/**
+ * Primitive model of the maze layout. Every tile is addressed by an int id
+ * (y * width + x), tile properties are kept in bitsets and the four
+ * neighbours of every tile are precomputed, so searches never have to touch
+ * Point objects or the MazeItem matrix.
+ *
+ * A TileGrid never changes after it is built and can be shared freely.
+ */
+public class TileGrid {
+
+    /**
+     * Number of move directions
+     */
+    public static final int DIRS = 4;
+    // Direction vectors, in the order searches try them: left, right, up,
+    // down
+    static final int[] DX = {-1, 1, 0, 0};
+    static final int[] DY = {0, 0, -1, 1};
+    // MoveDir of each direction index
+    private static final MoveDir[] MOVES = new MoveDir[DIRS];
+
+    static {
+        for (int d = 0; d < DIRS; d++) {
+            MOVES[d] = JUtil.getMoveDir(new Point(DX[d], DY[d]));
+        }
+    }
+    private final int width;
+    private final int height;
+    // Tiles a path search may step on (no walls, doors or teleports)
+    private final long[] walkable;
+    // Teleport tiles at the ends of the tunnel
+    private final long[] teleport;
+    // Tiles the game considers accessible, and its node classification
+    private final long[] accessible;
+    private final long[] intersection;
+    private final long[] deadEnd;
+    private final long[] corner;
+    // Walkable neighbour of every tile in every direction, at
+    // [tile * DIRS + d], -1 if there is none
+    private final int[] neighbours;
+
+    /**
+     * Build the grid of a maze from the game, using the game's own idea of
+     * accessible tiles, intersections, dead ends and corners.
+     *
+     * @param maze
+     */
+    public TileGrid(Maze maze) {
+        this(maze.toMatrix(), maze);
+    }
+
+    /**
+     * Build the grid from a maze matrix alone. Intersections, dead ends and
+     * corners are derived from the number of walkable neighbours.
+     *
+     * @param matrix - the maze items, indexed [y][x]
+     */
+    public TileGrid(MazeItem[][] matrix) {
+        this(matrix, null);
+    }
+
+    private TileGrid(MazeItem[][] matrix, Maze maze) {
+        this.height = matrix.length;
+        this.width = height > 0 ? matrix[0].length : 0;
+        int words = (width * height + 63) >>> 6;
+        this.walkable = new long[words];
+        this.teleport = new long[words];
+        this.accessible = new long[words];
+        this.intersection = new long[words];
+        this.deadEnd = new long[words];
+        this.corner = new long[words];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (isPassable(matrix[y][x])) {
+                    set(walkable, y * width + x);
+                }
+                put(teleport, y * width + x, matrix[y][x] == MazeItem.TELEPORT);
+            }
+        }
+        this.neighbours = new int[width * height * DIRS];
+        for (int tile = 0; tile < width * height; tile++) {
+            for (int d = 0; d < DIRS; d++) {
+                int next = step(tile, d);
+                neighbours[tile * DIRS + d] = next >= 0 && get(walkable, next)
+                        ? next : -1;
+            }
+        }
+        for (int tile = 0; tile < width * height; tile++) {
+            if (maze != null) {
+                Point p = new Point(tile % width, tile / width);
+                put(accessible, tile, maze.isAccessible(p));
+                put(intersection, tile, maze.isIntersection(p));
+                put(deadEnd, tile, maze.isDeadEnd(p));
+                put(corner, tile, maze.isCorner(p));
+            } else if (get(walkable, tile)) {
+                set(accessible, tile);
+                int exits = 0;
+                for (int d = 0; d < DIRS; d++) {
+                    if (neighbours[tile * DIRS + d] >= 0) {
+                        exits++;
+                    }
+                }
+                boolean straight = (neighbours[tile * DIRS] >= 0 && neighbours[tile * DIRS + 1] >= 0)
+                        || (neighbours[tile * DIRS + 2] >= 0 && neighbours[tile * DIRS + 3] >= 0);
+                put(intersection, tile, exits >= 3);
+                put(deadEnd, tile, exits == 1);
+                put(corner, tile, exits == 2 && !straight);
+            }
+        }
+    }
+
+    /**
+     * @param item
+     * @return true if a path search may step onto a tile holding this item
+     */
+    public static boolean isPassable(MazeItem item) {
+        return item != MazeItem.WALL && item != MazeItem.DOOR
+                && item != MazeItem.TELEPORT;
+    }
+
+    private static boolean get(long[] bits, int tile) {
+        return (bits[tile >>> 6] & (1L << tile)) != 0;
+    }
+
+    private static void set(long[] bits, int tile) {
+        bits[tile >>> 6] |= 1L << tile;
+    }
+
+    private static void put(long[] bits, int tile, boolean value) {
+        if (value) {
+            set(bits, tile);
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return number of tile ids, walkable or not
+     */
+    public int size() {
+        return width * height;
+    }
+
+    /**
+     * @param x
+     * @param y
+     * @return the tile id of (x, y), or -1 if it is outside of the maze
+     */
+    public int tileAt(int x, int y) {
+        if (x < 0 || x >= width || y < 0 || y >= height) {
+            return -1;
+        }
+        return y * width + x;
+    }
+
+    public int xOf(int tile) {
+        return tile % width;
+    }
+
+    public int yOf(int tile) {
+        return tile / width;
+    }
+
+    public Point toPoint(int tile) {
+        return new Point(tile % width, tile / width);
+    }
+
+    /**
+     * @param tile
+     * @param d - direction index
+     * @return the tile next to the given one in that direction, walkable or
+     * not, or -1 if it is outside of the maze
+     */
+    public int step(int tile, int d) {
+        return tileAt(tile % width + DX[d], tile / width + DY[d]);
+    }
+
+    /**
+     * @param tile
+     * @param d - direction index
+     * @return the walkable tile next to the given one, or -1
+     */
+    public int neighbour(int tile, int d) {
+        return neighbours[tile * DIRS + d];
+    }
+
+    public boolean isWalkable(int tile) {
+        return tile >= 0 && get(walkable, tile);
+    }
+
+    public boolean isTeleport(int tile) {
+        return tile >= 0 && get(teleport, tile);
+    }
+
+    public boolean isAccessible(int tile) {
+        return tile >= 0 && get(accessible, tile);
+    }
+
+    public boolean isIntersection(int tile) {
+        return tile >= 0 && get(intersection, tile);
+    }
+
+    public boolean isDeadEnd(int tile) {
+        return tile >= 0 && get(deadEnd, tile);
+    }
+
+    public boolean isCorner(int tile) {
+        return tile >= 0 && get(corner, tile);
+    }
+
+    /**
+     * @param tile
+     * @return true if the tile is a node of the maze graph, i.e. an
+     * intersection or a dead end
+     */
+    public boolean isNode(int tile) {
+        return isIntersection(tile) || isDeadEnd(tile);
+    }
+
+    /**
+     * Walk from a tile to the next intersection or dead end, turning at
+     * corners.
+     *
+     * @param tile - the starting tile id
+     * @param d - direction index to leave the tile in
+     * @param out - receives the path, must hold size() tiles
+     * @return the number of tiles in the path, from the current tile
+     * (exclusive) to the nearest node tile (inclusive)
+     */
+    public int walkToNode(int tile, int d, int[] out) {
+        int length = 0;
+        if (tile < 0 || d < 0) {
+            return length;
+        }
+        int nextTile = step(tile, d);
+        // A loop without any node would never end, so stop once every tile
+        // could have been visited
+        while (isAccessible(nextTile) && length < out.length) {
+            out[length++] = nextTile; // move to the next tile
+            if (isIntersection(nextTile)) {
+                return length;
+            }
+            if (isCorner(nextTile)) {
+                // Turn corner, get the updated direction
+                d = turnCorner(nextTile, d);
+            }
+            // Move to the next tile to the new location
+            nextTile = step(nextTile, d);
+        }
+        return length;
+    }
+
+    /**
+     * Turn direction at a corner tile
+     *
+     * @param cornerTile - This given tile must be a corner tile
+     * @param d - the current direction index
+     * @return the new direction index
+     */
+    private int turnCorner(int cornerTile, int d) {
+        for (int per = 0; per < DIRS; per++) {
+            // Perpendicular directions are the ones in the other pair
+            if ((per >> 1) != (d >> 1) && isAccessible(step(cornerTile, per))) {
+                return per;
+            }
+        }
+        return d;
+    }
+
+    /**
+     * @return a copy of the walkable tile bitset
+     */
+    public long[] walkableBits() {
+        return Arrays.copyOf(walkable, walkable.length);
+    }
+
+    /**
+     * @param d - direction index
+     * @return the direction index pointing the other way
+     */
+    public static int opposite(int d) {
+        return d ^ 1;
+    }
+
+    /**
+     * @param d - direction index
+     * @return the MoveDir of the direction
+     */
+    public static MoveDir toMoveDir(int d) {
+        return MOVES[d];
+    }
+
+    /**
+     * @param dir
+     * @return the direction index of the MoveDir, -1 if it isn't a move
+     */
+    public static int indexOf(MoveDir dir) {
+        for (int d = 0; d < DIRS; d++) {
+            if (MOVES[d] == dir) {
+                return d;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param from
+     * @param to - a tile next to from
+     * @return the direction index leading from one tile to the other, -1 if
+     * they are not neighbours
+     */
+    public int dirBetween(int from, int to) {
+        for (int d = 0; d < DIRS; d++) {
+            if (step(from, d) == to) {
+                return d;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,234 @@
+package Player;
+
+import java.util.Arrays;
+
+/**
+ * Reusable breadth first search over a TileGrid. The queue is an int ring
+ * buffer and visited tiles are marked with a generation stamp, so starting a
+ * new search only bumps a counter and a search allocates nothing.
+ *
+ * A TileSearch holds scratch state and must not be shared between threads.
+ */
+public class TileSearch {
+
+    private final TileGrid grid;
+    private final int[] queue;
+    private final int mask;
+    // Generation in which the tile was last visited
+    private final int[] stamp;
+    private final int[] parent;
+    private final int[] depth;
+    private int generation;
+    private int head;
+    private int tail;
+    // Tiles taken off the queue since the last reset
+    private int expanded;
+    // Searches started and tiles expanded before the current search, ever
+    private long searches;
+    private long expandedBefore;
+
+    public TileSearch(TileGrid grid) {
+        this.grid = grid;
+        int capacity = Integer.highestOneBit(Math.max(1, grid.size()));
+        if (capacity < grid.size()) {
+            capacity <<= 1;
+        }
+        this.queue = new int[capacity];
+        this.mask = capacity - 1;
+        this.stamp = new int[grid.size()];
+        this.parent = new int[grid.size()];
+        this.depth = new int[grid.size()];
+    }
+
+    public TileGrid getGrid() {
+        return grid;
+    }
+
+    /**
+     * Forget the previous search and start a new one with no sources.
+     */
+    public void reset() {
+        generation++;
+        if (generation == 0) {
+            // The stamp wrapped around, old stamps could look current
+            Arrays.fill(stamp, 0);
+            generation = 1;
+        }
+        head = 0;
+        tail = 0;
+        searches++;
+        expandedBefore += expanded;
+        expanded = 0;
+    }
+
+    /**
+     * Add a starting tile of the search. The tile doesn't have to be
+     * walkable itself.
+     *
+     * @param tile
+     */
+    public void addSource(int tile) {
+        if (tile >= 0 && stamp[tile] != generation) {
+            visit(tile, -1, 0);
+        }
+    }
+
+    private void visit(int tile, int from, int steps) {
+        stamp[tile] = generation;
+        parent[tile] = from;
+        depth[tile] = steps;
+        queue[tail++ & mask] = tile;
+    }
+
+    /**
+     * Expand the search until the goal is visited, the queue runs dry or all
+     * tiles within maxDepth steps have been visited.
+     *
+     * @param goal - tile to stop at, -1 to flood everything in range
+     * @param maxDepth - the furthest distance to explore
+     * @return the distance to the goal, or -1 if it wasn't reached
+     */
+    public int run(int goal, int maxDepth) {
+        if (goal >= 0 && stamp[goal] == generation) {
+            return depth[goal];
+        }
+        while (head != tail) {
+            int curr = queue[head++ & mask];
+            expanded++;
+            int steps = depth[curr] + 1;
+            if (steps > maxDepth) {
+                continue;
+            }
+            for (int d = 0; d < TileGrid.DIRS; d++) {
+                int next = grid.neighbour(curr, d);
+                if (next >= 0 && stamp[next] != generation) {
+                    visit(next, curr, steps);
+                    if (next == goal) {
+                        return steps;
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Search outwards from start for the nearest tiles in a goal set, only
+     * stepping on tiles the gate allows. Stops as soon as k goals are found,
+     * so a near goal costs only the tiles closer than it.
+     *
+     * @param start
+     * @param goals - the tiles to look for; the start itself never counts
+     * @param gate - tiles the search may enter, null to allow all
+     * @param k - the number of goals wanted
+     * @param maxDepth - the furthest distance to explore
+     * @param out - receives the goals found, nearest first
+     * @return the number of goals found; their paths are available through
+     * pathTo until the next search
+     */
+    public int findTargets(int start, TileFilter goals, TileGate gate, int k,
+            int maxDepth, int[] out) {
+        reset();
+        addSource(start);
+        int found = 0;
+        while (head != tail && found < k) {
+            int curr = queue[head++ & mask];
+            expanded++;
+            int steps = depth[curr] + 1;
+            if (steps > maxDepth) {
+                continue;
+            }
+            for (int d = 0; d < TileGrid.DIRS; d++) {
+                int next = grid.neighbour(curr, d);
+                if (next >= 0 && stamp[next] != generation
+                        && (gate == null || gate.allows(next, steps))) {
+                    visit(next, curr, steps);
+                    if (goals.accept(next)) {
+                        out[found++] = next;
+                        if (found == k) {
+                            return found;
+                        }
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Single source, single goal search.
+     *
+     * @param start
+     * @param goal
+     * @return the distance from start to goal, or -1 if it can't be reached
+     */
+    public int search(int start, int goal) {
+        reset();
+        addSource(start);
+        return run(goal, Integer.MAX_VALUE);
+    }
+
+    public boolean isVisited(int tile) {
+        return tile >= 0 && stamp[tile] == generation;
+    }
+
+    /**
+     * @param tile
+     * @return distance of the tile from the nearest source, -1 if the last
+     * search didn't visit it
+     */
+    public int depthOf(int tile) {
+        return isVisited(tile) ? depth[tile] : -1;
+    }
+
+    /**
+     * @param tile
+     * @return the tile the search came from, -1 for sources and tiles that
+     * weren't visited
+     */
+    public int parentOf(int tile) {
+        return isVisited(tile) ? parent[tile] : -1;
+    }
+
+    /**
+     * Copy the path found to a visited tile.
+     *
+     * @param goal - a visited tile
+     * @param out - receives the tiles from the source (exclusive) to the goal
+     * (inclusive); must hold depthOf(goal) tiles
+     * @return the number of tiles written
+     */
+    public int pathTo(int goal, int[] out) {
+        int length = depthOf(goal);
+        if (length <= 0) {
+            return 0;
+        }
+        int tile = goal;
+        for (int i = length - 1; i >= 0; i--) {
+            out[i] = tile;
+            tile = parent[tile];
+        }
+        return length;
+    }
+
+    /**
+     * @return the number of tiles expanded since the last reset
+     */
+    public int getExpanded() {
+        return expanded;
+    }
+
+    /**
+     * @return the number of searches started on this TileSearch
+     */
+    public long getSearches() {
+        return searches;
+    }
+
+    /**
+     * @return the number of tiles expanded by all searches so far
+     */
+    public long getTotalExpanded() {
+        return expandedBefore + expanded;
+    }
+}
@@ -0,0 +1,55 @@
+package Player;
+
+import java.util.Arrays;
+
+/**
+ * A mutable bitset of tile ids.
+ */
+public class TileSet implements TileFilter {
+
+    private final long[] bits;
+
+    /**
+     * @param size - number of tile ids
+     */
+    public TileSet(int size) {
+        this.bits = new long[(size + 63) >>> 6];
+    }
+
+    public void clear() {
+        Arrays.fill(bits, 0);
+    }
+
+    /**
+     * @param tile - a tile id, ignored if negative
+     */
+    public void add(int tile) {
+        if (tile >= 0) {
+            bits[tile >>> 6] |= 1L << tile;
+        }
+    }
+
+    public void remove(int tile) {
+        if (tile >= 0) {
+            bits[tile >>> 6] &= ~(1L << tile);
+        }
+    }
+
+    public boolean contains(int tile) {
+        return tile >= 0 && (bits[tile >>> 6] & (1L << tile)) != 0;
+    }
+
+    public boolean isEmpty() {
+        for (long word : bits) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean accept(int tile) {
+        return contains(tile);
+    }
+}
@@ -0,0 +1,326 @@
+package Player;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Batch evaluation of PacPlayer: many headless games in parallel on a fork
+ * join pool, one PacPlayer and Simulator per game. The layout's MazeTables
+ * are built once and shared by every game. Every config plays the same
+ * seeds, so differences between configs aren't down to luck of the ghosts.
+ */
+public class Tournament {
+
+    private final String[] layout;
+    private final MazeTables tables;
+    private final ForkJoinPool pool;
+    private int maxFrames = GhostRules.FPS * 60 * 10;
+
+    /**
+     * @param layout - see SimMaze
+     * @param threads - number of games played at once
+     */
+    public Tournament(String[] layout, int threads) {
+        this.layout = layout;
+        this.tables = Simulator.tablesFor(layout);
+        this.pool = new ForkJoinPool(threads);
+    }
+
+    /**
+     * @param frames - games still running after this many frames are ended
+     */
+    public void setMaxFrames(int frames) {
+        this.maxFrames = frames;
+    }
+
+    /**
+     * Play every config on the same seeds.
+     *
+     * @param configs
+     * @param firstSeed - seeds are firstSeed .. firstSeed + games - 1
+     * @param games - games per config
+     * @return the results of each config
+     */
+    public List<Summary> run(List<PlayerConfig> configs, long firstSeed, int games) {
+        SimResult[][] results = new SimResult[configs.size()][games];
+        pool.invoke(new Games(configs, firstSeed, results, 0, configs.size() * games));
+        List<Summary> summaries = new ArrayList<Summary>(configs.size());
+        for (int c = 0; c < configs.size(); c++) {
+            summaries.add(new Summary(configs.get(c), results[c]));
+        }
+        return summaries;
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Plays games lo .. hi - 1, game i being config i / games on seed
+     * firstSeed + i % games, splitting in halves down to single games.
+     */
+    private class Games extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+        private final List<PlayerConfig> configs;
+        private final long firstSeed;
+        private final SimResult[][] results;
+        private final int lo;
+        private final int hi;
+
+        Games(List<PlayerConfig> configs, long firstSeed, SimResult[][] results,
+                int lo, int hi) {
+            this.configs = configs;
+            this.firstSeed = firstSeed;
+            this.results = results;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > 1) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new Games(configs, firstSeed, results, lo, mid),
+                        new Games(configs, firstSeed, results, mid, hi));
+                return;
+            }
+            int games = results[0].length;
+            int config = lo / games;
+            int game = lo % games;
+            Simulator simulator = new Simulator(layout, tables, firstSeed + game);
+            simulator.setMaxFrames(maxFrames);
+            PacPlayer player = new PacPlayer(configs.get(config));
+            try {
+                results[config][game] = simulator.play(player);
+            } finally {
+                player.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Every combination of the given values.
+     *
+     * @param base - values of the settings that aren't swept
+     * @param axes - setting name to the values to try
+     * @return one config per combination
+     */
+    public static List<PlayerConfig> sweep(PlayerConfig base, Map<String, double[]> axes) {
+        List<PlayerConfig> configs = new ArrayList<PlayerConfig>();
+        configs.add(new PlayerConfig(base));
+        for (Map.Entry<String, double[]> axis : axes.entrySet()) {
+            List<PlayerConfig> next = new ArrayList<PlayerConfig>();
+            for (PlayerConfig config : configs) {
+                for (double value : axis.getValue()) {
+                    PlayerConfig copy = new PlayerConfig(config);
+                    copy.set(axis.getKey(), value);
+                    next.add(copy);
+                }
+            }
+            configs = next;
+        }
+        return configs;
+    }
+
+    /**
+     * Score, survival and latency distribution of one config.
+     */
+    public static class Summary {
+
+        public static final String CSV_HEADER = "games,score_mean,score_sd,"
+                + "score_p10,score_p50,score_p90,level_mean,frames_mean,frames_p50,"
+                + "lives_lost_mean,timed_out,decide_mean_us,decide_max_p50_us,"
+                + "decide_max_p99_us,decide_max_us";
+        private final PlayerConfig config;
+        private final SimResult[] results;
+        private final long[] scores;
+        private final long[] frames;
+        private final long[] maxDecide;
+
+        public Summary(PlayerConfig config, SimResult[] results) {
+            this.config = config;
+            this.results = results;
+            this.scores = new long[results.length];
+            this.frames = new long[results.length];
+            this.maxDecide = new long[results.length];
+            for (int i = 0; i < results.length; i++) {
+                scores[i] = results[i].getScore();
+                frames[i] = results[i].getFrames();
+                maxDecide[i] = results[i].getMaxDecideNanos();
+            }
+            Arrays.sort(scores);
+            Arrays.sort(frames);
+            Arrays.sort(maxDecide);
+        }
+
+        public PlayerConfig getConfig() {
+            return config;
+        }
+
+        public SimResult[] getResults() {
+            return results;
+        }
+
+        public double getMeanScore() {
+            return mean(scores);
+        }
+
+        /**
+         * @param q - between 0 and 1
+         * @return the score below which that fraction of games ended
+         */
+        public long getScoreQuantile(double q) {
+            return quantile(scores, q);
+        }
+
+        private static double mean(long[] values) {
+            double sum = 0;
+            for (long value : values) {
+                sum += value;
+            }
+            return values.length == 0 ? 0 : sum / values.length;
+        }
+
+        private static long quantile(long[] sorted, double q) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(q * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, rank))];
+        }
+
+        /**
+         * @return the config's values followed by the statistics
+         */
+        public String toCsv() {
+            double mean = getMeanScore();
+            double squares = 0;
+            double levels = 0;
+            double livesLost = 0;
+            int timedOut = 0;
+            long decideNanos = 0;
+            long decisions = 0;
+            for (SimResult result : results) {
+                squares += (result.getScore() - mean) * (result.getScore() - mean);
+                levels += result.getLevel();
+                livesLost += result.getLivesLost();
+                timedOut += result.isTimedOut() ? 1 : 0;
+                decideNanos += result.getDecideNanos();
+                decisions += result.getFrames();
+            }
+            int n = Math.max(1, results.length);
+            return config.toCsv() + "," + results.length + ","
+                    + String.format("%.1f,%.1f", mean, Math.sqrt(squares / n)) + ","
+                    + quantile(scores, 0.1) + "," + quantile(scores, 0.5) + ","
+                    + quantile(scores, 0.9) + ","
+                    + String.format("%.2f,%.1f", levels / n, mean(frames)) + ","
+                    + quantile(frames, 0.5) + ","
+                    + String.format("%.2f", livesLost / n) + "," + timedOut + ","
+                    + decideNanos / Math.max(1, decisions) / 1000 + ","
+                    + quantile(maxDecide, 0.5) / 1000 + ","
+                    + quantile(maxDecide, 0.99) / 1000 + ","
+                    + quantile(maxDecide, 1) / 1000;
+        }
+    }
+
+    /**
+     * Write one row per config.
+     *
+     * @param summaries
+     * @param out
+     */
+    public static void writeCsv(List<Summary> summaries, Writer out) {
+        PrintWriter writer = new PrintWriter(out);
+        StringBuilder header = new StringBuilder();
+        for (String name : PlayerConfig.NAMES) {
+            header.append(name).append(',');
+        }
+        writer.println(header + Summary.CSV_HEADER);
+        for (Summary summary : summaries) {
+            writer.println(summary.toCsv());
+        }
+        writer.flush();
+    }
+
+    /**
+     * Run a tournament on the classic maze and write the results as CSV.
+     *
+     * Arguments are name=value pairs: games (default 100), seed (1), threads
+     * (all cores), frames (game length limit), out (CSV file, default
+     * standard output), and any PlayerConfig setting with a comma separated
+     * list of values to sweep, e.g. safetyMargin=0.25,0.5,1
+     *
+     * @param args
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        int games = 100;
+        long seed = 1;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int frames = -1;
+        String out = null;
+        Map<String, double[]> axes = new LinkedHashMap<String, double[]>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("expected name=value, got " + arg);
+            }
+            String name = arg.substring(0, eq);
+            String value = arg.substring(eq + 1);
+            switch (name) {
+                case "games":
+                    games = Integer.parseInt(value);
+                    break;
+                case "seed":
+                    seed = Long.parseLong(value);
+                    break;
+                case "threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                case "frames":
+                    frames = Integer.parseInt(value);
+                    break;
+                case "out":
+                    out = value;
+                    break;
+                default:
+                    String[] parts = value.split(",");
+                    double[] values = new double[parts.length];
+                    for (int i = 0; i < parts.length; i++) {
+                        values[i] = Double.parseDouble(parts[i]);
+                    }
+                    new PlayerConfig().get(name); // fail early on a bad name
+                    axes.put(name, values);
+            }
+        }
+        List<PlayerConfig> configs = sweep(new PlayerConfig(), axes);
+        Tournament tournament = new Tournament(SimMaze.CLASSIC, threads);
+        if (frames > 0) {
+            tournament.setMaxFrames(frames);
+        }
+        long start = System.nanoTime();
+        List<Summary> summaries = tournament.run(configs, seed, games);
+        long nanos = System.nanoTime() - start;
+        tournament.shutdown();
+        Writer writer = out == null ? new PrintWriter(System.out) : new FileWriter(out);
+        try {
+            writeCsv(summaries, writer);
+        } finally {
+            if (out != null) {
+                writer.close();
+            }
+        }
+        System.err.println(configs.size() * games + " games on " + threads
+                + " threads in " + nanos / 1000000 + " ms");
+    }
+}